@@ -2,6 +2,8 @@
  * NIST SP 800-232 Ascon-AEAD128.
  *
  * Pure Java: no imports, no JavaFX, no external libraries.
+ * Includes a one-shot API, a streaming {@link AeadCipher} context that
+ * works on caller-provided buffers, and a throughput benchmark.
  * Security rule: never reuse the same (key, nonce) pair.
  */
 public final class Ascon128 {
@@ -35,12 +37,13 @@ public final class Ascon128 {
             throw new IllegalArgumentException("Plaintext is too large");
         }
 
-        long[] state = initialize(key, nonce);
-        absorbAssociatedData(state, associatedData);
-
+        AeadCipher cipher = new AeadCipher(key);
         byte[] result = new byte[plaintext.length + TAG_BYTES];
-        encryptMessage(state, plaintext, result);
-        finalizeAndWriteTag(state, key, result, plaintext.length);
+
+        cipher.init(true, nonce);
+        cipher.updateAAD(associatedData, 0, associatedData.length);
+        cipher.update(plaintext, 0, plaintext.length, result, 0);
+        cipher.doFinal(result, plaintext.length);
 
         return result;
     }
@@ -61,192 +64,301 @@ public final class Ascon128 {
         }
 
         int ciphertextLength = ciphertextAndTag.length - TAG_BYTES;
-        long[] state = initialize(key, nonce);
-        absorbAssociatedData(state, associatedData);
-
+        AeadCipher cipher = new AeadCipher(key);
         byte[] plaintext = new byte[ciphertextLength];
-        decryptMessage(state, ciphertextAndTag, ciphertextLength, plaintext);
 
-        byte[] calculatedTag = new byte[TAG_BYTES];
-        finalizeAndWriteTag(state, key, calculatedTag, 0);
+        cipher.init(false, nonce);
+        cipher.updateAAD(associatedData, 0, associatedData.length);
+        cipher.update(ciphertextAndTag, 0, ciphertextLength, plaintext, 0);
 
-        if (!constantTimeEquals(calculatedTag, 0, ciphertextAndTag, ciphertextLength, TAG_BYTES)) {
+        try {
+            cipher.doFinal(ciphertextAndTag, ciphertextLength);
+        } catch (SecurityException e) {
             wipe(plaintext);
-            throw new SecurityException("Authentication failed: invalid key, nonce, data, or tag");
+            throw e;
         }
 
         return plaintext;
     }
 
-    private static long[] initialize(byte[] key, byte[] nonce) {
-        long k0 = load64LE(key, 0);
-        long k1 = load64LE(key, 8);
-        long n0 = load64LE(nonce, 0);
-        long n1 = load64LE(nonce, 8);
-
-        long[] state = new long[5];
-        state[0] = IV;
-        state[1] = k0;
-        state[2] = k1;
-        state[3] = n0;
-        state[4] = n1;
+    /**
+     * Streaming Ascon-AEAD128 with the five state words held in fields.
+     *
+     * <p>After {@link #init}, associated data may be passed in any number of
+     * {@link #updateAAD} calls, then the message in any number of
+     * {@link #update} calls, and {@link #doFinal} writes or checks the tag.
+     * Whole 16-byte rate blocks are absorbed as two 64-bit words; only the
+     * bytes of a partial block are handled one at a time, and the
+     * permutation runs as soon as a block is complete. Output goes straight
+     * into the caller's buffer, which may be the input buffer.
+     *
+     * <p>When decrypting, {@code update} returns plaintext before the tag is
+     * checked; it must not be trusted until {@code doFinal} returns.
+     */
+    public static final class AeadCipher {
+        private static final int IDLE = 0;
+        private static final int AAD = 1;
+        private static final int DATA = 2;
+
+        private long k0;
+        private long k1;
+        private long x0;
+        private long x1;
+        private long x2;
+        private long x3;
+        private long x4;
+        private int position;
+        private int stage = IDLE;
+        private boolean encrypting;
+
+        public AeadCipher(byte[] key) {
+            if (key == null || key.length != KEY_BYTES) {
+                throw new IllegalArgumentException("Key must be exactly 16 bytes");
+            }
 
-        permutation(state, 12);
+            k0 = load64LE(key, 0);
+            k1 = load64LE(key, 8);
+        }
 
-        state[3] ^= k0;
-        state[4] ^= k1;
-        return state;
-    }
+        public void init(boolean encrypt, byte[] nonce) {
+            if (nonce == null || nonce.length != NONCE_BYTES) {
+                throw new IllegalArgumentException("Nonce must be exactly 16 bytes");
+            }
 
-    private static void absorbAssociatedData(long[] state, byte[] ad) {
-        int offset = 0;
+            x0 = IV;
+            x1 = k0;
+            x2 = k1;
+            x3 = load64LE(nonce, 0);
+            x4 = load64LE(nonce, 8);
 
-        // Full associated-data blocks.
-        while (ad.length - offset >= RATE) {
-            state[0] ^= load64LE(ad, offset);
-            state[1] ^= load64LE(ad, offset + 8);
-            permutation(state, 8);
-            offset += RATE;
-        }
+            permute(12);
 
-        // Last padded block, including when AD length is an exact multiple of 16.
-        int remaining = ad.length - offset;
-        for (int i = 0; i < remaining; i++) {
-            xorByte(state, i, ad[offset + i]);
+            x3 ^= k0;
+            x4 ^= k1;
+            position = 0;
+            stage = AAD;
+            encrypting = encrypt;
         }
-        xorByte(state, remaining, (byte) 0x01);
-        permutation(state, 8);
 
-        // Domain separation between associated data and plaintext.
-        state[4] ^= 1L;
-    }
+        public void updateAAD(byte[] data, int offset, int length) {
+            if (stage != AAD) {
+                throw new IllegalStateException("Associated data must precede the message");
+            }
 
-    private static void encryptMessage(long[] state, byte[] plaintext, byte[] output) {
-        int offset = 0;
+            checkRange(data, offset, length);
 
-        while (plaintext.length - offset >= RATE) {
-            state[0] ^= load64LE(plaintext, offset);
-            state[1] ^= load64LE(plaintext, offset + 8);
+            int end = offset + length;
 
-            store64LE(state[0], output, offset);
-            store64LE(state[1], output, offset + 8);
+            while (offset < end) {
+                if (position == 0 && end - offset >= RATE) {
+                    x0 ^= load64LE(data, offset);
+                    x1 ^= load64LE(data, offset + 8);
+                    permute(8);
+                    offset += RATE;
+                } else {
+                    xorStateByte(position++, data[offset++]);
 
-            permutation(state, 8);
-            offset += RATE;
+                    if (position == RATE) {
+                        permute(8);
+                        position = 0;
+                    }
+                }
+            }
         }
 
-        int remaining = plaintext.length - offset;
+        public int update(byte[] input, int inputOffset, int length,
+                          byte[] output, int outputOffset) {
+            if (stage == AAD) {
+                finishAssociatedData();
+            } else if (stage != DATA) {
+                throw new IllegalStateException("Cipher not initialized");
+            }
 
-        for (int i = 0; i < remaining; i++) {
-            byte cipherByte = (byte) (plaintext[offset + i] ^ getByte(state, i));
-            output[offset + i] = cipherByte;
+            checkRange(input, inputOffset, length);
+            checkRange(output, outputOffset, length);
+
+            for (int done = 0; done < length; ) {
+                if (position == 0 && length - done >= RATE) {
+                    long w0 = load64LE(input, inputOffset + done);
+                    long w1 = load64LE(input, inputOffset + done + 8);
+
+                    if (encrypting) {
+                        x0 ^= w0;
+                        x1 ^= w1;
+                        store64LE(x0, output, outputOffset + done);
+                        store64LE(x1, output, outputOffset + done + 8);
+                    } else {
+                        // State must contain ciphertext after decryption.
+                        store64LE(x0 ^ w0, output, outputOffset + done);
+                        store64LE(x1 ^ w1, output, outputOffset + done + 8);
+                        x0 = w0;
+                        x1 = w1;
+                    }
+
+                    permute(8);
+                    done += RATE;
+                    continue;
+                }
+
+                int shift = (position & 7) << 3;
+                long word = position < 8 ? x0 : x1;
+                int value = input[inputOffset + done] & 0xFF;
+                int stateByte = (int) (word >>> shift) & 0xFF;
+
+                output[outputOffset + done] = (byte) (value ^ stateByte);
+
+                // Either way the state byte becomes the ciphertext byte.
+                word ^= (long) (encrypting ? value : value ^ stateByte) << shift;
+
+                if (position < 8) {
+                    x0 = word;
+                } else {
+                    x1 = word;
+                }
+
+                done++;
+
+                if (++position == RATE) {
+                    permute(8);
+                    position = 0;
+                }
+            }
 
-            // State absorbs plaintext; this produces the ciphertext in state.
-            xorByte(state, i, plaintext[offset + i]);
+            return length;
         }
 
-        // pad10*: append byte 0x01 immediately after the last plaintext byte.
-        xorByte(state, remaining, (byte) 0x01);
-    }
+        /**
+         * Encrypting: writes the 16-byte tag at {@code tag[offset]}.
+         * Decrypting: compares it in constant time.
+         *
+         * @throws SecurityException when decrypting and the tag is invalid
+         */
+        public void doFinal(byte[] tag, int offset) {
+            if (stage == AAD) {
+                finishAssociatedData();
+            } else if (stage != DATA) {
+                throw new IllegalStateException("Cipher not initialized");
+            }
 
-    private static void decryptMessage(long[] state, byte[] ciphertext,
-                                       int ciphertextLength, byte[] plaintext) {
-        int offset = 0;
+            checkRange(tag, offset, TAG_BYTES);
+
+            // pad10*: append byte 0x01 immediately after the last message byte.
+            xorStateByte(position, (byte) 0x01);
 
-        while (ciphertextLength - offset >= RATE) {
-            long c0 = load64LE(ciphertext, offset);
-            long c1 = load64LE(ciphertext, offset + 8);
+            x2 ^= k0;
+            x3 ^= k1;
+            permute(12);
+            x3 ^= k0;
+            x4 ^= k1;
+            stage = IDLE;
 
-            store64LE(state[0] ^ c0, plaintext, offset);
-            store64LE(state[1] ^ c1, plaintext, offset + 8);
+            if (encrypting) {
+                store64LE(x3, tag, offset);
+                store64LE(x4, tag, offset + 8);
+                clearState();
+                return;
+            }
 
-            state[0] = c0;
-            state[1] = c1;
+            long difference = (x3 ^ load64LE(tag, offset)) | (x4 ^ load64LE(tag, offset + 8));
+            clearState();
 
-            permutation(state, 8);
-            offset += RATE;
+            if (difference != 0) {
+                throw new SecurityException("Authentication failed: invalid key, nonce, data, or tag");
+            }
         }
 
-        int remaining = ciphertextLength - offset;
+        public void destroy() {
+            clearState();
+            k0 = 0;
+            k1 = 0;
+            stage = IDLE;
+        }
 
-        for (int i = 0; i < remaining; i++) {
-            byte c = ciphertext[offset + i];
-            plaintext[offset + i] = (byte) (c ^ getByte(state, i));
+        private void finishAssociatedData() {
+            // Last padded block, including when AD length is an exact multiple of 16.
+            xorStateByte(position, (byte) 0x01);
+            permute(8);
 
-            // State must contain ciphertext after decryption.
-            setByte(state, i, c);
+            // Domain separation between associated data and plaintext.
+            x4 ^= 1L;
+            position = 0;
+            stage = DATA;
         }
 
-        xorByte(state, remaining, (byte) 0x01);
-    }
+        private void xorStateByte(int index, byte value) {
+            long shifted = ((long) value & 0xFFL) << ((index & 7) << 3);
 
-    private static void finalizeAndWriteTag(long[] state, byte[] key,
-                                            byte[] destination, int destinationOffset) {
-        long k0 = load64LE(key, 0);
-        long k1 = load64LE(key, 8);
+            if (index < 8) {
+                x0 ^= shifted;
+            } else {
+                x1 ^= shifted;
+            }
+        }
 
-        state[2] ^= k0;
-        state[3] ^= k1;
-        permutation(state, 12);
-        state[3] ^= k0;
-        state[4] ^= k1;
+        private void clearState() {
+            x0 = x1 = x2 = x3 = x4 = 0;
+            position = 0;
+        }
 
-        store64LE(state[3], destination, destinationOffset);
-        store64LE(state[4], destination, destinationOffset + 8);
-    }
+        /**
+         * Ascon-p permutation. Uses 12 rounds for initialization/finalization
+         * and 8 rounds during AD/message processing.
+         */
+        private void permute(int rounds) {
+            long x0 = this.x0;
+            long x1 = this.x1;
+            long x2 = this.x2;
+            long x3 = this.x3;
+            long x4 = this.x4;
+
+            int firstRound = 12 - rounds;
+
+            for (int round = firstRound; round < 12; round++) {
+                long roundConstant = (long) (((0xF - round) << 4) | round);
+                x2 ^= roundConstant;
+
+                // Substitution layer.
+                x0 ^= x4;
+                x4 ^= x3;
+                x2 ^= x1;
+
+                long t0 = ~x0 & x1;
+                long t1 = ~x1 & x2;
+                long t2 = ~x2 & x3;
+                long t3 = ~x3 & x4;
+                long t4 = ~x4 & x0;
+
+                x0 ^= t1;
+                x1 ^= t2;
+                x2 ^= t3;
+                x3 ^= t4;
+                x4 ^= t0;
+
+                x1 ^= x0;
+                x0 ^= x4;
+                x3 ^= x2;
+                x2 = ~x2;
+
+                // Linear diffusion layer.
+                x0 ^= rotateRight(x0, 19) ^ rotateRight(x0, 28);
+                x1 ^= rotateRight(x1, 61) ^ rotateRight(x1, 39);
+                x2 ^= rotateRight(x2, 1) ^ rotateRight(x2, 6);
+                x3 ^= rotateRight(x3, 10) ^ rotateRight(x3, 17);
+                x4 ^= rotateRight(x4, 7) ^ rotateRight(x4, 41);
+            }
 
-    /**
-     * Ascon-p permutation. Uses 12 rounds for initialization/finalization
-     * and 8 rounds during AD/message processing.
-     */
-    private static void permutation(long[] s, int rounds) {
-        long x0 = s[0];
-        long x1 = s[1];
-        long x2 = s[2];
-        long x3 = s[3];
-        long x4 = s[4];
-
-        int firstRound = 12 - rounds;
-
-        for (int round = firstRound; round < 12; round++) {
-            long roundConstant = (long) (((0xF - round) << 4) | round);
-            x2 ^= roundConstant;
-
-            // Substitution layer.
-            x0 ^= x4;
-            x4 ^= x3;
-            x2 ^= x1;
-
-            long t0 = ~x0 & x1;
-            long t1 = ~x1 & x2;
-            long t2 = ~x2 & x3;
-            long t3 = ~x3 & x4;
-            long t4 = ~x4 & x0;
-
-            x0 ^= t1;
-            x1 ^= t2;
-            x2 ^= t3;
-            x3 ^= t4;
-            x4 ^= t0;
-
-            x1 ^= x0;
-            x0 ^= x4;
-            x3 ^= x2;
-            x2 = ~x2;
-
-            // Linear diffusion layer.
-            x0 ^= rotateRight(x0, 19) ^ rotateRight(x0, 28);
-            x1 ^= rotateRight(x1, 61) ^ rotateRight(x1, 39);
-            x2 ^= rotateRight(x2, 1) ^ rotateRight(x2, 6);
-            x3 ^= rotateRight(x3, 10) ^ rotateRight(x3, 17);
-            x4 ^= rotateRight(x4, 7) ^ rotateRight(x4, 41);
+            this.x0 = x0;
+            this.x1 = x1;
+            this.x2 = x2;
+            this.x3 = x3;
+            this.x4 = x4;
         }
+    }
 
-        s[0] = x0;
-        s[1] = x1;
-        s[2] = x2;
-        s[3] = x3;
-        s[4] = x4;
+    private static void checkRange(byte[] data, int offset, int length) {
+        if (data == null || offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Buffer range out of bounds");
+        }
     }
 
     private static long rotateRight(long value, int distance) {
@@ -271,25 +383,6 @@ public final class Ascon128 {
         }
     }
 
-    private static byte getByte(long[] state, int byteIndex) {
-        int word = byteIndex >>> 3;
-        int shift = (byteIndex & 7) << 3;
-        return (byte) (state[word] >>> shift);
-    }
-
-    private static void setByte(long[] state, int byteIndex, byte value) {
-        int word = byteIndex >>> 3;
-        int shift = (byteIndex & 7) << 3;
-        long mask = 0xFFL << shift;
-        state[word] = (state[word] & ~mask) | (((long) value & 0xFFL) << shift);
-    }
-
-    private static void xorByte(long[] state, int byteIndex, byte value) {
-        int word = byteIndex >>> 3;
-        int shift = (byteIndex & 7) << 3;
-        state[word] ^= ((long) value & 0xFFL) << shift;
-    }
-
     private static void checkKeyAndNonce(byte[] key, byte[] nonce) {
         if (key == null || key.length != KEY_BYTES) {
             throw new IllegalArgumentException("Key must be exactly 16 bytes");
@@ -299,15 +392,6 @@ public final class Ascon128 {
         }
     }
 
-    private static boolean constantTimeEquals(byte[] a, int aOffset,
-                                              byte[] b, int bOffset, int length) {
-        int difference = 0;
-        for (int i = 0; i < length; i++) {
-            difference |= (a[aOffset + i] ^ b[bOffset + i]);
-        }
-        return difference == 0;
-    }
-
     private static void wipe(byte[] data) {
         for (int i = 0; i < data.length; i++) {
             data[i] = 0;
@@ -343,6 +427,136 @@ public final class Ascon128 {
         System.out.println("Plaintext : " + new String(message));
         System.out.println("Sealed hex: " + toHex(sealed));
         System.out.println("Recovered : " + new String(recovered));
+
+        runStreamingTest(key, nonce, ad);
+        benchmark();
+    }
+
+    /**
+     * The streaming context must match the one-shot API however the input
+     * is split, and reject a bad tag.
+     */
+    private static void runStreamingTest(byte[] key, byte[] nonce, byte[] ad) {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 13);
+
+        byte[] expected = encrypt(key, nonce, ad, data);
+        int[] splits = { 1, 15, 16, 17, 33, 7, 500 };
+
+        AeadCipher cipher = new AeadCipher(key);
+        byte[] sealed = new byte[data.length + TAG_BYTES];
+        System.arraycopy(data, 0, sealed, 0, data.length);
+
+        cipher.init(true, nonce);
+        cipher.updateAAD(ad, 0, 3);
+        cipher.updateAAD(ad, 3, ad.length - 3);
+
+        int offset = 0;
+        for (int i = 0; offset < data.length; i++) {
+            int length = Math.min(splits[i % splits.length], data.length - offset);
+            cipher.update(sealed, offset, length, sealed, offset);
+            offset += length;
+        }
+        cipher.doFinal(sealed, data.length);
+
+        require(equal(sealed, expected), "Streaming in-place encryption failed");
+
+        byte[] opened = new byte[data.length];
+        cipher.init(false, nonce);
+        cipher.updateAAD(ad, 0, ad.length);
+        cipher.update(sealed, 0, 100, opened, 0);
+        cipher.update(sealed, 100, data.length - 100, opened, 100);
+        cipher.doFinal(sealed, data.length);
+
+        require(equal(opened, data), "Streaming decryption failed");
+
+        sealed[data.length] ^= 1;
+        cipher.init(false, nonce);
+        cipher.updateAAD(ad, 0, ad.length);
+        cipher.update(sealed, 0, data.length, opened, 0);
+
+        boolean rejected = false;
+        try {
+            cipher.doFinal(sealed, data.length);
+        } catch (SecurityException expectedFailure) {
+            rejected = true;
+        }
+        require(rejected, "Streaming decryption accepted a bad tag");
+
+        cipher.destroy();
+        System.out.println("Streaming Ascon-AEAD128 tests passed.");
+    }
+
+    /**
+     * Same measurements as ChaCha20Poly1305.benchmark so the two AEADs can
+     * be compared: a 1 MiB one-shot encryption after warm-up, then one
+     * reused streaming context sealing messages of 64 B to 16 MiB in place.
+     */
+    private static void benchmark() {
+        byte[] key = new byte[KEY_BYTES];
+        byte[] nonce = new byte[NONCE_BYTES];
+        byte[] ad = ascii("benchmark-aad");
+        byte[] data = new byte[1024 * 1024];
+
+        for (int i = 0; i < key.length; i++) key[i] = (byte) i;
+        for (int i = 0; i < nonce.length; i++) nonce[i] = (byte) (i + 32);
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+        // Warm up so the timed runs measure compiled code.
+        for (int i = 0; i < 16; i++) {
+            wipe(encrypt(key, nonce, ad, data));
+        }
+
+        int runs = 32;
+        byte[] result = null;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < runs; i++) {
+            result = encrypt(key, nonce, ad, data);
+        }
+
+        long elapsed = (System.nanoTime() - start) / runs;
+        double mibPerSecond = (data.length / 1024.0 / 1024.0) / (elapsed / 1_000_000_000.0);
+
+        System.out.println("Ascon-AEAD128 benchmark:");
+        System.out.println("  Data size : " + data.length + " bytes");
+        System.out.println("  Time      : " + (elapsed / 1_000_000.0) + " ms");
+        System.out.println("  Throughput: " + mibPerSecond + " MiB/s");
+
+        wipe(result);
+
+        int[] sizes = { 64, 1024, 64 * 1024, 16 * 1024 * 1024 };
+        byte[] buffer = new byte[sizes[sizes.length - 1] + TAG_BYTES];
+        AeadCipher cipher = new AeadCipher(key);
+
+        System.out.println("Ascon-AEAD128 context benchmark (reused, in place):");
+
+        for (int size : sizes) {
+            int iterations = (int) Math.max(4, (64L << 20) / size);
+
+            for (int pass = 0; pass < 2; pass++) {
+                int count = pass == 0 ? iterations / 4 : iterations;
+                start = System.nanoTime();
+
+                for (int i = 0; i < count; i++) {
+                    cipher.init(true, nonce);
+                    cipher.updateAAD(ad, 0, ad.length);
+                    cipher.update(buffer, 0, size, buffer, 0);
+                    cipher.doFinal(buffer, size);
+                }
+
+                elapsed = System.nanoTime() - start;
+            }
+
+            double mib = (double) size * iterations / (1024.0 * 1024.0);
+
+            System.out.printf("  %8s : %9.1f MiB/s%n",
+                    size >= 1 << 20 ? (size >> 20) + " MiB"
+                            : size >= 1 << 10 ? (size >> 10) + " KiB" : size + " B",
+                    mib / (elapsed / 1_000_000_000.0));
+        }
+
+        cipher.destroy();
     }
 
     private static void require(boolean condition, String message) {
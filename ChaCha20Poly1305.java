@@ -1,13 +1,24 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 /*
  * ChaCha20-Poly1305 AEAD from scratch (RFC 8439).
  *
  * No JavaFX and no external libraries.
  * Includes:
  * - ChaCha20 quarter-round and 20-round block function
- * - Poly1305 using 26-bit limbs stored in long values
- * - AEAD construction with AAD and length blocks
- * - RFC 8439 known-answer test
- * - System.nanoTime() throughput benchmark
+ * - Reusable, allocation-free ChaCha20 context over arrays and ByteBuffers
+ * - Multi-core ChaCha20 and AEAD by splitting the block-counter range
+ * - Poly1305 using 44/44/42-bit limbs and Math.multiplyHigh, with the
+ *   original 26-bit version kept as a reference
+ * - Incremental AEAD (init / updateAAD / update / doFinal) that feeds
+ *   Poly1305 as data passes, with AAD padding and length blocks
+ * - RFC 8439 known-answer tests
+ * - System.nanoTime() throughput benchmarks
  *
  * Educational implementation. Use a reviewed JCA provider in production.
  */
@@ -22,7 +33,11 @@ public final class ChaCha20Poly1305 {
     public static void main(String[] args) {
         runRfc8439Test();
         runRoundTripTest();
+        runPoly1305Test();
+        runStreamingTest();
+        runParallelTest();
         benchmark();
+        benchmarkKeystream();
     }
 
     // ================================================================
@@ -39,23 +54,14 @@ public final class ChaCha20Poly1305 {
         if (aad == null) aad = new byte[0];
         if (plaintext == null) plaintext = new byte[0];
 
-        byte[] oneTimeKey = chacha20Block(key, 0, nonce);
-        byte[] ciphertext = chacha20Xor(key, nonce, 1, plaintext);
-        byte[] macData = buildMacData(aad, ciphertext);
-        byte[] tag = poly1305(macData, oneTimeKey);
-
-        byte[] result = new byte[ciphertext.length + TAG_LENGTH];
-
-        for (int i = 0; i < ciphertext.length; i++) {
-            result[i] = ciphertext[i];
-        }
-
-        for (int i = 0; i < TAG_LENGTH; i++) {
-            result[ciphertext.length + i] = tag[i];
-        }
+        AeadCipher cipher = new AeadCipher(key);
+        byte[] result = new byte[plaintext.length + TAG_LENGTH];
 
-        wipe(oneTimeKey);
-        wipe(macData);
+        cipher.init(true, nonce);
+        cipher.updateAAD(aad, 0, aad.length);
+        cipher.update(plaintext, 0, plaintext.length, result, 0);
+        cipher.doFinal(result, plaintext.length);
+        cipher.destroy();
 
         return result;
     }
@@ -74,61 +80,389 @@ public final class ChaCha20Poly1305 {
         }
 
         int ciphertextLength = ciphertextAndTag.length - TAG_LENGTH;
-        byte[] ciphertext = new byte[ciphertextLength];
-        byte[] suppliedTag = new byte[TAG_LENGTH];
+        AeadCipher cipher = new AeadCipher(key);
+        byte[] plaintext = new byte[ciphertextLength];
+
+        try {
+            cipher.init(false, nonce);
+            cipher.updateAAD(aad, 0, aad.length);
+            cipher.update(ciphertextAndTag, 0, ciphertextLength, plaintext, 0);
+            cipher.doFinal(ciphertextAndTag, ciphertextLength);
+        } catch (SecurityException e) {
+            wipe(plaintext);
+            throw e;
+        } finally {
+            cipher.destroy();
+        }
+
+        return plaintext;
+    }
+
+    /*
+     * Incremental ChaCha20-Poly1305. After init(), AAD may be supplied in
+     * any number of updateAAD() calls, then data in any number of
+     * update() calls, and doFinal() writes (encrypting) or checks
+     * (decrypting) the tag. Ciphertext is fed to Poly1305 as it passes,
+     * with the RFC 8439 padding and length block added on the fly, so a
+     * stream of any size needs constant memory.
+     *
+     * When decrypting, update() returns plaintext before the tag has been
+     * checked; callers must not act on it until doFinal() succeeds. The
+     * one-shot decrypt() withholds its result until then.
+     */
+    public static final class AeadCipher {
+        private static final int IDLE = 0;
+        private static final int AAD = 1;
+        private static final int DATA = 2;
+
+        private final ChaCha20 chacha;
+        private final Poly1305 mac = new Poly1305();
+        private final byte[] scratch = new byte[64];
+        private boolean encrypting;
+        private int stage = IDLE;
+        private long aadLength;
+        private long dataLength;
+
+        public AeadCipher(byte[] key) {
+            this.chacha = new ChaCha20(key, new byte[NONCE_LENGTH], 0);
+        }
+
+        public void init(boolean encrypt, byte[] nonce) {
+            chacha.reset(nonce, 0);
+            Arrays.fill(scratch, (byte) 0);
+            chacha.update(scratch, 0, 64, scratch, 0);
+
+            // The rest of block 0 is discarded; data starts at counter 1.
+            mac.init(scratch, 0);
+            Arrays.fill(scratch, (byte) 0);
+            encrypting = encrypt;
+            stage = AAD;
+            aadLength = 0;
+            dataLength = 0;
+        }
+
+        public void updateAAD(byte[] aad, int offset, int length) {
+            if (stage != AAD) {
+                throw new IllegalStateException("AAD must precede data after init()");
+            }
+
+            mac.update(aad, offset, length);
+            aadLength += length;
+        }
+
+        public int update(byte[] input, int inputOffset, int length,
+                          byte[] output, int outputOffset) {
+            startData();
+
+            if (encrypting) {
+                chacha.update(input, inputOffset, length, output, outputOffset);
+                mac.update(output, outputOffset, length);
+            } else {
+                mac.update(input, inputOffset, length);
+                chacha.update(input, inputOffset, length, output, outputOffset);
+            }
 
-        for (int i = 0; i < ciphertextLength; i++) {
-            ciphertext[i] = ciphertextAndTag[i];
+            dataLength += length;
+            return length;
         }
 
-        for (int i = 0; i < TAG_LENGTH; i++) {
-            suppliedTag[i] = ciphertextAndTag[ciphertextLength + i];
+        /*
+         * Feeds ciphertext produced elsewhere to the MAC without running
+         * the keystream. The parallel API encrypts on worker threads and
+         * authenticates here, so the tag framing exists only in this class.
+         */
+        void authenticate(byte[] ciphertext, int offset, int length) {
+            startData();
+            mac.update(ciphertext, offset, length);
+            dataLength += length;
         }
 
-        byte[] oneTimeKey = chacha20Block(key, 0, nonce);
-        byte[] macData = buildMacData(aad, ciphertext);
-        byte[] calculatedTag = poly1305(macData, oneTimeKey);
+        private void startData() {
+            if (stage == AAD) {
+                mac.padToBlock();
+                stage = DATA;
+            } else if (stage != DATA) {
+                throw new IllegalStateException("Cipher not initialized");
+            }
+        }
+
+        /*
+         * Encrypting: writes the 16-byte tag at tag[offset]. Decrypting:
+         * compares it in constant time and throws SecurityException on
+         * mismatch. Either way the cipher must be re-initialized with a
+         * fresh nonce before further use.
+         */
+        public void doFinal(byte[] tag, int offset) {
+            if (stage == IDLE) {
+                throw new IllegalStateException("Cipher not initialized");
+            }
+
+            mac.padToBlock();
+            store64LE(aadLength, scratch, 0);
+            store64LE(dataLength, scratch, 8);
+            mac.update(scratch, 0, 16);
+            mac.finish(scratch, 16);
+            stage = IDLE;
+
+            if (encrypting) {
+                System.arraycopy(scratch, 16, tag, offset, TAG_LENGTH);
+                wipe(scratch);
+                return;
+            }
+
+            int difference = 0;
 
-        boolean authentic = constantTimeEquals(calculatedTag, suppliedTag);
+            for (int i = 0; i < TAG_LENGTH; i++) {
+                difference |= scratch[16 + i] ^ tag[offset + i];
+            }
 
-        wipe(oneTimeKey);
-        wipe(macData);
-        wipe(calculatedTag);
+            wipe(scratch);
 
-        if (!authentic) {
-            throw new SecurityException("Authentication failed");
+            if (difference != 0) {
+                throw new SecurityException("Authentication failed");
+            }
         }
 
-        return chacha20Xor(key, nonce, 1, ciphertext);
+        public void destroy() {
+            chacha.destroy();
+            mac.wipe();
+            wipe(scratch);
+
+            stage = IDLE;
+        }
     }
 
     // ================================================================
     // ChaCha20
     // ================================================================
 
-    private static byte[] chacha20Xor(byte[] key, byte[] nonce,
-                                      int initialCounter, byte[] input) {
-        byte[] output = new byte[input.length];
-        int counter = initialCounter;
-        int offset = 0;
+    /*
+     * Reusable ChaCha20 context. The sixteen input words are laid out
+     * once per key; update() then encrypts or decrypts any amount of data
+     * without allocating, keeping the unused tail of the last keystream
+     * block so a stream may be split at arbitrary byte boundaries. Input
+     * and output may be the same array at the same offset.
+     */
+    public static final class ChaCha20 {
+        private final int[] state = new int[16];
+        private final byte[] keystream = new byte[64];
+        private int keystreamUsed = 64;
+        private boolean exhausted;
+
+        public ChaCha20(byte[] key, byte[] nonce, int counter) {
+            validateKeyAndNonce(key, nonce);
+
+            state[0] = 0x61707865;
+            state[1] = 0x3320646e;
+            state[2] = 0x79622d32;
+            state[3] = 0x6b206574;
+
+            for (int i = 0; i < 8; i++) {
+                state[4 + i] = load32LE(key, i * 4);
+            }
 
-        while (offset < input.length) {
-            byte[] block = chacha20Block(key, counter, nonce);
-            int count = Math.min(64, input.length - offset);
+            reset(nonce, counter);
+        }
 
-            for (int i = 0; i < count; i++) {
-                output[offset + i] = (byte) (input[offset + i] ^ block[i]);
+        /*
+         * Starts a new message under the same key.
+         */
+        public void reset(byte[] nonce, int counter) {
+            if (nonce == null || nonce.length != NONCE_LENGTH) {
+                throw new IllegalArgumentException("ChaCha20 nonce must contain 12 bytes");
             }
 
-            wipe(block);
-            offset += count;
-            counter++;
+            state[12] = counter;
+            state[13] = load32LE(nonce, 0);
+            state[14] = load32LE(nonce, 4);
+            state[15] = load32LE(nonce, 8);
+            keystreamUsed = 64;
+            exhausted = false;
+        }
+
+        public int update(byte[] input, int inputOffset, int length,
+                          byte[] output, int outputOffset) {
+            if (length < 0 || inputOffset < 0 || outputOffset < 0
+                    || inputOffset > input.length - length
+                    || outputOffset > output.length - length) {
+                throw new IndexOutOfBoundsException("ChaCha20 buffer range out of bounds");
+            }
+
+            int done = 0;
+
+            while (done < length && keystreamUsed < 64) {
+                output[outputOffset + done] =
+                        (byte) (input[inputOffset + done] ^ keystream[keystreamUsed++]);
+                done++;
+            }
+
+            while (length - done >= 64) {
+                block(input, inputOffset + done, output, outputOffset + done);
+                done += 64;
+            }
+
+            if (done < length) {
+                block(null, 0, keystream, 0);
+                keystreamUsed = 0;
+
+                while (done < length) {
+                    output[outputOffset + done] =
+                            (byte) (input[inputOffset + done] ^ keystream[keystreamUsed++]);
+                    done++;
+                }
+            }
+
+            return length;
+        }
 
-            if (counter == 0 && offset < input.length) {
+        /*
+         * Processes input.remaining() bytes into output, advancing both
+         * positions. Heap buffers take the array path; direct buffers are
+         * XORed eight bytes at a time against the keystream block.
+         */
+        public int update(ByteBuffer input, ByteBuffer output) {
+            int length = input.remaining();
+
+            if (output.remaining() < length) {
+                throw new IllegalArgumentException("Output buffer too small");
+            }
+
+            if (input.hasArray() && output.hasArray()) {
+                update(input.array(), input.arrayOffset() + input.position(), length,
+                        output.array(), output.arrayOffset() + output.position());
+                input.position(input.position() + length);
+                output.position(output.position() + length);
+                return length;
+            }
+
+            ByteBuffer source = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer target = output.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int done = 0;
+
+            while (done < length) {
+                if (keystreamUsed == 64) {
+                    block(null, 0, keystream, 0);
+                    keystreamUsed = 0;
+                }
+
+                if (keystreamUsed == 0 && length - done >= 64) {
+                    for (int i = 0; i < 64; i += 8) {
+                        target.putLong(source.getLong() ^ load64LE(keystream, i));
+                    }
+
+                    keystreamUsed = 64;
+                    done += 64;
+                } else {
+                    target.put((byte) (source.get() ^ keystream[keystreamUsed++]));
+                    done++;
+                }
+            }
+
+            input.position(input.position() + length);
+            output.position(output.position() + length);
+            return length;
+        }
+
+        public void destroy() {
+            Arrays.fill(state, 0);
+            wipe(keystream);
+            keystreamUsed = 64;
+        }
+
+        /*
+         * One 20-round block on local variables. With input == null the
+         * raw keystream is written, otherwise input XOR keystream.
+         */
+        private void block(byte[] input, int inputOffset, byte[] output, int outputOffset) {
+            if (exhausted) {
                 throw new IllegalStateException("ChaCha20 counter exhausted");
             }
+
+            int[] s = state;
+            int x0 = s[0], x1 = s[1], x2 = s[2], x3 = s[3];
+            int x4 = s[4], x5 = s[5], x6 = s[6], x7 = s[7];
+            int x8 = s[8], x9 = s[9], x10 = s[10], x11 = s[11];
+            int x12 = s[12], x13 = s[13], x14 = s[14], x15 = s[15];
+
+            for (int round = 0; round < 10; round++) {
+                x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+                x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+                x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+                x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+
+                x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+                x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+                x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+                x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+
+                x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+                x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+                x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+                x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+
+                x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+                x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+                x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+                x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+
+                x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+                x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+                x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+                x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+
+                x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+                x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+                x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+                x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+
+                x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+                x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+                x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+                x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+
+                x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+                x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+                x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+                x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+            }
+
+            xorWord(x0 + s[0], input, inputOffset, output, outputOffset);
+            xorWord(x1 + s[1], input, inputOffset + 4, output, outputOffset + 4);
+            xorWord(x2 + s[2], input, inputOffset + 8, output, outputOffset + 8);
+            xorWord(x3 + s[3], input, inputOffset + 12, output, outputOffset + 12);
+            xorWord(x4 + s[4], input, inputOffset + 16, output, outputOffset + 16);
+            xorWord(x5 + s[5], input, inputOffset + 20, output, outputOffset + 20);
+            xorWord(x6 + s[6], input, inputOffset + 24, output, outputOffset + 24);
+            xorWord(x7 + s[7], input, inputOffset + 28, output, outputOffset + 28);
+            xorWord(x8 + s[8], input, inputOffset + 32, output, outputOffset + 32);
+            xorWord(x9 + s[9], input, inputOffset + 36, output, outputOffset + 36);
+            xorWord(x10 + s[10], input, inputOffset + 40, output, outputOffset + 40);
+            xorWord(x11 + s[11], input, inputOffset + 44, output, outputOffset + 44);
+            xorWord(x12 + s[12], input, inputOffset + 48, output, outputOffset + 48);
+            xorWord(x13 + s[13], input, inputOffset + 52, output, outputOffset + 52);
+            xorWord(x14 + s[14], input, inputOffset + 56, output, outputOffset + 56);
+            xorWord(x15 + s[15], input, inputOffset + 60, output, outputOffset + 60);
+
+            if (++s[12] == 0) {
+                exhausted = true;
+            }
         }
 
+        private static void xorWord(int word, byte[] input, int inputOffset,
+                                    byte[] output, int outputOffset) {
+            store32LE(input == null ? word : word ^ load32LE(input, inputOffset),
+                    output, outputOffset);
+        }
+    }
+
+    private static byte[] chacha20Xor(byte[] key, byte[] nonce,
+                                      int initialCounter, byte[] input) {
+        byte[] output = new byte[input.length];
+        ChaCha20 cipher = new ChaCha20(key, nonce, initialCounter);
+
+        cipher.update(input, 0, input.length, output, 0);
+        cipher.destroy();
+
         return output;
     }
 
@@ -136,71 +470,368 @@ public final class ChaCha20Poly1305 {
      * RFC 8439 ChaCha20 block function.
      */
     private static byte[] chacha20Block(byte[] key, int counter, byte[] nonce) {
-        int[] state = new int[16];
+        byte[] result = new byte[64];
+        ChaCha20 cipher = new ChaCha20(key, nonce, counter);
 
-        state[0] = 0x61707865;
-        state[1] = 0x3320646e;
-        state[2] = 0x79622d32;
-        state[3] = 0x6b206574;
+        cipher.update(result, 0, 64, result, 0);
+        cipher.destroy();
 
-        for (int i = 0; i < 8; i++) {
-            state[4 + i] = load32LE(key, i * 4);
-        }
+        return result;
+    }
 
-        state[12] = counter;
-        state[13] = load32LE(nonce, 0);
-        state[14] = load32LE(nonce, 4);
-        state[15] = load32LE(nonce, 8);
+    // ================================================================
+    // Parallel ChaCha20
+    // ================================================================
 
-        int[] working = new int[16];
+    private static final int PARALLEL_SEGMENT = 1 << 20;
 
-        for (int i = 0; i < 16; i++) {
-            working[i] = state[i];
-        }
+    /*
+     * ChaCha20 over a large buffer on a ForkJoinPool. The keystream is
+     * seekable: the block at byte offset n uses counter
+     * initialCounter + n / 64, so the range is split at multiples of 64
+     * bytes and each 1 MiB leaf runs its own context with no shared
+     * state. Input and output may be the same array at the same offset.
+     */
+    public static void chacha20XorParallel(byte[] key, byte[] nonce, int initialCounter,
+                                           byte[] input, int inputOffset, int length,
+                                           byte[] output, int outputOffset,
+                                           ForkJoinPool pool) {
+        validateKeyAndNonce(key, nonce);
+        checkCounterRange(initialCounter, length);
+
+        pool.invoke(new XorTask(key, nonce, initialCounter,
+                input, inputOffset, output, outputOffset, 0, length));
+    }
 
-        for (int round = 0; round < 10; round++) {
-            quarterRound(working, 0, 4, 8, 12);
-            quarterRound(working, 1, 5, 9, 13);
-            quarterRound(working, 2, 6, 10, 14);
-            quarterRound(working, 3, 7, 11, 15);
+    /*
+     * Parallel form of encrypt(). Keystream segments are forked in order
+     * and the calling thread runs Poly1305 over each segment's ciphertext
+     * as soon as it completes, so the MAC is pipelined behind the
+     * workers instead of waiting for the whole buffer.
+     */
+    public static byte[] encryptParallel(byte[] key, byte[] nonce, byte[] aad,
+                                         byte[] plaintext, ForkJoinPool pool) {
+        validateKeyAndNonce(key, nonce);
 
-            quarterRound(working, 0, 5, 10, 15);
-            quarterRound(working, 1, 6, 11, 12);
-            quarterRound(working, 2, 7, 8, 13);
-            quarterRound(working, 3, 4, 9, 14);
+        if (aad == null) aad = new byte[0];
+        if (plaintext == null) plaintext = new byte[0];
+
+        checkCounterRange(1, plaintext.length);
+
+        byte[] result = new byte[plaintext.length + TAG_LENGTH];
+        AeadCipher cipher = new AeadCipher(key);
+        int segments = (plaintext.length + PARALLEL_SEGMENT - 1) / PARALLEL_SEGMENT;
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[segments];
+
+        for (int i = 0; i < segments; i++) {
+            int from = i * PARALLEL_SEGMENT;
+            int to = Math.min(plaintext.length, from + PARALLEL_SEGMENT);
+            tasks[i] = pool.submit(new XorTask(key, nonce, 1, plaintext, 0, result, 0, from, to));
         }
 
-        byte[] result = new byte[64];
+        try {
+            cipher.init(true, nonce);
+            cipher.updateAAD(aad, 0, aad.length);
+
+            for (int i = 0; i < segments; i++) {
+                int from = i * PARALLEL_SEGMENT;
+                tasks[i].join();
+                cipher.authenticate(result, from,
+                        Math.min(plaintext.length, from + PARALLEL_SEGMENT) - from);
+            }
 
-        for (int i = 0; i < 16; i++) {
-            store32LE(working[i] + state[i], result, i * 4);
+            cipher.doFinal(result, plaintext.length);
+        } finally {
+            cipher.destroy();
         }
 
         return result;
     }
 
-    private static void quarterRound(int[] x, int a, int b, int c, int d) {
-        x[a] += x[b];
-        x[d] = rotateLeft(x[d] ^ x[a], 16);
+    /*
+     * Parallel form of decrypt(). The ciphertext is authenticated on the
+     * calling thread while the workers decrypt it; the plaintext is
+     * wiped and withheld if the tag does not match.
+     */
+    public static byte[] decryptParallel(byte[] key, byte[] nonce, byte[] aad,
+                                         byte[] ciphertextAndTag, ForkJoinPool pool) {
+        validateKeyAndNonce(key, nonce);
+
+        if (aad == null) aad = new byte[0];
+
+        if (ciphertextAndTag == null || ciphertextAndTag.length < TAG_LENGTH) {
+            throw new IllegalArgumentException("Ciphertext must include a 16-byte tag");
+        }
+
+        int length = ciphertextAndTag.length - TAG_LENGTH;
+        checkCounterRange(1, length);
+
+        byte[] plaintext = new byte[length];
+        ForkJoinTask<?> decryption = pool.submit(
+                new XorTask(key, nonce, 1, ciphertextAndTag, 0, plaintext, 0, 0, length));
+
+        AeadCipher cipher = new AeadCipher(key);
+
+        try {
+            cipher.init(false, nonce);
+            cipher.updateAAD(aad, 0, aad.length);
+            cipher.authenticate(ciphertextAndTag, 0, length);
+            decryption.join();
+            cipher.doFinal(ciphertextAndTag, length);
+        } catch (SecurityException e) {
+            wipe(plaintext);
+            throw e;
+        } finally {
+            cipher.destroy();
+        }
+
+        return plaintext;
+    }
+
+    /*
+     * The block counter is 32 bits; a message must not wrap it.
+     */
+    private static void checkCounterRange(int initialCounter, long length) {
+        long blocks = (length + 63) / 64;
+
+        if ((initialCounter & 0xFFFFFFFFL) + blocks > (1L << 32)) {
+            throw new IllegalStateException("ChaCha20 counter exhausted");
+        }
+    }
+
+    private static final class XorTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] key;
+        private final byte[] nonce;
+        private final int initialCounter;
+        private final byte[] input;
+        private final int inputOffset;
+        private final byte[] output;
+        private final int outputOffset;
+        private final int from;
+        private final int to;
+
+        XorTask(byte[] key, byte[] nonce, int initialCounter,
+                byte[] input, int inputOffset, byte[] output, int outputOffset,
+                int from, int to) {
+            this.key = key;
+            this.nonce = nonce;
+            this.initialCounter = initialCounter;
+            this.input = input;
+            this.inputOffset = inputOffset;
+            this.output = output;
+            this.outputOffset = outputOffset;
+            this.from = from;
+            this.to = to;
+        }
 
-        x[c] += x[d];
-        x[b] = rotateLeft(x[b] ^ x[c], 12);
+        protected void compute() {
+            if (to - from <= PARALLEL_SEGMENT) {
+                ChaCha20 cipher = new ChaCha20(key, nonce, initialCounter + (from >>> 6));
+                cipher.update(input, inputOffset + from, to - from, output, outputOffset + from);
+                cipher.destroy();
+                return;
+            }
 
-        x[a] += x[b];
-        x[d] = rotateLeft(x[d] ^ x[a], 8);
+            int middle = from + (((to - from) >>> 1) & ~63);
 
-        x[c] += x[d];
-        x[b] = rotateLeft(x[b] ^ x[c], 7);
+            invokeAll(new XorTask(key, nonce, initialCounter, input, inputOffset,
+                            output, outputOffset, from, middle),
+                    new XorTask(key, nonce, initialCounter, input, inputOffset,
+                            output, outputOffset, middle, to));
+        }
     }
 
-    private static int rotateLeft(int value, int distance) {
-        return (value << distance) | (value >>> (32 - distance));
+    // ================================================================
+    // Poly1305 using 44/44/42-bit limbs
+    // ================================================================
+
+    /*
+     * Incremental Poly1305 with the accumulator and r in three limbs of
+     * 44, 44 and 42 bits. Each block costs nine 64x64->128-bit products,
+     * formed with Math.multiplyHigh, instead of the 25 multiplications of
+     * the 26-bit form. Full blocks are absorbed straight from the
+     * caller's array; only a partial block is buffered.
+     */
+    static final class Poly1305 {
+        private static final long MASK44 = 0xFFFFFFFFFFFL;
+        private static final long MASK42 = 0x3FFFFFFFFFFL;
+
+        private final byte[] buffer = new byte[16];
+        private int buffered;
+        private long r0, r1, r2, s1, s2;
+        private long h0, h1, h2;
+        private long pad0, pad1;
+
+        void init(byte[] key, int offset) {
+            long t0 = load64LE(key, offset);
+            long t1 = load64LE(key, offset + 8);
+
+            r0 = t0 & 0xFFC0FFFFFFFL;
+            r1 = ((t0 >>> 44) | (t1 << 20)) & 0xFFFFFC0FFFFL;
+            r2 = (t1 >>> 24) & 0x00FFFFFFC0FL;
+            s1 = r1 * (5 << 2);
+            s2 = r2 * (5 << 2);
+            pad0 = load64LE(key, offset + 16);
+            pad1 = load64LE(key, offset + 24);
+            h0 = h1 = h2 = 0;
+            buffered = 0;
+        }
+
+        void update(byte[] input, int offset, int length) {
+            if (buffered > 0) {
+                int take = Math.min(16 - buffered, length);
+                System.arraycopy(input, offset, buffer, buffered, take);
+                buffered += take;
+                offset += take;
+                length -= take;
+
+                if (buffered < 16) {
+                    return;
+                }
+
+                block(buffer, 0, 1L << 40);
+                buffered = 0;
+            }
+
+            while (length >= 16) {
+                block(input, offset, 1L << 40);
+                offset += 16;
+                length -= 16;
+            }
+
+            System.arraycopy(input, offset, buffer, 0, length);
+            buffered = length;
+        }
+
+        /*
+         * Zero-pads a buffered partial block to 16 bytes and absorbs it,
+         * as the AEAD construction requires after AAD and ciphertext.
+         */
+        void padToBlock() {
+            if (buffered > 0) {
+                Arrays.fill(buffer, buffered, 16, (byte) 0);
+                block(buffer, 0, 1L << 40);
+                buffered = 0;
+            }
+        }
+
+        void finish(byte[] tag, int offset) {
+            if (buffered > 0) {
+                // Poly1305 appends a 1 byte to an incomplete final block.
+                buffer[buffered] = 1;
+                Arrays.fill(buffer, buffered + 1, 16, (byte) 0);
+                block(buffer, 0, 0);
+                buffered = 0;
+            }
+
+            long c;
+
+            c = h1 >>> 44; h1 &= MASK44; h2 += c;
+            c = h2 >>> 42; h2 &= MASK42; h0 += c * 5;
+            c = h0 >>> 44; h0 &= MASK44; h1 += c;
+            c = h1 >>> 44; h1 &= MASK44; h2 += c;
+            c = h2 >>> 42; h2 &= MASK42; h0 += c * 5;
+            c = h0 >>> 44; h0 &= MASK44; h1 += c;
+
+            // Conditional reduction modulo 2^130 - 5.
+            long g0 = h0 + 5;
+            c = g0 >>> 44;
+            g0 &= MASK44;
+
+            long g1 = h1 + c;
+            c = g1 >>> 44;
+            g1 &= MASK44;
+
+            long g2 = h2 + c - (1L << 42);
+
+            long mask = (g2 >>> 63) - 1;
+            h0 = (h0 & ~mask) | (g0 & mask);
+            h1 = (h1 & ~mask) | (g1 & mask);
+            h2 = (h2 & ~mask) | (g2 & mask);
+
+            h0 += pad0 & MASK44;
+            c = h0 >>> 44;
+            h0 &= MASK44;
+            h1 += (((pad0 >>> 44) | (pad1 << 20)) & MASK44) + c;
+            c = h1 >>> 44;
+            h1 &= MASK44;
+            h2 = (h2 + ((pad1 >>> 24) & MASK42) + c) & MASK42;
+
+            store64LE(h0 | (h1 << 44), tag, offset);
+            store64LE((h1 >>> 20) | (h2 << 24), tag, offset + 8);
+
+            wipe();
+        }
+
+        void wipe() {
+            r0 = r1 = r2 = s1 = s2 = 0;
+            h0 = h1 = h2 = 0;
+            pad0 = pad1 = 0;
+            Arrays.fill(buffer, (byte) 0);
+            buffered = 0;
+        }
+
+        private void block(byte[] input, int offset, long hibit) {
+            long t0 = load64LE(input, offset);
+            long t1 = load64LE(input, offset + 8);
+
+            h0 += t0 & MASK44;
+            h1 += ((t0 >>> 44) | (t1 << 20)) & MASK44;
+            h2 += ((t1 >>> 24) & MASK42) | hibit;
+
+            // Each product is below 2^91 and is split into its bits above
+            // and below 2^44: the high parts of a column sum fit in a long
+            // without any carry tracking, and the low parts add up to at
+            // most 2^46 before their own carry is folded in.
+            long a, b, low, high;
+
+            a = h0 * r0; b = Math.multiplyHigh(h0, r0);
+            low = a & MASK44; high = (a >>> 44) | (b << 20);
+            a = h1 * s2; b = Math.multiplyHigh(h1, s2);
+            low += a & MASK44; high += (a >>> 44) | (b << 20);
+            a = h2 * s1; b = Math.multiplyHigh(h2, s1);
+            low += a & MASK44; high += (a >>> 44) | (b << 20);
+            long d0 = low & MASK44;
+            long c0 = high + (low >>> 44);
+
+            a = h0 * r1; b = Math.multiplyHigh(h0, r1);
+            low = (a & MASK44) + c0; high = (a >>> 44) | (b << 20);
+            a = h1 * r0; b = Math.multiplyHigh(h1, r0);
+            low += a & MASK44; high += (a >>> 44) | (b << 20);
+            a = h2 * s2; b = Math.multiplyHigh(h2, s2);
+            low += a & MASK44; high += (a >>> 44) | (b << 20);
+            long d1 = low & MASK44;
+            long c1 = high + (low >>> 44);
+
+            // The top limb is 42 bits wide, so its column splits at 2^42.
+            a = h0 * r2; b = Math.multiplyHigh(h0, r2);
+            low = (a & MASK42) + c1; high = (a >>> 42) | (b << 22);
+            a = h1 * r1; b = Math.multiplyHigh(h1, r1);
+            low += a & MASK42; high += (a >>> 42) | (b << 22);
+            a = h2 * r0; b = Math.multiplyHigh(h2, r0);
+            low += a & MASK42; high += (a >>> 42) | (b << 22);
+
+            h0 = d0;
+            h1 = d1;
+            h2 = low & MASK42;
+            long c = high + (low >>> 42);
+            h0 += c * 5;
+            c = h0 >>> 44;
+            h0 &= MASK44;
+            h1 += c;
+        }
     }
 
     // ================================================================
-    // Poly1305 using five 26-bit limbs
+    // Poly1305 reference using five 26-bit limbs
     // ================================================================
 
+    /*
+     * Original one-shot implementation, no longer used by the AEAD. Kept
+     * as the cross-check and baseline for the 44-bit Poly1305 above.
+     */
     private static byte[] poly1305(byte[] message, byte[] oneTimeKey) {
         if (oneTimeKey.length < 32) {
             throw new IllegalArgumentException("Poly1305 requires 32 bytes");
@@ -238,6 +869,11 @@ public final class ChaCha20Poly1305 {
                 block[i] = message[offset + i];
             }
 
+            if (remaining < 16) {
+                // Poly1305 appends a 1 byte to an incomplete final block.
+                block[remaining] = 1;
+            }
+
             long b0 = load32LE(block, 0) & 0xFFFFFFFFL;
             long b1 = load32LE(block, 4) & 0xFFFFFFFFL;
             long b2 = load32LE(block, 8) & 0xFFFFFFFFL;
@@ -247,29 +883,7 @@ public final class ChaCha20Poly1305 {
             h1 += ((b0 >>> 26) | (b1 << 6)) & 0x3FFFFFFL;
             h2 += ((b1 >>> 20) | (b2 << 12)) & 0x3FFFFFFL;
             h3 += ((b2 >>> 14) | (b3 << 18)) & 0x3FFFFFFL;
-
-            if (remaining == 16) {
-                h4 += (b3 >>> 8) | (1L << 24);
-            } else {
-                // Poly1305 appends a 1 byte to an incomplete final block.
-                block[remaining] = 1;
-
-                b0 = load32LE(block, 0) & 0xFFFFFFFFL;
-                b1 = load32LE(block, 4) & 0xFFFFFFFFL;
-                b2 = load32LE(block, 8) & 0xFFFFFFFFL;
-                b3 = load32LE(block, 12) & 0xFFFFFFFFL;
-
-                h0 -= h0 & 0x3FFFFFFL;
-                h1 -= h1 & 0x3FFFFFFL;
-                h2 -= h2 & 0x3FFFFFFL;
-                h3 -= h3 & 0x3FFFFFFL;
-
-                h0 += b0 & 0x3FFFFFFL;
-                h1 += ((b0 >>> 26) | (b1 << 6)) & 0x3FFFFFFL;
-                h2 += ((b1 >>> 20) | (b2 << 12)) & 0x3FFFFFFL;
-                h3 += ((b2 >>> 14) | (b3 << 18)) & 0x3FFFFFFL;
-                h4 += (b3 >>> 8) & 0x3FFFFFFL;
-            }
+            h4 += (b3 >>> 8) | (remaining == 16 ? 1L << 24 : 0);
 
             long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
             long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
@@ -388,49 +1002,42 @@ public final class ChaCha20Poly1305 {
     }
 
     // ================================================================
-    // AEAD MAC input construction
+    // RFC 8439 test and benchmark
     // ================================================================
 
-    private static byte[] buildMacData(byte[] aad, byte[] ciphertext) {
-        int aadPadding = paddingLength(aad.length);
-        int ciphertextPadding = paddingLength(ciphertext.length);
-
-        byte[] data = new byte[
-                aad.length + aadPadding
-                        + ciphertext.length + ciphertextPadding
-                        + 16
-                ];
-
-        int offset = 0;
-
-        for (int i = 0; i < aad.length; i++) {
-            data[offset++] = aad[i];
-        }
-
-        offset += aadPadding;
+    private static void runRfc8439Test() {
+        byte[] blockKey = hex(
+                "000102030405060708090a0b0c0d0e0f"
+                        + "101112131415161718191a1b1c1d1e1f");
 
-        for (int i = 0; i < ciphertext.length; i++) {
-            data[offset++] = ciphertext[i];
-        }
+        // RFC 8439 section 2.3.2: block function.
+        byte[] expectedBlock = hex(
+                "10f1e7e4d13b5915500fdd1fa32071c4"
+                        + "c7d1f4c733c068030422aa9ac3d46c4e"
+                        + "d2826446079faa0914c2d705d98b02a2"
+                        + "b5129cd1de164eb9cbd083e8a2503c4e");
 
-        offset += ciphertextPadding;
+        require(equal(chacha20Block(blockKey, 1, hex("000000090000004a00000000")),
+                expectedBlock), "RFC 8439 ChaCha20 block test vector failed");
 
-        store64LE((long) aad.length, data, offset);
-        store64LE((long) ciphertext.length, data, offset + 8);
+        byte[] sunscreen = ascii(
+                "Ladies and Gentlemen of the class of '99: If I could offer you "
+                        + "only one tip for the future, sunscreen would be it.");
 
-        return data;
-    }
+        // RFC 8439 section 2.4.2: encryption with initial counter 1.
+        byte[] expectedStream = hex(
+                "6e2e359a2568f98041ba0728dd0d6981"
+                        + "e97e7aec1d4360c20a27afccfd9fae0b"
+                        + "f91b65c5524733ab8f593dabcd62b357"
+                        + "1639d624e65152ab8f530c359f0861d8"
+                        + "07ca0dbf500d6a6156a38e088a22b65e"
+                        + "52bc514d16ccf806818ce91ab7793736"
+                        + "5af90bbf74a35be6b40b8eedf2785e42"
+                        + "874d");
 
-    private static int paddingLength(int length) {
-        int remainder = length % 16;
-        return remainder == 0 ? 0 : 16 - remainder;
-    }
+        require(equal(chacha20Xor(blockKey, hex("000000000000004a00000000"), 1, sunscreen),
+                expectedStream), "RFC 8439 ChaCha20 encryption test vector failed");
 
-    // ================================================================
-    // RFC 8439 test and benchmark
-    // ================================================================
-
-    private static void runRfc8439Test() {
         byte[] key = hex(
                 "808182838485868788898a8b8c8d8e8f"
                         + "909192939495969798999a9b9c9d9e9f");
@@ -495,6 +1102,205 @@ public final class ChaCha20Poly1305 {
         System.out.println("Round-trip and tamper tests passed.");
     }
 
+    /*
+     * The context must give the same bytes however the stream is split,
+     * in place or not, through arrays or direct buffers.
+     */
+    private static void runStreamingTest() {
+        byte[] key = hex(
+                "000102030405060708090a0b0c0d0e0f"
+                        + "101112131415161718191a1b1c1d1e1f");
+        byte[] nonce = hex("000000000000004a00000000");
+        byte[] data = new byte[1000];
+
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 7);
+
+        byte[] expected = chacha20Xor(key, nonce, 1, data);
+        int[] splits = { 1, 63, 64, 65, 130, 7, 500 };
+
+        ChaCha20 cipher = new ChaCha20(key, nonce, 1);
+        byte[] inPlace = data.clone();
+        int offset = 0;
+
+        for (int i = 0; offset < inPlace.length; i++) {
+            int length = Math.min(splits[i % splits.length], inPlace.length - offset);
+            cipher.update(inPlace, offset, length, inPlace, offset);
+            offset += length;
+        }
+
+        require(equal(inPlace, expected), "Split in-place ChaCha20 stream failed");
+
+        cipher.reset(nonce, 1);
+        ByteBuffer input = ByteBuffer.allocateDirect(data.length);
+        ByteBuffer output = ByteBuffer.allocateDirect(data.length);
+        input.put(data).flip();
+
+        for (int i = 0; input.hasRemaining(); i++) {
+            ByteBuffer slice = input.duplicate();
+            slice.limit(Math.min(input.limit(), input.position() + splits[i % splits.length]));
+            cipher.update(slice, output);
+            input.position(slice.position());
+        }
+
+        byte[] direct = new byte[data.length];
+        output.flip();
+        output.get(direct);
+
+        require(equal(direct, expected), "Direct ByteBuffer ChaCha20 stream failed");
+
+        cipher.destroy();
+
+        System.out.println("Streaming ChaCha20 context tests passed.");
+
+        AeadCipher aead = new AeadCipher(key);
+        byte[] aad = ascii("streamed associated data");
+        byte[] sealed = encrypt(key, nonce, aad, data);
+        byte[] streamed = new byte[sealed.length];
+
+        aead.init(true, nonce);
+        aead.updateAAD(aad, 0, 5);
+        aead.updateAAD(aad, 5, aad.length - 5);
+        offset = 0;
+
+        for (int i = 0; offset < data.length; i++) {
+            int length = Math.min(splits[i % splits.length], data.length - offset);
+            aead.update(data, offset, length, streamed, offset);
+            offset += length;
+        }
+
+        aead.doFinal(streamed, data.length);
+
+        require(equal(streamed, sealed), "Incremental AEAD encryption failed");
+
+        byte[] opened = new byte[data.length];
+        aead.init(false, nonce);
+        aead.updateAAD(aad, 0, aad.length);
+        aead.update(sealed, 0, data.length, opened, 0);
+        aead.doFinal(sealed, data.length);
+
+        require(equal(opened, data), "Incremental AEAD decryption failed");
+
+        sealed[data.length] ^= 1;
+        aead.init(false, nonce);
+        aead.updateAAD(aad, 0, aad.length);
+        aead.update(sealed, 0, data.length, opened, 0);
+
+        boolean rejected = false;
+
+        try {
+            aead.doFinal(sealed, data.length);
+        } catch (SecurityException badTag) {
+            rejected = true;
+        }
+
+        require(rejected, "Incremental AEAD accepted a bad tag");
+
+        aead.destroy();
+
+        System.out.println("Incremental AEAD tests passed.");
+    }
+
+    /*
+     * Parallel results must equal the sequential ones, including lengths
+     * that end just before, on and after segment boundaries.
+     */
+    private static void runParallelTest() {
+        byte[] key = hex(
+                "000102030405060708090a0b0c0d0e0f"
+                        + "101112131415161718191a1b1c1d1e1f");
+        byte[] nonce = hex("000000000000004a00000000");
+        byte[] aad = ascii("parallel");
+        int[] lengths = { 0, 1, PARALLEL_SEGMENT - 1, PARALLEL_SEGMENT,
+                PARALLEL_SEGMENT + 65, 3 * PARALLEL_SEGMENT + 5 };
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (int length : lengths) {
+                byte[] data = new byte[length];
+
+                for (int i = 0; i < length; i++) data[i] = (byte) (i * 31);
+
+                byte[] sealed = encrypt(key, nonce, aad, data);
+
+                require(equal(encryptParallel(key, nonce, aad, data, pool), sealed),
+                        "Parallel encryption differs at length " + length);
+                require(equal(decryptParallel(key, nonce, aad, sealed, pool), data),
+                        "Parallel decryption failed at length " + length);
+
+                chacha20XorParallel(key, nonce, 1, data, 0, length, data, 0, pool);
+
+                require(equal(data, Arrays.copyOf(sealed, length)),
+                        "In-place parallel ChaCha20 differs at length " + length);
+
+                sealed[0] ^= 1;
+                boolean rejected = false;
+
+                try {
+                    decryptParallel(key, nonce, aad, sealed, pool);
+                } catch (SecurityException expected) {
+                    rejected = true;
+                }
+
+                require(rejected, "Parallel decryption accepted a tampered message");
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println("Parallel ChaCha20 tests passed.");
+    }
+
+    /*
+     * RFC 8439 section 2.5.2 vector, then the 44-bit implementation fed
+     * in random pieces against the 26-bit reference on random input.
+     */
+    private static void runPoly1305Test() {
+        byte[] key = hex(
+                "85d6be7857556d337f4452fe42d506a8"
+                        + "0103808afb0db2fd4abff6af4149f51b");
+        byte[] message = ascii("Cryptographic Forum Research Group");
+        byte[] expected = hex("a8061dc1305136c6c22b8baf0c0127a9");
+
+        Poly1305 mac = new Poly1305();
+        byte[] tag = new byte[TAG_LENGTH];
+        mac.init(key, 0);
+        mac.update(message, 0, message.length);
+        mac.finish(tag, 0);
+
+        require(equal(tag, expected), "RFC 8439 Poly1305 test vector failed");
+        require(equal(poly1305(message, key), expected),
+                "RFC 8439 Poly1305 reference test vector failed");
+
+        java.util.Random random = new java.util.Random(8439);
+
+        for (int trial = 0; trial < 2000; trial++) {
+            random.nextBytes(key);
+            byte[] data = new byte[random.nextInt(300)];
+
+            // Saturated inputs exercise the final carries.
+            if (trial % 4 == 0) {
+                Arrays.fill(data, (byte) 0xFF);
+            } else {
+                random.nextBytes(data);
+            }
+
+            mac.init(key, 0);
+
+            for (int offset = 0; offset < data.length; ) {
+                int length = Math.min(random.nextInt(40), data.length - offset);
+                mac.update(data, offset, length);
+                offset += length;
+            }
+
+            mac.finish(tag, 0);
+
+            require(equal(tag, poly1305(data, key)),
+                    "44-bit Poly1305 disagrees with the 26-bit reference");
+        }
+
+        System.out.println("Poly1305 tests passed.");
+    }
+
     private static void benchmark() {
         byte[] key = new byte[KEY_LENGTH];
         byte[] nonce = new byte[NONCE_LENGTH];
@@ -505,9 +1311,20 @@ public final class ChaCha20Poly1305 {
         for (int i = 0; i < nonce.length; i++) nonce[i] = (byte) (i + 32);
         for (int i = 0; i < data.length; i++) data[i] = (byte) i;
 
+        // Warm up so the timed runs measure compiled code.
+        for (int i = 0; i < 16; i++) {
+            wipe(encrypt(key, nonce, aad, data));
+        }
+
+        int runs = 32;
+        byte[] result = null;
         long start = System.nanoTime();
-        byte[] result = encrypt(key, nonce, aad, data);
-        long elapsed = System.nanoTime() - start;
+
+        for (int i = 0; i < runs; i++) {
+            result = encrypt(key, nonce, aad, data);
+        }
+
+        long elapsed = (System.nanoTime() - start) / runs;
 
         double seconds = elapsed / 1_000_000_000.0;
         double mibPerSecond = (data.length / 1024.0 / 1024.0) / seconds;
@@ -517,8 +1334,123 @@ public final class ChaCha20Poly1305 {
         System.out.println("  Time      : " + (elapsed / 1_000_000.0) + " ms");
         System.out.println("  Throughput: " + mibPerSecond + " MiB/s");
 
+        Poly1305 mac = new Poly1305();
+        byte[] tag = new byte[TAG_LENGTH];
+        long reference = 0;
+        long limb44 = 0;
+
+        for (int i = 0; i < runs + 16; i++) {
+            long t0 = System.nanoTime();
+            wipe(poly1305(data, key));
+            long t1 = System.nanoTime();
+            mac.init(key, 0);
+            mac.update(data, 0, data.length);
+            mac.finish(tag, 0);
+            long t2 = System.nanoTime();
+
+            if (i >= 16) {
+                reference += t1 - t0;
+                limb44 += t2 - t1;
+            }
+        }
+
+        System.out.printf("  Poly1305 26-bit limbs: %8.1f MiB/s%n",
+                runs * (data.length / 1024.0 / 1024.0) / (reference / 1_000_000_000.0));
+        System.out.printf("  Poly1305 44-bit limbs: %8.1f MiB/s%n",
+                runs * (data.length / 1024.0 / 1024.0) / (limb44 / 1_000_000_000.0));
+
         wipe(result);
         wipe(data);
+
+        benchmarkParallel(key, nonce, aad);
+    }
+
+    /*
+     * Counter-partitioned ChaCha20 and pipelined AEAD on 1, 2, 4 and 8
+     * worker threads over a 256 MiB buffer, or less if the heap is small.
+     * Scaling is bounded by the cores actually available; the AEAD is
+     * further bounded by its single Poly1305 pass.
+     */
+    private static void benchmarkParallel(byte[] key, byte[] nonce, byte[] aad) {
+        int size = (int) (Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4) & ~63L);
+        byte[] data = new byte[size];
+        double mib = size / 1024.0 / 1024.0;
+
+        System.out.println("Parallel ChaCha20 benchmark ("
+                + (size >> 20) + " MiB, "
+                + Runtime.getRuntime().availableProcessors() + " cores available):");
+
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            try {
+                if (threads == 1) {
+                    chacha20XorParallel(key, nonce, 1, data, 0, size >>> 2, data, 0, pool);
+                }
+
+                long start = System.nanoTime();
+                chacha20XorParallel(key, nonce, 1, data, 0, size, data, 0, pool);
+                long keystream = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                byte[] sealed = encryptParallel(key, nonce, aad, data, pool);
+                long aead = System.nanoTime() - start;
+
+                wipe(sealed);
+
+                System.out.printf("  %d thread%s: ChaCha20 %8.1f MiB/s, AEAD %8.1f MiB/s%n",
+                        threads, threads == 1 ? " " : "s",
+                        mib / (keystream / 1_000_000_000.0),
+                        mib / (aead / 1_000_000_000.0));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /*
+     * Raw ChaCha20 throughput of one reused context working in place,
+     * from single-block messages up to 16 MiB. Each size is warmed up
+     * first and then run until about 256 MiB have been processed.
+     */
+    private static void benchmarkKeystream() {
+        byte[] key = new byte[KEY_LENGTH];
+        byte[] nonce = new byte[NONCE_LENGTH];
+        int[] sizes = { 64, 1024, 64 * 1024, 16 * 1024 * 1024 };
+        byte[] buffer = new byte[sizes[sizes.length - 1]];
+
+        for (int i = 0; i < key.length; i++) key[i] = (byte) i;
+        for (int i = 0; i < buffer.length; i++) buffer[i] = (byte) i;
+
+        ChaCha20 cipher = new ChaCha20(key, nonce, 1);
+
+        System.out.println("ChaCha20 context benchmark (reused, in place):");
+
+        for (int size : sizes) {
+            int iterations = (int) Math.max(4, (256L << 20) / size);
+
+            for (int i = 0; i < iterations / 4; i++) {
+                cipher.reset(nonce, 1);
+                cipher.update(buffer, 0, size, buffer, 0);
+            }
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < iterations; i++) {
+                cipher.reset(nonce, 1);
+                cipher.update(buffer, 0, size, buffer, 0);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            double mib = (double) size * iterations / (1024.0 * 1024.0);
+
+            System.out.printf("  %8s : %9.1f MiB/s%n",
+                    size >= 1 << 20 ? (size >> 20) + " MiB"
+                            : size >= 1 << 10 ? (size >> 10) + " KiB" : size + " B",
+                    mib / (elapsed / 1_000_000_000.0));
+        }
+
+        cipher.destroy();
     }
 
     // ================================================================
@@ -532,6 +1464,11 @@ public final class ChaCha20Poly1305 {
                 | ((input[offset + 3] & 0xFF) << 24);
     }
 
+    private static long load64LE(byte[] input, int offset) {
+        return (load32LE(input, offset) & 0xFFFFFFFFL)
+                | ((long) load32LE(input, offset + 4) << 32);
+    }
+
     private static void store32LE(int value, byte[] output, int offset) {
         output[offset] = (byte) value;
         output[offset + 1] = (byte) (value >>> 8);
@@ -4,27 +4,57 @@ import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * FileEncryptor.java
  *
  * CLI tool for encrypting and decrypting files using AES-GCM with password-based keys (PBKDF2WithHmacSHA256).
  *
- * Header format (binary, at beginning of encrypted file):
+ * Header format v2 (written by this version):
  * [4 bytes magic] 'FENC' (0x46 45 4E 43)
- * [1 byte version] (0x01)
+ * [1 byte version] (0x02)
  * [4 bytes iterations - int big-endian]
  * [1 byte salt length N] [N bytes salt]
+ * [1 byte nonce prefix length (7)] [7 bytes nonce prefix]
+ * [4 bytes segment size S] [8 bytes plaintext length L]
+ * [then ceil(L / S) segments (at least one), each min(S, rest) ciphertext bytes + 16 byte tag]
+ *
+ * Segment i uses nonce prefix || i (4 bytes big-endian) || final flag (1 byte, 1 on the last
+ * segment only) and authenticates the whole header as AAD, so segments cannot be reordered,
+ * dropped, truncated or moved into another file (the STREAM construction used by age).
+ * Segments sit at fixed offsets, so they are processed in parallel and any byte range can be
+ * decrypted by reading only the segments that cover it.
+ *
+ * Header format v3 (written by -batch): as v2 with version 0x03 and, after the nonce prefix,
+ * [1 byte file id length (16)] [16 bytes random file id]
+ * A batch derives one PBKDF2 key for all files; each file is sealed with its own key,
+ * HKDF-SHA256(batch key, salt = file id), so files never share a GCM key and nonce space.
+ *
+ * Header format v1 (still readable):
+ * [4 bytes magic] 'FENC' [1 byte version] (0x01) [4 bytes iterations]
+ * [1 byte salt length N] [N bytes salt]
  * [1 byte iv length M] [M bytes iv]
- * [then ciphertext bytes...]
+ * [then one GCM ciphertext for the whole file]
  *
  * Usage:
  *  Encrypt:
@@ -38,13 +68,17 @@ import java.util.Scanner;
  *  Other flags:
  *    -p "password"     (not recommended on shared machines; prefer prompt)
  *    -iters 200000     (PBKDF2 iterations, default 200000)
+ *    -threads 4        (worker threads, default: available processors)
+ *    -range 1024:4096  (decrypt only plaintext bytes offset:length of a v2/v3 file)
+ *    -batch docs/      (encrypt/decrypt a directory tree or a file listing paths into -out dir;
+ *                       one PBKDF2 derivation per salt, aggregate files/s and MB/s reported)
  *    -help
  *
  * Notes:
  *  - Uses AES-GCM with 128-bit auth tag (default), 12-byte IV.
  *  - Key length is 256 bits when available; will fall back to 128 if necessary.
  *  - Header stores salt and iv so decryption can derive the same key/params.
- *  - Streams encryption/decryption in 16KB chunks and prints progress to stdout.
+ *  - v2 seals 64KB segments in parallel; v1 files are decrypted as a 16KB-chunk stream.
  */
 public class FileEncryptor {
     private static final byte[] MAGIC = new byte[] {0x46, 0x45, 0x4E, 0x43}; // "FENC"
@@ -54,6 +88,16 @@ public class FileEncryptor {
     private static final int IV_LEN = 12;   // bytes for GCM recommended
     private static final int GCM_TAG_BITS = 128;
     private static final int BUFFER = 16 * 1024;
+    private static final byte VERSION_2 = 0x02;
+    private static final byte VERSION_3 = 0x03;
+    private static final int FILE_ID_LEN = 16;
+    private static final byte[] FILE_KEY_INFO = "FENC v3 file key".getBytes(StandardCharsets.US_ASCII);
+    private static final int NONCE_PREFIX_LEN = 7;
+    private static final int TAG_LEN = GCM_TAG_BITS / 8;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int SEGMENTS_PER_TASK = 16;
+    private static final int MAX_HEADER_LEN = 4 + 1 + 4 + 1 + 255 + 1 + 255 + 1 + FILE_ID_LEN + 12;
 
     public static void main(String[] args) {
         if (args.length == 0) {
@@ -65,6 +109,9 @@ public class FileEncryptor {
         Path in = null, out = null;
         String passwordArg = null;
         int iterations = DEFAULT_ITERS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String range = null;
+        Path batch = null;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -82,6 +129,15 @@ public class FileEncryptor {
                 case "-iters":
                     if (i + 1 < args.length) iterations = Integer.parseInt(args[++i]);
                     break;
+                case "-threads":
+                    if (i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-range":
+                    if (i + 1 < args.length) range = args[++i];
+                    break;
+                case "-batch":
+                    if (i + 1 < args.length) batch = Paths.get(args[++i]);
+                    break;
                 case "-help":
                 case "--help":
                     usage(); return;
@@ -97,18 +153,29 @@ public class FileEncryptor {
             usage();
             return;
         }
-        if (in == null || out == null) {
-            System.err.println("Missing -in or -out.");
+        if ((in == null && batch == null) || out == null) {
+            System.err.println("Missing -in (or -batch) or -out.");
             usage();
             return;
         }
 
         try {
             char[] password = getPassword(passwordArg);
-            if (encrypt) {
-                encryptFile(in, out, password, iterations);
+            if (batch != null) {
+                BatchResult result = encrypt
+                        ? encryptBatch(batch, out, password, iterations, threads)
+                        : decryptBatch(batch, out, password, threads);
+                System.out.println((encrypt ? "Encrypted " : "Decrypted ") + result);
+                for (String failure : result.failures) System.err.println("  failed: " + failure);
+            } else if (encrypt) {
+                encryptFile(in, out, password, iterations, threads);
+            } else if (range != null) {
+                String[] parts = range.split(":");
+                byte[] slice = decryptRange(in, password, Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+                Files.write(out, slice);
+                System.out.println("Decrypted " + humanizeBytes(slice.length) + " to " + out.toAbsolutePath());
             } else {
-                decryptFile(in, out, password);
+                decryptFile(in, out, password, threads);
             }
             // clear password chars
             Arrays.fill(password, '\0');
@@ -144,58 +211,122 @@ public class FileEncryptor {
         System.out.println("  -out <path>      Output file");
         System.out.println("  -p <password>    Provide password inline (not recommended)");
         System.out.println("  -iters <n>       PBKDF2 iterations (default " + DEFAULT_ITERS + ")");
+        System.out.println("  -threads <n>     Worker threads (default: available processors)");
+        System.out.println("  -range <off:len> Decrypt only a plaintext byte range (v2 files)");
+        System.out.println("  -batch <dir|list> Process a directory tree or a file listing paths; -out is a directory");
         System.out.println("  -help            Show this help");
     }
 
     // ---------- Encryption ----------
     public static void encryptFile(Path in, Path out, char[] password, int iterations) throws Exception {
+        encryptFile(in, out, password, iterations, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Writes a v2 container: the plaintext is split into SEGMENT_SIZE segments that are
+     * sealed independently with AES-GCM on a ForkJoinPool and written at fixed offsets.
+     */
+    public static void encryptFile(Path in, Path out, char[] password, int iterations, int threads) throws Exception {
         if (!Files.exists(in)) throw new FileNotFoundException("Input not found: " + in);
         long total = Files.size(in);
 
         SecureRandom rnd = SecureRandom.getInstanceStrong();
         byte[] salt = new byte[SALT_LEN]; rnd.nextBytes(salt);
-        byte[] iv = new byte[IV_LEN]; rnd.nextBytes(iv);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LEN]; rnd.nextBytes(noncePrefix);
 
         int keyLen = bestAvailableKeyLength();
         SecretKey key = deriveKey(password, salt, iterations, keyLen);
+        HeaderInfo header = HeaderInfo.v2(iterations, salt, noncePrefix, SEGMENT_SIZE, total);
 
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        GCMParameterSpec gspec = new GCMParameterSpec(GCM_TAG_BITS, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, key, gspec);
-
-        // Write header then ciphertext stream
-        try (OutputStream fout = Files.newOutputStream(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-             BufferedOutputStream bout = new BufferedOutputStream(fout);
-             CipherOutputStream cout = new CipherOutputStream(bout, cipher);
-             InputStream fin = Files.newInputStream(in);
-             BufferedInputStream bin = new BufferedInputStream(fin)) {
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
 
-            writeHeader(bout, iterations, salt, iv);
-
-            byte[] buffer = new byte[BUFFER];
-            long processed = 0;
-            int read;
-            long lastPrint = System.currentTimeMillis();
-            while ((read = bin.read(buffer)) != -1) {
-                cout.write(buffer, 0, read);
-                processed += read;
-                long now = System.currentTimeMillis();
-                if (now - lastPrint > 700) {
-                    printProgress(processed, total, "Encrypting");
-                    lastPrint = now;
-                }
-            }
-            // ensure all data flushed & tag written
-            cout.flush();
-            // final progress
-            printProgress(processed, total, "Encrypting");
+            writeFully(target, ByteBuffer.wrap(header.raw), 0);
+            runSegments(new SegmentJob(true, key, header, source, target, new AtomicLong()),
+                    0, header.segmentCount(), threads, total, "Encrypting");
             System.out.println("\nEncryption completed. Output: " + out.toAbsolutePath());
         }
     }
 
     // ---------- Decryption ----------
     public static void decryptFile(Path in, Path out, char[] password) throws Exception {
+        decryptFile(in, out, password, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Decrypts a v2/v3 container in parallel, or a v1 file as a single GCM stream. Each
+     * segment is written only after its own tag verifies; if any segment fails, the
+     * partial output file is deleted.
+     */
+    public static void decryptFile(Path in, Path out, char[] password, int threads) throws Exception {
         if (!Files.exists(in)) throw new FileNotFoundException("Input not found: " + in);
+        HeaderInfo header;
+        try (InputStream fin = Files.newInputStream(in)) {
+            header = readHeader(fin);
+        }
+
+        SecretKey key = fileKey(deriveKey(password, header.salt, header.iterations, bestAvailableKeyLength()), header);
+        if (header.version == VERSION) {
+            decryptFileV1(in, out, key, true);
+            return;
+        }
+
+        checkContainerLength(in, header);
+
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            runSegments(new SegmentJob(false, key, header, source, target, new AtomicLong()),
+                    0, header.segmentCount(), threads, header.plaintextLength, "Decrypting");
+            System.out.println("\nDecryption completed. Output: " + out.toAbsolutePath());
+        } catch (Exception ex) {
+            Files.deleteIfExists(out);
+            throw ex;
+        }
+    }
+
+    /**
+     * Decrypts plaintext bytes [offset, offset + length) of a v2/v3 container, reading and
+     * authenticating only the segments that overlap the range.
+     */
+    public static byte[] decryptRange(Path in, char[] password, long offset, int length) throws Exception {
+        HeaderInfo header;
+        try (InputStream fin = Files.newInputStream(in)) {
+            header = readHeader(fin);
+        }
+        if (header.version == VERSION) {
+            throw new IOException("Random access needs a v2 or v3 container; v1 files are a single GCM stream");
+        }
+        if (offset < 0 || length < 0 || offset > header.plaintextLength - length) {
+            throw new IllegalArgumentException("Range outside plaintext of " + header.plaintextLength + " bytes");
+        }
+
+        checkContainerLength(in, header);
+        SecretKey key = fileKey(deriveKey(password, header.salt, header.iterations, bestAvailableKeyLength()), header);
+        byte[] result = new byte[length];
+        if (length == 0) return result;
+
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ)) {
+            SegmentJob job = new SegmentJob(false, key, header, source, null, new AtomicLong());
+            SegmentWorker worker = SegmentWorker.current(header.segmentSize);
+            long first = offset / header.segmentSize;
+            long last = (offset + length - 1) / header.segmentSize;
+
+            for (long index = first; index <= last; index++) {
+                ByteBuffer output = job.transform(worker, index);
+                long segmentStart = index * header.segmentSize;
+                int from = (int) Math.max(0, offset - segmentStart);
+                int to = (int) Math.min(output.limit(), offset + length - segmentStart);
+                output.position(from);
+                output.get(result, (int) (segmentStart + from - offset), to - from);
+            }
+        }
+        return result;
+    }
+
+    private static void decryptFileV1(Path in, Path out, SecretKey key, boolean verbose) throws Exception {
         long total = Files.size(in);
 
         try (InputStream fin = Files.newInputStream(in);
@@ -205,8 +336,6 @@ public class FileEncryptor {
             long headerLen = header.headerLength;
             long ciphertextLen = Math.max(0, total - headerLen);
 
-            SecretKey key = deriveKey(password, header.salt, header.iterations, bestAvailableKeyLength());
-
             Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
             GCMParameterSpec gspec = new GCMParameterSpec(GCM_TAG_BITS, header.iv);
             cipher.init(Cipher.DECRYPT_MODE, key, gspec);
@@ -223,39 +352,522 @@ public class FileEncryptor {
                     bout.write(buffer, 0, read);
                     processed += read;
                     long now = System.currentTimeMillis();
-                    if (now - lastPrint > 700) {
+                    if (verbose && now - lastPrint > 700) {
                         printProgress(processed, ciphertextLen, "Decrypting");
                         lastPrint = now;
                     }
                 }
                 bout.flush();
-                printProgress(processed, ciphertextLen, "Decrypting");
-                System.out.println("\nDecryption completed. Output: " + out.toAbsolutePath());
+                if (verbose) {
+                    printProgress(processed, ciphertextLen, "Decrypting");
+                    System.out.println("\nDecryption completed. Output: " + out.toAbsolutePath());
+                }
             }
         }
     }
 
+    // ---------- v2 segments ----------
+    /**
+     * Runs the job over segments [first, last) on a ForkJoinPool. Progress is printed by the
+     * calling thread at most every 700 ms, never from inside the workers.
+     */
+    private static void runSegments(SegmentJob job, long first, long last, int threads,
+                                    long total, String label) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            ForkJoinTask<Void> task = pool.submit(new SegmentTask(job, first, last));
+            await(task, () -> printProgress(job.processed.get(), total, label));
+            printProgress(job.processed.get(), total, label);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Waits for the task, calling report every 700 ms from this thread. */
+    private static void await(ForkJoinTask<?> task, Runnable report) throws Exception {
+        while (true) {
+            try {
+                task.get(700, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                report.run();
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    private static Exception unwrap(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof Error) throw (Error) cause;
+        return (Exception) cause;
+    }
+
+    /**
+     * Splits a segment range in half until it is at most SEGMENTS_PER_TASK long, so idle
+     * workers can steal the other halves.
+     */
+    private static final class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SegmentJob job;
+        private final long first;
+        private final long last;
+
+        SegmentTask(SegmentJob job, long first, long last) {
+            this.job = job;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first <= SEGMENTS_PER_TASK) {
+                try {
+                    job.process(first, last);
+                } catch (GeneralSecurityException | IOException e) {
+                    throw new CompletionException(e);
+                }
+                return;
+            }
+            long middle = first + (last - first) / 2;
+            invokeAll(new SegmentTask(job, first, middle), new SegmentTask(job, middle, last));
+        }
+    }
+
+    /**
+     * Per-thread Cipher and direct buffers, so Cipher.getInstance and buffer allocation are
+     * paid once per thread rather than once per task or per file. Direct buffers let
+     * FileChannel read and write without staging through a temporary native copy.
+     */
+    private static final class SegmentWorker {
+        private static final ThreadLocal<SegmentWorker> CURRENT = new ThreadLocal<>();
+
+        final Cipher cipher;
+        ByteBuffer input;
+        ByteBuffer output;
+
+        private SegmentWorker() throws GeneralSecurityException {
+            cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+
+        static SegmentWorker current(int segmentSize) throws GeneralSecurityException {
+            SegmentWorker worker = CURRENT.get();
+            if (worker == null) {
+                worker = new SegmentWorker();
+                CURRENT.set(worker);
+            }
+            if (worker.input == null || worker.input.capacity() < segmentSize + TAG_LEN) {
+                worker.input = ByteBuffer.allocateDirect(segmentSize + TAG_LEN);
+                worker.output = ByteBuffer.allocateDirect(segmentSize + TAG_LEN);
+            }
+            return worker;
+        }
+    }
+
+    /**
+     * Encrypts or decrypts whole segments with positional reads and writes, so segments can
+     * be handled in any order by any thread.
+     */
+    private static final class SegmentJob {
+        final boolean encrypt;
+        final SecretKey key;
+        final HeaderInfo header;
+        final FileChannel source;
+        final FileChannel target;
+        final AtomicLong processed;
+
+        SegmentJob(boolean encrypt, SecretKey key, HeaderInfo header, FileChannel source,
+                   FileChannel target, AtomicLong processed) {
+            this.encrypt = encrypt;
+            this.key = key;
+            this.header = header;
+            this.source = source;
+            this.target = target;
+            this.processed = processed;
+        }
+
+        void process(long first, long last) throws GeneralSecurityException, IOException {
+            SegmentWorker worker = SegmentWorker.current(header.segmentSize);
+            for (long index = first; index < last; index++) {
+                ByteBuffer output = transform(worker, index);
+                writeFully(target, output, encrypt ? header.ciphertextOffset(index) : index * header.segmentSize);
+                processed.addAndGet(header.plainLength(index));
+            }
+        }
+
+        /**
+         * Processes one segment from the source into the worker's output buffer, left ready
+         * for reading. When decrypting, doFinal throws AEADBadTagException before anything
+         * is produced.
+         */
+        ByteBuffer transform(SegmentWorker worker, long index) throws GeneralSecurityException, IOException {
+            Cipher cipher = worker.cipher;
+            ByteBuffer input = worker.input;
+            ByteBuffer output = worker.output;
+            int plain = header.plainLength(index);
+            input.clear();
+            input.limit(encrypt ? plain : plain + TAG_LEN);
+            readFully(source, input, encrypt ? index * header.segmentSize : header.ciphertextOffset(index));
+            input.flip();
+            output.clear();
+
+            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(GCM_TAG_BITS, header.segmentNonce(index)));
+            cipher.updateAAD(header.raw);
+            cipher.doFinal(input, output);
+            output.flip();
+            return output;
+        }
+    }
+
+    private static void checkContainerLength(Path in, HeaderInfo header) throws IOException {
+        long expected = header.headerLength + header.plaintextLength + header.segmentCount() * TAG_LEN;
+        if (Files.size(in) != expected) {
+            throw new IOException("Container is truncated or has trailing data");
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int r = channel.read(buffer, position);
+            if (r < 0) throw new EOFException("Unexpected end of file");
+            position += r;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // ---------- Batch ----------
+    /** One file of a batch and where its output goes. */
+    private static final class BatchEntry {
+        final Path in;
+        final Path out;
+
+        BatchEntry(Path in, Path out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    private interface EntryAction {
+        void run(BatchEntry entry, AtomicLong processed) throws Exception;
+    }
+
+    /** Aggregate result of a batch run. A failed file is listed here instead of aborting the batch. */
+    public static final class BatchResult {
+        public final int files;
+        public final long bytes;
+        public final long nanos;
+        public final List<String> failures;
+
+        BatchResult(int files, long bytes, long nanos, List<String> failures) {
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.failures = failures;
+        }
+
+        public double filesPerSecond() {
+            return files / Math.max(1e-9, nanos / 1e9);
+        }
+
+        public double megabytesPerSecond() {
+            return bytes / (1024.0 * 1024.0) / Math.max(1e-9, nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files (%s) in %.2f s: %.1f files/s, %.1f MB/s, %d failed",
+                    files, humanizeBytes(bytes), nanos / 1e9, filesPerSecond(), megabytesPerSecond(), failures.size());
+        }
+    }
+
+    /**
+     * Encrypts every file under a directory (or every path listed in a text file) into
+     * v3 containers under outDir. The whole batch shares one salt, so PBKDF2 runs once;
+     * each file gets a random 16-byte id from which its own AES key is derived with HKDF,
+     * plus its own nonce prefix, and its header is authenticated with every segment.
+     */
+    public static BatchResult encryptBatch(Path source, Path outDir, char[] password, int iterations, int threads) throws Exception {
+        List<BatchEntry> entries = collectBatch(source, outDir, true);
+        byte[] salt = new byte[SALT_LEN];
+        SecureRandom.getInstanceStrong().nextBytes(salt);
+        SecretKey key = deriveKey(password, salt, iterations, bestAvailableKeyLength());
+        SecureRandom rnd = new SecureRandom();
+
+        return runBatch(entries, threads, "Encrypting",
+                (entry, processed) -> encryptEntry(entry, key, salt, iterations, rnd, processed));
+    }
+
+    /**
+     * Decrypts a batch of containers. Keys are cached per (salt, iterations), so files
+     * from the same encryptBatch run derive their key once.
+     */
+    public static BatchResult decryptBatch(Path source, Path outDir, char[] password, int threads) throws Exception {
+        List<BatchEntry> entries = collectBatch(source, outDir, false);
+        Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+
+        return runBatch(entries, threads, "Decrypting",
+                (entry, processed) -> decryptEntry(entry, password, keys, processed));
+    }
+
+    private static void encryptEntry(BatchEntry entry, SecretKey key, byte[] salt, int iterations,
+                                     SecureRandom rnd, AtomicLong processed) throws Exception {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LEN];
+        byte[] fileId = new byte[FILE_ID_LEN];
+        rnd.nextBytes(noncePrefix);
+        rnd.nextBytes(fileId);
+
+        try (FileChannel source = FileChannel.open(entry.in, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(entry.out, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            HeaderInfo header = HeaderInfo.v3(iterations, salt, noncePrefix, fileId, SEGMENT_SIZE, source.size());
+            writeFully(target, ByteBuffer.wrap(header.raw), 0);
+            new SegmentJob(true, fileKey(key, header), header, source, target, processed)
+                    .process(0, header.segmentCount());
+        }
+    }
+
+    private static void decryptEntry(BatchEntry entry, char[] password, Map<String, SecretKey> keys,
+                                     AtomicLong processed) throws Exception {
+        try (FileChannel source = FileChannel.open(entry.in, StandardOpenOption.READ)) {
+            HeaderInfo header = readHeader(source);
+            SecretKey key = fileKey(cachedKey(keys, password, header), header);
+
+            if (header.version == VERSION) {
+                decryptFileV1(entry.in, entry.out, key, false);
+                processed.addAndGet(Files.size(entry.out));
+                return;
+            }
+
+            checkContainerLength(entry.in, header);
+            try (FileChannel target = FileChannel.open(entry.out, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                new SegmentJob(false, key, header, source, target, processed).process(0, header.segmentCount());
+            }
+        }
+    }
+
+    private static SecretKey cachedKey(Map<String, SecretKey> keys, char[] password, HeaderInfo header) throws GeneralSecurityException {
+        String id = header.iterations + ":" + Base64.getEncoder().encodeToString(header.salt);
+        SecretKey key = keys.get(id);
+        if (key == null) {
+            synchronized (keys) {
+                key = keys.get(id);
+                if (key == null) {
+                    key = deriveKey(password, header.salt, header.iterations, bestAvailableKeyLength());
+                    keys.put(id, key);
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Expands a directory (recursively, keeping relative paths) or a list file (one path
+     * per line; relative lines keep their directories, absolute ones only their name) into
+     * batch entries, creating the output directories up front. Two inputs that would write
+     * the same output fail the batch before anything is written.
+     */
+    private static List<BatchEntry> collectBatch(Path source, Path outDir, boolean encrypt) throws IOException {
+        List<BatchEntry> entries = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(source)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                Path relative = source.relativize(file);
+                Path parent = relative.getParent();
+                Path dir = parent == null ? outDir : outDir.resolve(parent);
+                entries.add(new BatchEntry(file, dir.resolve(outputName(file, encrypt))));
+            }
+        } else if (Files.isRegularFile(source)) {
+            for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) continue;
+                Path file = Paths.get(line.trim());
+                Path normalized = file.normalize();
+                Path parent = normalized.isAbsolute() || normalized.startsWith("..") ? null : normalized.getParent();
+                Path dir = parent == null ? outDir : outDir.resolve(parent);
+                entries.add(new BatchEntry(file, dir.resolve(outputName(file, encrypt))));
+            }
+        } else {
+            throw new FileNotFoundException("Batch source not found: " + source);
+        }
+
+        Set<Path> outputs = new HashSet<>();
+        for (BatchEntry entry : entries) {
+            if (!outputs.add(entry.out.toAbsolutePath().normalize())) {
+                throw new IOException("Two batch inputs map to the same output: " + entry.out);
+            }
+        }
+        for (BatchEntry entry : entries) {
+            Files.createDirectories(entry.out.getParent());
+        }
+        return entries;
+    }
+
+    private static String outputName(Path file, boolean encrypt) {
+        String name = file.getFileName().toString();
+        if (encrypt) return name + ".enc";
+        return name.endsWith(".enc") ? name.substring(0, name.length() - 4) : name + ".dec";
+    }
+
+    /**
+     * Runs one file per leaf task on a ForkJoinPool. Workers only bump counters; the
+     * calling thread prints progress every 700 ms.
+     */
+    private static BatchResult runBatch(List<BatchEntry> entries, int threads, String label, EntryAction action) throws Exception {
+        AtomicLong processed = new AtomicLong();
+        AtomicInteger done = new AtomicInteger();
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            ForkJoinTask<Void> task = pool.submit(new BatchTask(entries, 0, entries.size(), action, processed, done, failures));
+            await(task, () -> printBatchProgress(label, done.get(), entries.size(), processed.get()));
+        } finally {
+            pool.shutdownNow();
+        }
+        printBatchProgress(label, done.get(), entries.size(), processed.get());
+        System.out.println();
+        return new BatchResult(entries.size() - failures.size(), processed.get(),
+                System.nanoTime() - start, new ArrayList<>(failures));
+    }
+
+    private static final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<BatchEntry> entries;
+        private final int from;
+        private final int to;
+        private final EntryAction action;
+        private final AtomicLong processed;
+        private final AtomicInteger done;
+        private final Queue<String> failures;
+
+        BatchTask(List<BatchEntry> entries, int from, int to, EntryAction action,
+                  AtomicLong processed, AtomicInteger done, Queue<String> failures) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+            this.processed = processed;
+            this.done = done;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchTask(entries, from, middle, action, processed, done, failures),
+                          new BatchTask(entries, middle, to, action, processed, done, failures));
+                return;
+            }
+            if (to == from) return;
+
+            BatchEntry entry = entries.get(from);
+            try {
+                action.run(entry, processed);
+            } catch (Exception e) {
+                failures.add(entry.in + ": " + e);
+                try {
+                    Files.deleteIfExists(entry.out);
+                } catch (IOException ignored) {
+                    // the failure is already recorded
+                }
+            }
+            done.incrementAndGet();
+        }
+    }
+
+    private static void printBatchProgress(String label, int done, int total, long bytes) {
+        System.out.printf("\r%s: %d / %d files, %s", label, done, total, humanizeBytes(bytes));
+        System.out.flush();
+    }
+
     // ---------- Header helpers ----------
     private static class HeaderInfo {
+        int version;
         int iterations;
         byte[] salt;
-        byte[] iv;
+        byte[] iv;              // v1 only
+        byte[] noncePrefix;     // v2/v3
+        byte[] fileId;          // v3 only: HKDF salt for this file's key
+        int segmentSize;        // v2/v3
+        long plaintextLength;   // v2/v3
+        byte[] raw;             // v2/v3: exact header bytes, authenticated with every segment
         long headerLength;
-    }
 
-    private static void writeHeader(OutputStream out, int iterations, byte[] salt, byte[] iv) throws IOException {
-        // magic + version + iterations(int) + saltLen(1) + salt + ivLen(1) + iv
-        ByteArrayOutputStream header = new ByteArrayOutputStream();
-        header.write(MAGIC);
-        header.write(VERSION);
-        header.write(ByteBuffer.allocate(4).putInt(iterations).array());
-        header.write((byte) salt.length);
-        header.write(salt);
-        header.write((byte) iv.length);
-        header.write(iv);
-        byte[] h = header.toByteArray();
-        out.write(h);
-        out.flush();
+        static HeaderInfo v2(int iterations, byte[] salt, byte[] noncePrefix, int segmentSize, long plaintextLength) {
+            return segmented(VERSION_2, iterations, salt, noncePrefix, null, segmentSize, plaintextLength);
+        }
+
+        static HeaderInfo v3(int iterations, byte[] salt, byte[] noncePrefix, byte[] fileId,
+                             int segmentSize, long plaintextLength) {
+            return segmented(VERSION_3, iterations, salt, noncePrefix, fileId, segmentSize, plaintextLength);
+        }
+
+        private static HeaderInfo segmented(byte version, int iterations, byte[] salt, byte[] noncePrefix,
+                                            byte[] fileId, int segmentSize, long plaintextLength) {
+            HeaderInfo info = new HeaderInfo();
+            info.version = version;
+            info.iterations = iterations;
+            info.salt = salt;
+            info.noncePrefix = noncePrefix;
+            info.fileId = fileId;
+            info.segmentSize = segmentSize;
+            info.plaintextLength = plaintextLength;
+
+            int fileIdField = fileId == null ? 0 : 1 + fileId.length;
+            ByteBuffer raw = ByteBuffer.allocate(4 + 1 + 4 + 1 + salt.length + 1 + noncePrefix.length + fileIdField + 4 + 8);
+            raw.put(MAGIC).put(version).putInt(iterations);
+            raw.put((byte) salt.length).put(salt);
+            raw.put((byte) noncePrefix.length).put(noncePrefix);
+            if (fileId != null) raw.put((byte) fileId.length).put(fileId);
+            raw.putInt(segmentSize).putLong(plaintextLength);
+            info.raw = raw.array();
+            info.headerLength = info.raw.length;
+            return info;
+        }
+
+        /** An empty file still has one (empty, final) segment carrying a tag. */
+        long segmentCount() {
+            return Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        }
+
+        int plainLength(long index) {
+            return (int) Math.min(segmentSize, plaintextLength - index * segmentSize);
+        }
+
+        long ciphertextOffset(long index) {
+            return headerLength + index * (segmentSize + TAG_LEN);
+        }
+
+        /**
+         * STREAM-style nonce: prefix || 32-bit big-endian segment index || final flag.
+         * The index stops segments being reordered; the flag stops truncation at a
+         * segment boundary.
+         */
+        byte[] segmentNonce(long index) {
+            return ByteBuffer.allocate(IV_LEN)
+                    .put(noncePrefix)
+                    .putInt((int) index)
+                    .put((byte) (index == segmentCount() - 1 ? 1 : 0))
+                    .array();
+        }
     }
 
     private static HeaderInfo readHeader(InputStream in) throws IOException {
@@ -265,7 +877,8 @@ public class FileEncryptor {
         if (readFully(in, buf4) != 4) throw new IOException("Invalid file header (too short)");
         if (!Arrays.equals(buf4, MAGIC)) throw new IOException("Invalid file format (magic mismatch)");
         int v = in.read();
-        if (v != VERSION) throw new IOException("Unsupported file version: " + v);
+        if (v != VERSION && v != VERSION_2 && v != VERSION_3) throw new IOException("Unsupported file version: " + v);
+        info.version = v;
 
         // iterations (4 bytes)
         byte[] itb = new byte[4];
@@ -279,6 +892,30 @@ public class FileEncryptor {
         if (readFully(in, salt) != saltLen) throw new IOException("Incomplete salt");
         info.salt = salt;
 
+        if (v == VERSION_2 || v == VERSION_3) {
+            int prefixLen = in.read();
+            if (prefixLen != NONCE_PREFIX_LEN) throw new IOException("Invalid nonce prefix length");
+            byte[] prefix = new byte[prefixLen];
+            if (readFully(in, prefix) != prefixLen) throw new IOException("Incomplete nonce prefix");
+            byte[] fileId = null;
+            if (v == VERSION_3) {
+                if (in.read() != FILE_ID_LEN) throw new IOException("Invalid file id length");
+                fileId = new byte[FILE_ID_LEN];
+                if (readFully(in, fileId) != FILE_ID_LEN) throw new IOException("Incomplete file id");
+            }
+            byte[] sizes = new byte[12];
+            if (readFully(in, sizes) != 12) throw new IOException("Invalid header (missing segment sizes)");
+            ByteBuffer fields = ByteBuffer.wrap(sizes);
+            int segmentSize = fields.getInt();
+            long plaintextLength = fields.getLong();
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) throw new IOException("Invalid segment size");
+            if (plaintextLength < 0) throw new IOException("Invalid plaintext length");
+
+            HeaderInfo segmented = HeaderInfo.segmented((byte) v, iters, salt, prefix, fileId, segmentSize, plaintextLength);
+            if (segmented.segmentCount() > 0xFFFFFFFFL) throw new IOException("Too many segments");
+            return segmented;
+        }
+
         int ivLen = in.read();
         if (ivLen <= 0) throw new IOException("Invalid iv length");
         byte[] iv = new byte[ivLen];
@@ -290,6 +927,16 @@ public class FileEncryptor {
         return info;
     }
 
+    /** Reads a header of either version from the start of a channel with one positional read. */
+    private static HeaderInfo readHeader(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(MAX_HEADER_LEN);
+        while (head.hasRemaining()) {
+            int r = channel.read(head, head.position());
+            if (r < 0) break;
+        }
+        return readHeader(new ByteArrayInputStream(head.array(), 0, head.position()));
+    }
+
     private static int readFully(InputStream in, byte[] buf) throws IOException {
         int off = 0;
         while (off < buf.length) {
@@ -309,6 +956,29 @@ public class FileEncryptor {
         return new SecretKeySpec(keyBytes, "AES");
     }
 
+    /**
+     * HKDF-SHA256 (RFC 5869) from a batch key to the key of one v3 file, salted with the
+     * file's random id. v1/v2 files use the PBKDF2 key directly.
+     */
+    private static SecretKey fileKey(SecretKey batchKey, HeaderInfo header) throws GeneralSecurityException {
+        if (header.fileId == null) return batchKey;
+
+        byte[] ikm = batchKey.getEncoded();
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(header.fileId, "HmacSHA256"));
+        byte[] prk = hmac.doFinal(ikm);
+        hmac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        hmac.update(FILE_KEY_INFO);
+        hmac.update((byte) 1);
+        byte[] okm = hmac.doFinal();
+
+        SecretKey key = new SecretKeySpec(okm, 0, ikm.length, "AES");
+        Arrays.fill(ikm, (byte) 0);
+        Arrays.fill(prk, (byte) 0);
+        Arrays.fill(okm, (byte) 0);
+        return key;
+    }
+
     private static int bestAvailableKeyLength() {
         try {
             // request a 256-bit key; check max allowed
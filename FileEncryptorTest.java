@@ -1,3 +1,10 @@
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.Arrays;
 
@@ -5,6 +12,10 @@ import java.util.Arrays;
  * Basic test runner for FileEncryptor.
  *  - Creates a temporary file with sample text
  *  - Encrypts -> Decrypts -> Verifies the decrypted content equals original
+ *  - Decrypts a byte range of a multi-segment file and compares it
+ *  - Rejects out-of-range requests, tampered and reordered segments
+ *  - Still decrypts a v1 (single GCM stream) container
+ *  - Encrypts and decrypts a directory batch; rejects a list whose outputs collide
  *
  * Run:
  *   javac FileEncryptorTest.java
@@ -37,7 +48,133 @@ public class FileEncryptorTest {
             System.err.println("TEST FAILED: mismatch!");
         }
 
+        // v2 containers: several segments plus random access to a range spanning a boundary
+        Path big = tmpDir.resolve("fe_test_big.bin");
+        Path bigEnc = tmpDir.resolve("fe_test_big.bin.enc");
+        byte[] bigPlain = new byte[300_000];
+        new java.util.Random(7).nextBytes(bigPlain);
+        Files.write(big, bigPlain);
+        FileEncryptor.encryptFile(big, bigEnc, password, 100_000);
+        System.out.println();
+
+        byte[] slice = FileEncryptor.decryptRange(bigEnc, password, 65_000, 2_000);
+        if (Arrays.equals(slice, Arrays.copyOfRange(bigPlain, 65_000, 67_000))) {
+            System.out.println("TEST PASSED: range decryption matches original.");
+        } else {
+            System.err.println("TEST FAILED: range mismatch!");
+        }
+
+        try {
+            FileEncryptor.decryptRange(bigEnc, password, Long.MAX_VALUE - 7, 100);
+            System.err.println("TEST FAILED: overflowing range was accepted!");
+        } catch (IllegalArgumentException expected) {
+            System.out.println("TEST PASSED: overflowing range rejected.");
+        }
+
+        // Header: magic, version, iterations, salt (16), nonce prefix (7), segment size, length.
+        int headerLen = 4 + 1 + 4 + 1 + 16 + 1 + 7 + 4 + 8;
+        int record = 64 * 1024 + 16;
+        byte[] container = Files.readAllBytes(bigEnc);
+        Path bad = tmpDir.resolve("fe_test_bad.bin.enc");
+        Path badOut = tmpDir.resolve("fe_test_bad.bin");
+
+        byte[] tampered = container.clone();
+        tampered[headerLen + record + 100] ^= 1;
+        Files.write(bad, tampered);
+        expectRejected(bad, badOut, password, "tampered segment");
+
+        byte[] reordered = container.clone();
+        System.arraycopy(container, headerLen, reordered, headerLen + record, record);
+        System.arraycopy(container, headerLen + record, reordered, headerLen, record);
+        Files.write(bad, reordered);
+        expectRejected(bad, badOut, password, "reordered segments");
+
+        // v1 containers: magic, version 1, iterations, salt, IV, then one GCM stream.
+        Path v1 = tmpDir.resolve("fe_test_v1.txt.enc");
+        Path v1Dec = tmpDir.resolve("fe_test_v1.txt");
+        Files.write(v1, encryptV1(orig, password, 10_000));
+        FileEncryptor.decryptFile(v1, v1Dec, password);
+        System.out.println();
+
+        if (Arrays.equals(orig, Files.readAllBytes(v1Dec))) {
+            System.out.println("TEST PASSED: v1 container still decrypts.");
+        } else {
+            System.err.println("TEST FAILED: v1 mismatch!");
+        }
+
+        // Batch: same-named files in different directories, one PBKDF2 key, per-file HKDF keys
+        Path batchIn = tmpDir.resolve("fe_test_batch_in");
+        Path batchEnc = tmpDir.resolve("fe_test_batch_enc");
+        Path batchOut = tmpDir.resolve("fe_test_batch_out");
+        Files.createDirectories(batchIn.resolve("a"));
+        Files.createDirectories(batchIn.resolve("b"));
+        Files.write(batchIn.resolve("a").resolve("same.txt"), orig);
+        Files.write(batchIn.resolve("b").resolve("same.txt"), bigPlain);
+        Files.write(batchIn.resolve("top.txt"), orig);
+
+        FileEncryptor.BatchResult sealed = FileEncryptor.encryptBatch(batchIn, batchEnc, password, 10_000, 2);
+        FileEncryptor.BatchResult opened = FileEncryptor.decryptBatch(batchEnc, batchOut, password, 2);
+        boolean batchOk = sealed.files == 3 && sealed.failures.isEmpty()
+                && opened.files == 3 && opened.failures.isEmpty()
+                && Arrays.equals(orig, Files.readAllBytes(batchOut.resolve("a").resolve("same.txt")))
+                && Arrays.equals(bigPlain, Files.readAllBytes(batchOut.resolve("b").resolve("same.txt")))
+                && Arrays.equals(orig, Files.readAllBytes(batchOut.resolve("top.txt")))
+                && Arrays.equals(FileEncryptor.decryptRange(batchEnc.resolve("b").resolve("same.txt.enc"),
+                        password, 65_000, 2_000), Arrays.copyOfRange(bigPlain, 65_000, 67_000));
+        if (batchOk) {
+            System.out.println("TEST PASSED: batch round trip matches originals.");
+        } else {
+            System.err.println("TEST FAILED: batch mismatch! " + sealed + " / " + opened);
+        }
+
+        Path list = tmpDir.resolve("fe_test_batch.list");
+        Files.write(list, Arrays.asList(
+                batchIn.resolve("a").resolve("same.txt").toAbsolutePath().toString(),
+                batchIn.resolve("b").resolve("same.txt").toAbsolutePath().toString()));
+        try {
+            FileEncryptor.encryptBatch(list, tmpDir.resolve("fe_test_batch_list"), password, 10_000, 2);
+            System.err.println("TEST FAILED: colliding batch outputs were accepted!");
+        } catch (java.io.IOException expected) {
+            System.out.println("TEST PASSED: colliding batch outputs rejected.");
+        }
+
         // cleanup (optional)
         // Files.deleteIfExists(plain); Files.deleteIfExists(enc); Files.deleteIfExists(dec);
     }
+
+    private static void expectRejected(Path in, Path out, char[] password, String what) {
+        try {
+            FileEncryptor.decryptFile(in, out, password);
+            System.err.println("TEST FAILED: " + what + " decrypted without error!");
+        } catch (Exception expected) {
+            if (Files.exists(out)) {
+                System.err.println("TEST FAILED: " + what + " left a partial output file!");
+            } else {
+                System.out.println("\nTEST PASSED: " + what + " rejected.");
+            }
+        }
+    }
+
+    private static byte[] encryptV1(byte[] plain, char[] password, int iterations) throws Exception {
+        byte[] salt = new byte[16];
+        byte[] iv = new byte[12];
+        new java.util.Random(1).nextBytes(salt);
+        new java.util.Random(2).nextBytes(iv);
+
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        int keyBits = Math.min(Cipher.getMaxAllowedKeyLength("AES"), 256);
+        byte[] keyBytes = skf.generateSecret(new PBEKeySpec(password, salt, iterations, keyBits)).getEncoded();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyBytes, "AES"), new GCMParameterSpec(128, iv));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {0x46, 0x45, 0x4E, 0x43, 0x01});
+        out.write(ByteBuffer.allocate(4).putInt(iterations).array());
+        out.write(salt.length);
+        out.write(salt);
+        out.write(iv.length);
+        out.write(iv);
+        out.write(cipher.doFinal(plain));
+        return out.toByteArray();
+    }
 }
@@ -1,4 +1,7 @@
-import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * Pure Java SHA-256 + Merkle proofs + educational blockchain PoW demo.
@@ -8,6 +11,12 @@ public final class Sha256MerkleBlockchain {
 
     public static void main(String[] args) {
         runSha256Tests();
+
+        if (args.length > 0 && args[0].equals("--benchmark")) {
+            benchmarkSha256();
+            return;
+        }
+
         runMerkleDemo();
         runBlockchainDemo();
     }
@@ -21,11 +30,198 @@ public final class Sha256MerkleBlockchain {
         require(toHex(Sha256.hash(ascii("abc"))).equals(expected),
                 "SHA-256 test vector for 'abc' failed");
 
+        require(toHex(Sha256.hash(new byte[0])).equals(
+                        "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"),
+                "SHA-256 test vector for '' failed");
+
+        require(toHex(Sha256.hash(ascii("abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq"))).equals(
+                        "248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1"),
+                "SHA-256 test vector for the 448-bit message failed");
+
+        // One million 'a' bytes fed in uneven pieces exercises the block buffer.
+        Sha256 sha = new Sha256();
+        byte[] chunk = new byte[997];
+        for (int i = 0; i < chunk.length; i++) chunk[i] = 'a';
+        int remaining = 1_000_000;
+        while (remaining > 0) {
+            int length = Math.min(remaining, (remaining % 3 == 0) ? 1 : chunk.length);
+            if (length == 1) sha.update((byte) 'a');
+            else sha.update(chunk, 0, length);
+            remaining -= length;
+        }
+        require(toHex(sha.digest()).equals(
+                        "cdc76e5c9914fb9281a1c7e284d73e67f1809a48a497200e046d39ccc7112cd0"),
+                "SHA-256 test vector for one million 'a' failed");
+
+        // Every split point of a 200-byte message, and a midstate resumed twice.
+        byte[] message = new byte[200];
+        for (int i = 0; i < message.length; i++) message[i] = (byte) (i * 31 + 7);
+        for (int length = 0; length <= message.length; length++) {
+            byte[] oneShot = new byte[length];
+            for (int i = 0; i < length; i++) oneShot[i] = message[i];
+            String want = toHex(Sha256.hash(oneShot));
+
+            for (int split = 0; split <= length; split += 13) {
+                Sha256 prefix = new Sha256().update(message, 0, split);
+                Sha256 resumed = new Sha256();
+                for (int round = 0; round < 2; round++) {
+                    resumed.copyFrom(prefix).update(message, split, length - split);
+                    require(toHex(resumed.digest()).equals(want), "SHA-256 streaming mismatch");
+                }
+            }
+        }
+
         System.out.println("SHA-256 self-test passed.");
         System.out.println("SHA-256(\"abc\") = " + expected);
         System.out.println();
     }
 
+    // ------------------------- SHA-256 benchmark -------------------------
+
+    // Compares one-shot hashing against a reused context (Merkle nodes) and a
+    // midstate resume (mining, where only the nonce changes), then mines at
+    // increasing difficulty to report H/s.
+    private static void benchmarkSha256() {
+        byte[] left = Sha256.hash(ascii("left"));
+        byte[] right = Sha256.hash(ascii("right"));
+        byte[] node = new byte[64];
+        for (int i = 0; i < 32; i++) {
+            node[i] = left[i];
+            node[32 + i] = right[i];
+        }
+
+        byte[] header = new Block(1, zeros(64), new String[] { "benchmark" }, 8).headerBytes();
+        Sha256 reused = new Sha256();
+        Sha256 prefix = new Sha256().update(header, 0, Block.NONCE_OFFSET);
+        byte[] out = new byte[32];
+        byte[] nonceBytes = new byte[8];
+        int iterations = 1_000_000;
+        int sink = 0;
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                node[0] = (byte) i;
+                sink += Sha256.hash(node)[0];
+            }
+            long oneShotNode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                left[0] = (byte) i;
+                reused.update(left).update(right).digest(out, 0);
+                sink += out[0];
+            }
+            long reusedNode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                writeLong(header, Block.NONCE_OFFSET, i);
+                sink += Sha256.hash(header)[0];
+            }
+            long oneShotHeader = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                writeLong(nonceBytes, 0, i);
+                reused.copyFrom(prefix).update(nonceBytes, 0, 8).digest(out, 0);
+                sink += out[0];
+            }
+            long midstateHeader = System.nanoTime() - start;
+
+            System.out.printf("Round %d  node: one-shot %.2f MH/s, reused %.2f MH/s   "
+                            + "header: one-shot %.2f MH/s, midstate %.2f MH/s%n",
+                    round + 1,
+                    iterations * 1e3 / oneShotNode, iterations * 1e3 / reusedNode,
+                    iterations * 1e3 / oneShotHeader, iterations * 1e3 / midstateHeader);
+        }
+
+        System.out.println("(checksum " + sink + ")");
+        System.out.println();
+
+        benchmarkMerkle(1_000_000);
+        benchmarkValidation(100_000);
+        System.out.println();
+
+        // Hash rate should stay flat as difficulty rises; only the time to a solution grows.
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int bits = 8; bits <= 20; bits += 4) {
+            Block block = new Block(bits, zeros(64), new String[] { "difficulty " + bits }, bits);
+            block.mineWithProgress(threads);
+        }
+    }
+
+    private static void benchmarkMerkle(int leafCount) {
+        String[] transactions = new String[leafCount];
+        for (int i = 0; i < leafCount; i++) transactions[i] = "tx " + i;
+
+        long start = System.nanoTime();
+        MerkleTree built = new MerkleTree(transactions);
+        long buildNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        MerkleTree appended = new MerkleTree();
+        for (String transaction : transactions) appended.append(transaction);
+        byte[] appendedRoot = appended.getRoot();
+        long appendNanos = System.nanoTime() - start;
+
+        require(constantTimeEquals(built.getRoot(), appendedRoot), "Merkle roots differ");
+
+        int[] indices = new int[100_000];
+        for (int i = 0; i < indices.length; i++) indices[i] = (int) ((i * 2654435761L) % leafCount);
+
+        start = System.nanoTime();
+        MerkleProof[] proofs = built.createProofs(indices);
+        long proofNanos = System.nanoTime() - start;
+
+        System.out.printf("Merkle, %,d leaves on %d threads: build %.0f ms, append one by one %.0f ms "
+                        + "(%.2f us/append), %,d proofs in %.0f ms%n",
+                leafCount, ForkJoinPool.commonPool().getParallelism(), buildNanos / 1e6, appendNanos / 1e6,
+                appendNanos / 1e3 / leafCount, proofs.length, proofNanos / 1e6);
+    }
+
+    private static void benchmarkValidation(int blockCount) {
+        Blockchain chain = new Blockchain(4, 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < blockCount; i++) {
+            chain.addBlock(new String[] { "coinbase " + i, "payment " + i }, false);
+        }
+        long buildNanos = System.nanoTime() - start;
+
+        for (int round = 0; round < 3; round++) {
+            start = System.nanoTime();
+            int serial = chain.findFirstInvalid(0, false);
+            long serialNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int parallel = chain.findFirstInvalid(0, true);
+            long parallelNanos = System.nanoTime() - start;
+
+            require(serial < 0 && parallel < 0, "Benchmark chain should be valid");
+            System.out.printf("Validate %,d blocks: serial %.0f ms, parallel %.0f ms on %d threads%n",
+                    blockCount, serialNanos / 1e6, parallelNanos / 1e6,
+                    ForkJoinPool.commonPool().getParallelism());
+        }
+
+        require(chain.isValid(), "Benchmark chain should be valid");
+        for (int i = 0; i < 100; i++) chain.addBlock(new String[] { "late " + i }, false);
+
+        start = System.nanoTime();
+        boolean recent = chain.isValidSinceCheckpoint();
+        long checkpointNanos = System.nanoTime() - start;
+
+        require(recent, "New blocks should validate");
+        System.out.printf("Mined %,d blocks in %.1f s; 100 new blocks past the checkpoint validated in %.2f ms%n",
+                blockCount, buildNanos / 1e9, checkpointNanos / 1e6);
+
+        int tampered = blockCount * 7 / 10;
+        chain.getBlock(tampered).replaceTransaction(1, "payment 999999");
+        require(chain.findFirstInvalid(0, true) == tampered, "First invalid block should be reported");
+        require(chain.isValidSinceCheckpoint(), "Checkpointed blocks are not re-validated");
+        require(!chain.isValid(), "Full validation should catch the tampered block");
+    }
+
     // ------------------------- Merkle tree demo -------------------------
 
     private static void runMerkleDemo() {
@@ -50,6 +246,21 @@ public final class Sha256MerkleBlockchain {
 
         require(rejected, "Modified Merkle leaf should be rejected");
 
+        MerkleTree appended = new MerkleTree();
+        for (String transaction : transactions) appended.append(transaction);
+        require(constantTimeEquals(appended.getRoot(), tree.getRoot()),
+                "Appending leaves should give the same root as building at once");
+
+        MerkleProof[] proofs = appended.createProofs(new int[] { 0, 1, 2, 3, 4 });
+        for (int i = 0; i < proofs.length; i++) {
+            require(MerkleTree.verifyProof(transactions[i], proofs[i], tree.getRoot()),
+                    "Batch Merkle proof should verify");
+        }
+
+        appended.update(2, "Carol pays Dave 2000");
+        require(MerkleTree.verifyProof("Carol pays Dave 2000", appended.createProof(2), appended.getRoot()),
+                "Updated leaf should verify against the updated root");
+
         System.out.println("Merkle root: " + toHex(tree.getRoot()));
         System.out.println("Merkle proof for transaction #2 verified: " + verified);
         System.out.println();
@@ -78,7 +289,7 @@ public final class Sha256MerkleBlockchain {
         System.out.println("Blocks mined: " + chain.size());
 
         // Demonstrates tamper detection.
-        chain.getBlock(1).transactions[0] = "Alice pays Bob 999999";
+        chain.getBlock(1).replaceTransaction(0, "Alice pays Bob 999999");
         System.out.println("After changing a transaction, chain valid: " + chain.isValid());
     }
 
@@ -112,104 +323,188 @@ public final class Sha256MerkleBlockchain {
                 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
         };
 
+        // Reused for every block and every digest; nothing is allocated per update.
+        private final int[] state = new int[8];
+        private final int[] words = new int[64];
+        private final byte[] buffer = new byte[64];
+        private int bufferLength;
+        private long byteCount;
+
+        Sha256() {
+            reset();
+        }
+
         static byte[] hash(byte[] message) {
             if (message == null) {
                 throw new IllegalArgumentException("Message cannot be null");
             }
 
-            byte[] padded = pad(message);
-            int[] hash = copyIntArray(INITIAL_HASH);
-            int[] words = new int[64];
+            return new Sha256().update(message).digest();
+        }
 
-            for (int offset = 0; offset < padded.length; offset += 64) {
-                for (int i = 0; i < 16; i++) {
-                    int p = offset + i * 4;
-                    words[i] = ((padded[p] & 0xFF) << 24)
-                            | ((padded[p + 1] & 0xFF) << 16)
-                            | ((padded[p + 2] & 0xFF) << 8)
-                            | (padded[p + 3] & 0xFF);
-                }
+        Sha256 reset() {
+            for (int i = 0; i < 8; i++) state[i] = INITIAL_HASH[i];
+            bufferLength = 0;
+            byteCount = 0;
+            return this;
+        }
 
-                for (int i = 16; i < 64; i++) {
-                    int s0 = rotateRight(words[i - 15], 7)
-                            ^ rotateRight(words[i - 15], 18)
-                            ^ (words[i - 15] >>> 3);
+        // Midstate: after hashing a fixed prefix once, copyFrom restores that point
+        // so only the changing tail (e.g. a nonce) has to be hashed again.
+        Sha256 copyFrom(Sha256 other) {
+            for (int i = 0; i < 8; i++) state[i] = other.state[i];
+            for (int i = 0; i < other.bufferLength; i++) buffer[i] = other.buffer[i];
+            bufferLength = other.bufferLength;
+            byteCount = other.byteCount;
+            return this;
+        }
 
-                    int s1 = rotateRight(words[i - 2], 17)
-                            ^ rotateRight(words[i - 2], 19)
-                            ^ (words[i - 2] >>> 10);
+        Sha256 update(byte value) {
+            buffer[bufferLength++] = value;
+            byteCount++;
 
-                    words[i] = words[i - 16] + s0 + words[i - 7] + s1;
-                }
+            if (bufferLength == 64) {
+                compress(buffer, 0);
+                bufferLength = 0;
+            }
 
-                int a = hash[0];
-                int b = hash[1];
-                int c = hash[2];
-                int d = hash[3];
-                int e = hash[4];
-                int f = hash[5];
-                int g = hash[6];
-                int h = hash[7];
-
-                for (int i = 0; i < 64; i++) {
-                    int sigma1 = rotateRight(e, 6) ^ rotateRight(e, 11) ^ rotateRight(e, 25);
-                    int choose = (e & f) ^ (~e & g);
-                    int temp1 = h + sigma1 + choose + K[i] + words[i];
-
-                    int sigma0 = rotateRight(a, 2) ^ rotateRight(a, 13) ^ rotateRight(a, 22);
-                    int majority = (a & b) ^ (a & c) ^ (b & c);
-                    int temp2 = sigma0 + majority;
-
-                    h = g;
-                    g = f;
-                    f = e;
-                    e = d + temp1;
-                    d = c;
-                    c = b;
-                    b = a;
-                    a = temp1 + temp2;
-                }
+            return this;
+        }
 
-                hash[0] += a;
-                hash[1] += b;
-                hash[2] += c;
-                hash[3] += d;
-                hash[4] += e;
-                hash[5] += f;
-                hash[6] += g;
-                hash[7] += h;
+        Sha256 update(byte[] data) {
+            if (data == null) {
+                throw new IllegalArgumentException("Message cannot be null");
             }
 
-            byte[] output = new byte[32];
+            return update(data, 0, data.length);
+        }
 
-            for (int i = 0; i < 8; i++) {
-                int value = hash[i];
-                output[i * 4] = (byte) (value >>> 24);
-                output[i * 4 + 1] = (byte) (value >>> 16);
-                output[i * 4 + 2] = (byte) (value >>> 8);
-                output[i * 4 + 3] = (byte) value;
+        Sha256 update(byte[] data, int offset, int length) {
+            if (offset < 0 || length < 0 || offset > data.length - length) {
+                throw new IllegalArgumentException("Invalid data range");
+            }
+
+            byteCount += length;
+
+            if (bufferLength > 0) {
+                int take = Math.min(64 - bufferLength, length);
+                for (int i = 0; i < take; i++) buffer[bufferLength + i] = data[offset + i];
+
+                bufferLength += take;
+                offset += take;
+                length -= take;
+
+                if (bufferLength < 64) return this;
+
+                compress(buffer, 0);
+                bufferLength = 0;
+            }
+
+            // Whole blocks are compressed straight from the caller's array.
+            while (length >= 64) {
+                compress(data, offset);
+                offset += 64;
+                length -= 64;
             }
 
+            for (int i = 0; i < length; i++) buffer[i] = data[offset + i];
+            bufferLength = length;
+            return this;
+        }
+
+        byte[] digest() {
+            byte[] output = new byte[32];
+            digest(output, 0);
             return output;
         }
 
-        private static byte[] pad(byte[] message) {
-            long bitLength = (long) message.length * 8L;
-            int zeroCount = (int) ((56 - ((message.length + 1) % 64) + 64) % 64);
+        // Pads inside the block buffer, writes 32 bytes at output[offset] and resets.
+        void digest(byte[] output, int offset) {
+            long bitLength = byteCount * 8L;
+            buffer[bufferLength++] = (byte) 0x80;
 
-            byte[] padded = new byte[message.length + 1 + zeroCount + 8];
+            if (bufferLength > 56) {
+                while (bufferLength < 64) buffer[bufferLength++] = 0;
+                compress(buffer, 0);
+                bufferLength = 0;
+            }
 
-            for (int i = 0; i < message.length; i++) {
-                padded[i] = message[i];
+            while (bufferLength < 56) buffer[bufferLength++] = 0;
+
+            for (int i = 0; i < 8; i++) {
+                buffer[63 - i] = (byte) (bitLength >>> (i * 8));
             }
 
-            padded[message.length] = (byte) 0x80;
+            compress(buffer, 0);
 
             for (int i = 0; i < 8; i++) {
-                padded[padded.length - 1 - i] = (byte) (bitLength >>> (i * 8));
+                int value = state[i];
+                output[offset + i * 4] = (byte) (value >>> 24);
+                output[offset + i * 4 + 1] = (byte) (value >>> 16);
+                output[offset + i * 4 + 2] = (byte) (value >>> 8);
+                output[offset + i * 4 + 3] = (byte) value;
             }
 
-            return padded;
+            reset();
+        }
+
+        private void compress(byte[] block, int offset) {
+            for (int i = 0; i < 16; i++) {
+                int p = offset + i * 4;
+                words[i] = ((block[p] & 0xFF) << 24)
+                        | ((block[p + 1] & 0xFF) << 16)
+                        | ((block[p + 2] & 0xFF) << 8)
+                        | (block[p + 3] & 0xFF);
+            }
+
+            for (int i = 16; i < 64; i++) {
+                int s0 = rotateRight(words[i - 15], 7)
+                        ^ rotateRight(words[i - 15], 18)
+                        ^ (words[i - 15] >>> 3);
+
+                int s1 = rotateRight(words[i - 2], 17)
+                        ^ rotateRight(words[i - 2], 19)
+                        ^ (words[i - 2] >>> 10);
+
+                words[i] = words[i - 16] + s0 + words[i - 7] + s1;
+            }
+
+            int a = state[0];
+            int b = state[1];
+            int c = state[2];
+            int d = state[3];
+            int e = state[4];
+            int f = state[5];
+            int g = state[6];
+            int h = state[7];
+
+            for (int i = 0; i < 64; i++) {
+                int sigma1 = rotateRight(e, 6) ^ rotateRight(e, 11) ^ rotateRight(e, 25);
+                int choose = (e & f) ^ (~e & g);
+                int temp1 = h + sigma1 + choose + K[i] + words[i];
+
+                int sigma0 = rotateRight(a, 2) ^ rotateRight(a, 13) ^ rotateRight(a, 22);
+                int majority = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = sigma0 + majority;
+
+                h = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+
+            state[0] += a;
+            state[1] += b;
+            state[2] += c;
+            state[3] += d;
+            state[4] += e;
+            state[5] += f;
+            state[6] += g;
+            state[7] += h;
         }
 
         private static int rotateRight(int value, int bits) {
@@ -222,55 +517,171 @@ public final class Sha256MerkleBlockchain {
     // =================================================================
 
     static final class MerkleTree {
-        private final byte[][][] levels;
+        // levels[0] holds the leaf hashes. Every level is one flat array of 32-byte
+        // nodes, grown by doubling, so appends do not allocate per node.
+        private byte[][] levels;
+        private int[] sizes;
+        private int levelCount;
+        private final Sha256 sha = new Sha256();
+
+        // Lowest leaf whose ancestors have not been rehashed since it was appended.
+        private int dirtyFrom = Integer.MAX_VALUE;
+
+        MerkleTree() {
+            levels = new byte[][] { new byte[32 * 16] };
+            sizes = new int[1];
+            levelCount = 1;
+        }
 
         MerkleTree(String[] transactions) {
             if (transactions == null || transactions.length == 0) {
                 throw new IllegalArgumentException("At least one transaction is required");
             }
 
-            levels = new byte[calculateLevelCount(transactions.length)][][];
-            levels[0] = new byte[transactions.length][];
+            levelCount = calculateLevelCount(transactions.length);
+            levels = new byte[levelCount][];
+            sizes = new int[levelCount];
+
+            final byte[] leaves = new byte[32 * transactions.length];
+            levels[0] = leaves;
+            sizes[0] = transactions.length;
 
             for (int i = 0; i < transactions.length; i++) {
-                levels[0][i] = Sha256.hash(ascii(transactions[i]));
+                if (transactions[i] == null) throw new IllegalArgumentException("Transaction cannot be null");
             }
 
+            forRange(transactions.length, (hasher, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    hasher.update(ascii(transactions[i])).digest(leaves, i * 32);
+                }
+            });
+
+            // Each level depends on the one below, but within a level every parent
+            // is independent, so levels are built bottom-up and split across threads.
+            for (int level = 0; level + 1 < levelCount; level++) {
+                final int child = level;
+                int parentCount = (sizes[level] + 1) / 2;
+                levels[level + 1] = new byte[32 * parentCount];
+                sizes[level + 1] = parentCount;
+
+                forRange(parentCount, (hasher, from, to) -> {
+                    for (int parent = from; parent < to; parent++) {
+                        hashParent(hasher, child, parent);
+                    }
+                });
+            }
+        }
+
+        int size() {
+            return sizes[0];
+        }
+
+        byte[] getRoot() {
+            if (sizes[0] == 0) {
+                throw new IllegalStateException("Merkle tree is empty");
+            }
+
+            flush();
+
+            byte[] root = new byte[32];
+            System.arraycopy(levels[levelCount - 1], 0, root, 0, 32);
+            return root;
+        }
+
+        // Adds a leaf. Its ancestors are rehashed on the next read, so one append
+        // costs O(log n) and a run of k appends costs O(k + log n).
+        int append(String transaction) {
+            int index = sizes[0];
+            ensureCapacity(0, index + 1);
+            sha.update(ascii(transaction)).digest(levels[0], index * 32);
+            sizes[0] = index + 1;
+            dirtyFrom = Math.min(dirtyFrom, index);
+            return index;
+        }
+
+        // Replaces a leaf and rehashes only its path to the root: O(log n).
+        void update(int transactionIndex, String transaction) {
+            if (transactionIndex < 0 || transactionIndex >= sizes[0]) {
+                throw new IllegalArgumentException("Invalid transaction index");
+            }
+
+            flush();
+            sha.update(ascii(transaction)).digest(levels[0], transactionIndex * 32);
+
+            int index = transactionIndex;
+            for (int level = 0; level + 1 < levelCount; level++) {
+                index >>>= 1;
+                hashParent(sha, level, index);
+            }
+        }
+
+        // Rehashes every node above the appended leaves, level by level; only the
+        // suffix starting at dirtyFrom's ancestor can have changed.
+        private void flush() {
+            if (dirtyFrom == Integer.MAX_VALUE) return;
+
+            int from = dirtyFrom;
             int level = 0;
 
-            while (levels[level].length > 1) {
-                byte[][] current = levels[level];
-                int parentCount = (current.length + 1) / 2;
-                levels[level + 1] = new byte[parentCount][];
+            while (sizes[level] > 1) {
+                int parentCount = (sizes[level] + 1) / 2;
+
+                if (level + 1 == levels.length) {
+                    byte[][] expandedLevels = new byte[levels.length + 1][];
+                    int[] expandedSizes = new int[levels.length + 1];
+                    System.arraycopy(levels, 0, expandedLevels, 0, levels.length);
+                    System.arraycopy(sizes, 0, expandedSizes, 0, sizes.length);
+                    expandedLevels[levels.length] = new byte[32 * 16];
+                    levels = expandedLevels;
+                    sizes = expandedSizes;
+                }
 
-                for (int i = 0; i < parentCount; i++) {
-                    byte[] left = current[i * 2];
-                    byte[] right = (i * 2 + 1 < current.length)
-                            ? current[i * 2 + 1]
-                            : left;
+                ensureCapacity(level + 1, parentCount);
+                sizes[level + 1] = parentCount;
 
-                    levels[level + 1][i] = Sha256.hash(concatenate(left, right));
+                from >>>= 1;
+                for (int parent = from; parent < parentCount; parent++) {
+                    hashParent(sha, level, parent);
                 }
 
                 level++;
             }
+
+            levelCount = level + 1;
+            dirtyFrom = Integer.MAX_VALUE;
         }
 
-        byte[] getRoot() {
-            return copyBytes(levels[levels.length - 1][0]);
+        private void ensureCapacity(int level, int nodes) {
+            if (levels[level].length >= nodes * 32) return;
+
+            byte[] expanded = new byte[Math.max(nodes, levels[level].length / 16) * 32];
+            System.arraycopy(levels[level], 0, expanded, 0, sizes[level] * 32);
+            levels[level] = expanded;
+        }
+
+        // An unpaired last node is hashed with itself, as in Bitcoin.
+        private void hashParent(Sha256 hasher, int level, int parent) {
+            byte[] children = levels[level];
+            int left = parent * 2;
+            int right = left + 1 < sizes[level] ? left + 1 : left;
+
+            hasher.update(children, left * 32, 32)
+                    .update(children, right * 32, 32)
+                    .digest(levels[level + 1], parent * 32);
         }
 
         MerkleProof createProof(int transactionIndex) {
-            if (transactionIndex < 0 || transactionIndex >= levels[0].length) {
+            if (transactionIndex < 0 || transactionIndex >= sizes[0]) {
                 throw new IllegalArgumentException("Invalid transaction index");
             }
 
-            byte[][] siblings = new byte[levels.length - 1][];
-            boolean[] siblingOnLeft = new boolean[levels.length - 1];
+            flush();
+
+            byte[][] siblings = new byte[levelCount - 1][];
+            boolean[] siblingOnLeft = new boolean[levelCount - 1];
             int currentIndex = transactionIndex;
 
-            for (int level = 0; level < levels.length - 1; level++) {
-                byte[][] currentLevel = levels[level];
+            for (int level = 0; level < levelCount - 1; level++) {
                 int siblingIndex;
 
                 if ((currentIndex & 1) == 0) {
@@ -281,35 +692,80 @@ public final class Sha256MerkleBlockchain {
                     siblingOnLeft[level] = true;
                 }
 
-                if (siblingIndex >= currentLevel.length) {
+                if (siblingIndex >= sizes[level]) {
                     siblingIndex = currentIndex;
                 }
 
-                siblings[level] = copyBytes(currentLevel[siblingIndex]);
+                siblings[level] = new byte[32];
+                System.arraycopy(levels[level], siblingIndex * 32, siblings[level], 0, 32);
                 currentIndex /= 2;
             }
 
             return new MerkleProof(siblings, siblingOnLeft);
         }
 
+        // Proofs only read the levels, so a large batch is split across threads.
+        MerkleProof[] createProofs(final int[] transactionIndices) {
+            final MerkleProof[] proofs = new MerkleProof[transactionIndices.length];
+            flush();
+
+            forRange(transactionIndices.length, (hasher, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    proofs[i] = createProof(transactionIndices[i]);
+                }
+            });
+
+            return proofs;
+        }
+
         static boolean verifyProof(String transaction, MerkleProof proof, byte[] expectedRoot) {
             if (transaction == null || proof == null || expectedRoot == null) {
                 return false;
             }
 
-            byte[] current = Sha256.hash(ascii(transaction));
+            Sha256 sha = new Sha256();
+            byte[] current = sha.update(ascii(transaction)).digest();
 
             for (int i = 0; i < proof.siblings.length; i++) {
                 if (proof.siblingOnLeft[i]) {
-                    current = Sha256.hash(concatenate(proof.siblings[i], current));
+                    sha.update(proof.siblings[i]).update(current);
                 } else {
-                    current = Sha256.hash(concatenate(current, proof.siblings[i]));
+                    sha.update(current).update(proof.siblings[i]);
                 }
+
+                sha.digest(current, 0);
             }
 
             return constantTimeEquals(current, expectedRoot);
         }
 
+        // Root computed straight from the transactions in one scratch buffer, without
+        // building a tree. Validation uses this so it never trusts a stored tree that
+        // is updated together with the transactions it summarizes.
+        static byte[] rootOf(String[] transactions, Sha256 hasher) {
+            byte[] nodes = new byte[32 * transactions.length];
+
+            for (int i = 0; i < transactions.length; i++) {
+                hasher.update(ascii(transactions[i])).digest(nodes, i * 32);
+            }
+
+            // Parent p overwrites node p only after reading children 2p and 2p + 1.
+            for (int size = transactions.length; size > 1; size = (size + 1) / 2) {
+                for (int parent = 0; parent < (size + 1) / 2; parent++) {
+                    int left = parent * 2;
+                    int right = left + 1 < size ? left + 1 : left;
+
+                    hasher.update(nodes, left * 32, 32)
+                            .update(nodes, right * 32, 32)
+                            .digest(nodes, parent * 32);
+                }
+            }
+
+            byte[] root = new byte[32];
+            System.arraycopy(nodes, 0, root, 0, 32);
+            return root;
+        }
+
         private static int calculateLevelCount(int leafCount) {
             int count = 1;
 
@@ -333,28 +789,44 @@ public final class Sha256MerkleBlockchain {
     }
 
     // =================================================================
-    // Educational blockchain with BigInteger PoW
+    // Educational blockchain with multi-threaded PoW
     // =================================================================
 
     static final class Blockchain {
         private Block[] blocks = new Block[4];
         private int count;
         private final int difficultyBits;
-        private final BigInteger target;
+        private final int threads;
+
+        // Blocks below this index passed a full validation and are skipped by
+        // isValidSinceCheckpoint(). Changing one of them afterwards is only
+        // caught by isValid().
+        private int checkpoint;
 
         Blockchain(int difficultyBits) {
+            this(difficultyBits, Runtime.getRuntime().availableProcessors());
+        }
+
+        Blockchain(int difficultyBits, int threads) {
             if (difficultyBits < 1 || difficultyBits > 248) {
                 throw new IllegalArgumentException("Difficulty must be from 1 to 248 bits");
             }
+            if (threads < 1) {
+                throw new IllegalArgumentException("At least one mining thread is required");
+            }
 
             this.difficultyBits = difficultyBits;
-            this.target = BigInteger.ONE.shiftLeft(256 - difficultyBits);
+            this.threads = threads;
         }
 
         void addBlock(String[] transactions) {
+            addBlock(transactions, true);
+        }
+
+        void addBlock(String[] transactions, boolean verbose) {
             String previousHash = count == 0 ? zeros(64) : blocks[count - 1].hash;
-            Block block = new Block(count, previousHash, transactions, target);
-            block.mineWithProgress();
+            Block block = new Block(count, previousHash, transactions, difficultyBits);
+            block.mine(threads, verbose);
 
             if (count == blocks.length) {
                 Block[] expanded = new Block[blocks.length * 2];
@@ -366,28 +838,65 @@ public final class Sha256MerkleBlockchain {
 
             blocks[count++] = block;
 
-            System.out.println("Block " + block.index + " mined.");
-            System.out.println("Hash: " + block.hash);
-            System.out.println("Nonce: " + block.nonce);
+            if (verbose) {
+                System.out.println("Block " + block.index + " mined.");
+                System.out.println("Hash: " + block.hash);
+                System.out.println("Nonce: " + block.nonce);
+            }
         }
 
+        // Full validation of every block; moves the checkpoint to the end on success.
         boolean isValid() {
-            for (int i = 0; i < count; i++) {
-                Block block = blocks[i];
+            return validateFrom(0);
+        }
+
+        // Validates only blocks added since the last successful validation, plus the
+        // link from the first of them back to the checkpointed chain.
+        boolean isValidSinceCheckpoint() {
+            return validateFrom(checkpoint);
+        }
+
+        private boolean validateFrom(int from) {
+            boolean valid = findFirstInvalid(from, true) < 0;
+            if (valid) checkpoint = count;
+            return valid;
+        }
+
+        // Returns the lowest invalid block index at or after from, or -1. Each block's
+        // own checks (merkle root, header hash, target) do not depend on its
+        // neighbours, so they run in parallel; the hash links are then a cheap
+        // sequential pass over the blocks' hash fields.
+        int findFirstInvalid(final int from, boolean parallel) {
+            final AtomicInteger firstInvalid = new AtomicInteger(Integer.MAX_VALUE);
+
+            RangeBody check = (hasher, lo, hi) -> {
+                byte[] scratch = new byte[32];
+
+                for (int i = from + lo; i < from + hi; i++) {
+                    if (i > firstInvalid.get()) return; // a lower block already failed
 
-                String expectedPrevious = i == 0 ? zeros(64) : blocks[i - 1].hash;
-                if (!block.previousHash.equals(expectedPrevious)) return false;
+                    if (!blocks[i].isSelfConsistent(difficultyBits, hasher, scratch)) {
+                        int seen;
+                        while (i < (seen = firstInvalid.get()) && !firstInvalid.compareAndSet(seen, i)) {
+                            // retry until the lowest failing index is recorded
+                        }
+                        return;
+                    }
+                }
+            };
 
-                String rebuiltMerkleRoot = toHex(new MerkleTree(block.transactions).getRoot());
-                if (!block.merkleRoot.equals(rebuiltMerkleRoot)) return false;
+            if (parallel) forRange(count - from, check);
+            else check.run(new Sha256(), 0, count - from);
 
-                String rebuiltHash = block.calculateHash();
-                if (!block.hash.equals(rebuiltHash)) return false;
+            int limit = Math.min(firstInvalid.get(), count);
+            String genesisPrevious = zeros(64);
 
-                if (new BigInteger(1, fromHex(block.hash)).compareTo(target) >= 0) return false;
+            for (int i = from; i < limit; i++) {
+                String expected = i == 0 ? genesisPrevious : blocks[i - 1].hash;
+                if (!blocks[i].previousHash.equals(expected)) return i;
             }
 
-            return true;
+            return limit == count ? -1 : limit;
         }
 
         int size() {
@@ -403,18 +912,34 @@ public final class Sha256MerkleBlockchain {
     }
 
     static final class Block {
+        // Binary header: index | previous hash | merkle root | timestamp | difficulty | nonce,
+        // all big-endian. The nonce comes last so the first 80 bytes form a fixed midstate
+        // and each attempt costs a single compression.
+        static final int HEADER_LENGTH = 4 + 32 + 32 + 8 + 4 + 8;
+        static final int NONCE_OFFSET = HEADER_LENGTH - 8;
+
+        // Nonces are handed out in chunks this size; workers check for cancellation
+        // between chunks.
+        private static final long NONCE_CHUNK = 1 << 14;
+
         final int index;
         final String previousHash;
-        final String[] transactions;
+        private final String[] transactions;
+        private final MerkleTree tree;
         final String merkleRoot;
         final long timestamp;
-        final BigInteger target;
+        final int difficultyBits;
 
-        volatile long attempts;
+        // Mining template: the header with the nonce slot that miners fill in. Validation
+        // never reads it; it rebuilds the header from the fields below.
+        private final byte[] header;
+
+        long attempts;
+        long miningNanos;
         long nonce;
         String hash;
 
-        Block(int index, String previousHash, String[] transactions, BigInteger target) {
+        Block(int index, String previousHash, String[] transactions, int difficultyBits) {
             if (transactions == null || transactions.length == 0) {
                 throw new IllegalArgumentException("A block needs at least one transaction");
             }
@@ -422,66 +947,231 @@ public final class Sha256MerkleBlockchain {
             this.index = index;
             this.previousHash = previousHash;
             this.transactions = copyStrings(transactions);
-            this.merkleRoot = toHex(new MerkleTree(this.transactions).getRoot());
+            this.tree = new MerkleTree(this.transactions);
+            this.merkleRoot = toHex(tree.getRoot());
             this.timestamp = System.currentTimeMillis();
-            this.target = target;
+            this.difficultyBits = difficultyBits;
+            this.header = headerBytes();
         }
 
-        void mineWithProgress() {
-            final boolean[] mining = { true };
+        void mineWithProgress(int threads) {
+            mine(threads, true);
+        }
 
-            Thread progress = new Thread(new Runnable() {
-                public void run() {
-                    char[] spin = { '|', '/', '-', '\\' };
-                    int position = 0;
+        void mine(int threads, boolean verbose) {
+            AtomicLong nextNonce = new AtomicLong();
+            AtomicLong hashes = new AtomicLong();
+            AtomicLong winner = new AtomicLong(-1);
+
+            if (!verbose && threads == 1) {
+                // Nothing to report, so skip the thread hand-off entirely.
+                long start = System.nanoTime();
+                new MinerWorker(header, difficultyBits, nextNonce, hashes, winner).run();
+                finishMining(winner.get(), hashes.get(), System.nanoTime() - start);
+                return;
+            }
 
-                    while (mining[0]) {
-                        System.out.print("\rMining block " + index
-                                + " " + spin[position++ % spin.length]
-                                + "  attempts: " + attempts);
-                        System.out.flush();
+            Thread[] workers = new Thread[threads];
 
-                        try {
-                            Thread.sleep(120);
-                        } catch (InterruptedException ignored) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
-                }
-            });
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(new MinerWorker(header, difficultyBits, nextNonce, hashes, winner),
+                        "miner-" + index + "-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
 
-            progress.setDaemon(true);
-            progress.start();
+            long start = System.nanoTime();
+            long lastHashes = 0;
+            long lastTime = start;
 
             try {
-                for (nonce = 0; nonce >= 0; nonce++) {
-                    hash = calculateHash();
-                    attempts++;
-
-                    if (new BigInteger(1, fromHex(hash)).compareTo(target) < 0) {
-                        return;
+                for (Thread worker : workers) {
+                    while (worker.isAlive()) {
+                        worker.join(500);
+                        if (!verbose) continue;
+
+                        long now = System.nanoTime();
+                        long total = hashes.get();
+                        System.out.printf("\rMining block %d on %d threads: %,d hashes, %s",
+                                index, threads, total, formatRate(total - lastHashes, now - lastTime));
+                        System.out.flush();
+                        lastHashes = total;
+                        lastTime = now;
                     }
                 }
+            } catch (InterruptedException e) {
+                winner.compareAndSet(-1, Long.MIN_VALUE);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Mining interrupted");
+            }
 
+            finishMining(winner.get(), hashes.get(), System.nanoTime() - start);
+
+            if (verbose) {
+                System.out.printf("\rMining block %d on %d threads: %,d hashes in %.2f s, %s average%n",
+                        index, threads, attempts, miningNanos / 1e9, formatRate(attempts, miningNanos));
+            }
+        }
+
+        private void finishMining(long winningNonce, long hashCount, long nanos) {
+            if (winningNonce < 0) {
                 throw new IllegalStateException("Nonce range exhausted");
-            } finally {
-                mining[0] = false;
+            }
+
+            miningNanos = nanos;
+            attempts = hashCount;
+            nonce = winningNonce;
+            writeLong(header, NONCE_OFFSET, nonce);
+            hash = toHex(Sha256.hash(header));
+        }
 
-                try {
-                    progress.join();
-                } catch (InterruptedException ignored) {
-                    Thread.currentThread().interrupt();
+        // Changes a transaction after mining (e.g. to demonstrate tampering). The tree
+        // is updated along one path; merkleRoot keeps the mined value.
+        void replaceTransaction(int transactionIndex, String transaction) {
+            if (transaction == null) throw new IllegalArgumentException("Transaction cannot be null");
+
+            tree.update(transactionIndex, transaction);
+            transactions[transactionIndex] = transaction;
+        }
+
+        // The per-block half of validation, from the block's current fields only: the
+        // root recomputed from the transactions matches merkleRoot, the header rebuilt
+        // from index, previous hash, merkle root, timestamp, difficulty and nonce hashes
+        // to hash, and that hash meets the target. Links between blocks are checked
+        // separately. The incremental tree serves mining and proofs only.
+        boolean isSelfConsistent(int chainDifficultyBits, Sha256 hasher, byte[] scratch) {
+            if (hash == null || difficultyBits != chainDifficultyBits) return false;
+            if (!merkleRoot.equals(toHex(MerkleTree.rootOf(transactions, hasher)))) return false;
+
+            hashCurrentHeader(hasher, scratch);
+            return hash.equals(toHex(scratch)) && hasLeadingZeroBits(scratch, difficultyBits);
+        }
+
+        private void hashCurrentHeader(Sha256 hasher, byte[] out) {
+            byte[] current = headerBytes();
+            writeLong(current, NONCE_OFFSET, nonce);
+            hasher.update(current).digest(out, 0);
+        }
+
+        // Header with a zero nonce; miners fill in the last eight bytes.
+        byte[] headerBytes() {
+            byte[] header = new byte[HEADER_LENGTH];
+            writeInt(header, 0, index);
+            copyInto(fromHex(previousHash), header, 4);
+            copyInto(fromHex(merkleRoot), header, 36);
+            writeLong(header, 68, timestamp);
+            writeInt(header, 76, difficultyBits);
+            return header;
+        }
+    }
+
+    // Claims chunks of nonces until one meets the target or another worker wins.
+    private static final class MinerWorker implements Runnable {
+        private final byte[] header;
+        private final int difficultyBits;
+        private final AtomicLong nextNonce;
+        private final AtomicLong hashes;
+        private final AtomicLong winner;
+
+        MinerWorker(byte[] header, int difficultyBits, AtomicLong nextNonce,
+                    AtomicLong hashes, AtomicLong winner) {
+            this.header = header;
+            this.difficultyBits = difficultyBits;
+            this.nextNonce = nextNonce;
+            this.hashes = hashes;
+            this.winner = winner;
+        }
+
+        public void run() {
+            Sha256 prefix = new Sha256().update(header, 0, Block.NONCE_OFFSET);
+            Sha256 work = new Sha256();
+            byte[] nonceBytes = new byte[8];
+            byte[] digest = new byte[32];
+
+            while (winner.get() == -1) {
+                long first = nextNonce.getAndAdd(Block.NONCE_CHUNK);
+                if (first < 0) return; // wrapped past Long.MAX_VALUE
+
+                long last = first + Block.NONCE_CHUNK;
+                if (last < 0) last = Long.MAX_VALUE;
+
+                for (long candidate = first; candidate < last; candidate++) {
+                    writeLong(nonceBytes, 0, candidate);
+                    work.copyFrom(prefix).update(nonceBytes, 0, 8).digest(digest, 0);
+
+                    if (hasLeadingZeroBits(digest, difficultyBits)) {
+                        hashes.addAndGet(candidate - first + 1);
+                        winner.compareAndSet(-1, candidate);
+                        return;
+                    }
                 }
 
-                System.out.println();
+                hashes.addAndGet(last - first);
             }
         }
+    }
 
-        String calculateHash() {
-            String header = index + "|" + previousHash + "|" + merkleRoot
-                    + "|" + timestamp + "|" + nonce;
-            return toHex(Sha256.hash(ascii(header)));
+    // Equivalent to hash < 2^(256 - bits) as an unsigned integer, without BigInteger.
+    static boolean hasLeadingZeroBits(byte[] hash, int bits) {
+        int fullBytes = bits >>> 3;
+
+        for (int i = 0; i < fullBytes; i++) {
+            if (hash[i] != 0) return false;
+        }
+
+        int rest = bits & 7;
+        return rest == 0 || ((hash[fullBytes] & 0xFF) >>> (8 - rest)) == 0;
+    }
+
+    private static String formatRate(long hashes, long nanos) {
+        double perSecond = hashes / Math.max(1e-9, nanos / 1e9);
+        if (perSecond >= 1e6) return String.format("%.2f MH/s", perSecond / 1e6);
+        if (perSecond >= 1e3) return String.format("%.1f kH/s", perSecond / 1e3);
+        return String.format("%.0f H/s", perSecond);
+    }
+
+    // =================================================================
+    // Parallel helpers
+    // =================================================================
+
+    // Below this many items (Merkle nodes, blocks) work stays on the calling thread.
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int PARALLEL_CHUNK = 1 << 11;
+
+    private interface RangeBody {
+        void run(Sha256 hasher, int from, int to);
+    }
+
+    private static void forRange(int count, RangeBody body) {
+        if (count < PARALLEL_THRESHOLD) {
+            body.run(new Sha256(), 0, count);
+        } else {
+            ForkJoinPool.commonPool().invoke(new RangeTask(body, 0, count));
+        }
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeBody body;
+        private final int from;
+        private final int to;
+
+        RangeTask(RangeBody body, int from, int to) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                body.run(new Sha256(), from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(body, from, middle), new RangeTask(body, middle, to));
         }
     }
 
@@ -507,27 +1197,6 @@ public final class Sha256MerkleBlockchain {
         return result;
     }
 
-    private static byte[] concatenate(byte[] first, byte[] second) {
-        byte[] result = new byte[first.length + second.length];
-
-        for (int i = 0; i < first.length; i++) result[i] = first[i];
-        for (int i = 0; i < second.length; i++) result[first.length + i] = second[i];
-
-        return result;
-    }
-
-    private static byte[] copyBytes(byte[] source) {
-        byte[] result = new byte[source.length];
-        for (int i = 0; i < source.length; i++) result[i] = source[i];
-        return result;
-    }
-
-    private static int[] copyIntArray(int[] source) {
-        int[] result = new int[source.length];
-        for (int i = 0; i < source.length; i++) result[i] = source[i];
-        return result;
-    }
-
     private static String[] copyStrings(String[] source) {
         String[] result = new String[source.length];
         for (int i = 0; i < source.length; i++) {
@@ -580,6 +1249,18 @@ public final class Sha256MerkleBlockchain {
         return result;
     }
 
+    private static void writeInt(byte[] target, int offset, int value) {
+        for (int i = 0; i < 4; i++) target[offset + i] = (byte) (value >>> (24 - i * 8));
+    }
+
+    private static void writeLong(byte[] target, int offset, long value) {
+        for (int i = 0; i < 8; i++) target[offset + i] = (byte) (value >>> (56 - i * 8));
+    }
+
+    private static void copyInto(byte[] source, byte[] target, int offset) {
+        for (int i = 0; i < source.length; i++) target[offset + i] = source[i];
+    }
+
     private static String zeros(int count) {
         char[] result = new char[count];
         for (int i = 0; i < count; i++) result[i] = '0';
@@ -1,8 +1,22 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /*
  * Stateful firewall rule-engine simulator.
@@ -15,11 +29,55 @@ import java.util.Map;
  * - Connection states: SYN, SYN-ACK, ACK, FIN, RST
  * - ALLOW/DENY rules by CIDR, port range, protocol, direction
  * - Stateful return-traffic handling
- * - Per-source sliding-window rate limiting
- * - Structured audit log
+ * - Per-source rate limiting (sliding-window log, sliding-window counter,
+ *   or token bucket)
+ * - Fixed-width binary audit ring with optional memory-mapped spill files
+ * - Compiled rule classifier (protocol/direction buckets, port-range
+ *   interval index, CIDR prefix tries) with first-match semantics
+ *
+ * - Per-state idle timeouts expired through a hierarchical timer wheel
+ * - Sharded multi-core pipeline fed through bounded SPSC ring buffers
+ *
+ * Run with --benchmark-rules [rules] [packets] to compare the linear and
+ * compiled rule lookup paths on synthetic traffic, or with
+ * --syn-flood [packets] [audit-dir] to watch idle expiry bound the state
+ * tables (optionally spilling the audit ring to disk), or
+ * with --benchmark-shards [packets] to measure throughput at 1-8 shards,
+ * or with --benchmark-rate-limiters [sources] to compare the rate-limit
+ * strategies' memory and throughput. --read-audit <dir> [--allow|--deny]
+ * [--source <cidr>] [--reason <code>] decodes spilled audit segments.
  */
 public final class StatefulFirewallSimulator {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 0 && args[0].equals("--benchmark-rules")) {
+            int ruleCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int packetCount = args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000;
+            benchmarkRuleLookup(ruleCount, packetCount);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--benchmark-shards")) {
+            benchmarkShards(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--benchmark-rate-limiters")) {
+            benchmarkRateLimiters(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--read-audit")) {
+            readAuditLog(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--syn-flood")) {
+            simulateSynFlood(
+                    args.length > 1 ? Integer.parseInt(args[1]) : 200_000,
+                    args.length > 2 ? Paths.get(args[2]) : null);
+            return;
+        }
+
         Firewall firewall = new Firewall(
                 3,      // maximum packets per source
                 1000L   // per 1,000 ms sliding window
@@ -103,291 +161,2145 @@ public final class StatefulFirewallSimulator {
                     true, false, false, false, false, time += 100));
         }
 
-        System.out.println("\nStructured audit log:");
-        firewall.printAuditLog();
-    }
+        System.out.println("\nStructured audit log:");
+        firewall.printAuditLog();
+    }
+
+    private static void process(Firewall firewall, Packet packet) {
+        Decision decision = firewall.process(packet);
+
+        System.out.println(packet.summary());
+        System.out.println("  Decision: " + decision.allowed
+                + " | reason=" + decision.reason
+                + " | state=" + decision.connectionState);
+    }
+
+    // ================================================================
+    // Rule lookup benchmark
+    // ================================================================
+
+    private static void benchmarkRuleLookup(int ruleCount, int packetCount) {
+        Random random = new Random(42);
+        Firewall firewall = new Firewall(Integer.MAX_VALUE, 1000L);
+        Protocol[] protocols = Protocol.values();
+        Direction[] directions = Direction.values();
+
+        for (int i = 0; i < ruleCount - 1; i++) {
+            int prefixLength = 8 + random.nextInt(25);
+            int sourcePort = random.nextInt(65536);
+            int destinationPort = random.nextInt(65536);
+
+            firewall.addRule(new FirewallRule(
+                    "synthetic-" + i,
+                    random.nextBoolean() ? Action.ALLOW : Action.DENY,
+                    directions[random.nextInt(directions.length)],
+                    protocols[random.nextInt(protocols.length)],
+                    longToIpv4(0x0A000000L | random.nextInt(1 << 24)) + "/" + prefixLength,
+                    longToIpv4(random.nextInt() & 0xFFFFFFFFL) + "/" + random.nextInt(17),
+                    sourcePort, Math.min(65535, sourcePort + random.nextInt(4096)),
+                    destinationPort, Math.min(65535, destinationPort + random.nextInt(256))
+            ));
+        }
+
+        firewall.addRule(new FirewallRule(
+                "Deny all other traffic",
+                Action.DENY,
+                Direction.ANY,
+                Protocol.ANY,
+                "0.0.0.0/0",
+                "0.0.0.0/0",
+                1, 65535,
+                1, 65535
+        ));
+
+        // A fixed pool of synthetic packets is cycled so the benchmark
+        // measures lookup cost rather than packet construction.
+        Packet[] pool = new Packet[1 << 16];
+
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new Packet(
+                    longToIpv4(0x0A000000L | random.nextInt(1 << 24)),
+                    longToIpv4(random.nextInt() & 0xFFFFFFFFL),
+                    1 + random.nextInt(65535), 1 + random.nextInt(65535),
+                    random.nextBoolean() ? Protocol.TCP : Protocol.UDP,
+                    random.nextBoolean() ? Direction.INBOUND : Direction.OUTBOUND,
+                    true, false, false, false, false, i);
+        }
+
+        long compileStart = System.nanoTime();
+        RuleClassifier classifier = new RuleClassifier(firewall.rules);
+        long compileNanos = System.nanoTime() - compileStart;
+
+        for (int i = 0; i < pool.length; i++) {
+            if (classifier.findFirstMatchingRule(pool[i])
+                    != firewall.findFirstMatchingRuleLinear(pool[i])) {
+                throw new IllegalStateException(
+                        "Compiled and linear lookup disagree: " + pool[i].summary());
+            }
+        }
+
+        long linearChecksum = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < packetCount; i++) {
+            FirewallRule rule = firewall.findFirstMatchingRuleLinear(
+                    pool[i & (pool.length - 1)]);
+            linearChecksum += rule == null ? 0 : rule.destinationPortStart;
+        }
+
+        long linearNanos = System.nanoTime() - start;
+
+        long compiledChecksum = 0;
+        start = System.nanoTime();
+
+        for (int i = 0; i < packetCount; i++) {
+            FirewallRule rule = classifier.findFirstMatchingRule(
+                    pool[i & (pool.length - 1)]);
+            compiledChecksum += rule == null ? 0 : rule.destinationPortStart;
+        }
+
+        long compiledNanos = System.nanoTime() - start;
+
+        if (linearChecksum != compiledChecksum) {
+            throw new IllegalStateException("Benchmark checksums differ");
+        }
+
+        System.out.println("Firewall rule lookup benchmark:");
+        System.out.println("  Rules          : " + ruleCount);
+        System.out.println("  Packets        : " + packetCount);
+        System.out.printf("  Compile time   : %.2f ms%n", compileNanos / 1_000_000.0);
+        printLookupRate("  Linear path    : ", packetCount, linearNanos);
+        printLookupRate("  Compiled path  : ", packetCount, compiledNanos);
+        System.out.printf("  Speed-up       : %.1fx%n",
+                (double) linearNanos / Math.max(1L, compiledNanos));
+    }
+
+    private static void printLookupRate(String label, int packets, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("%s%.2f ms, %.0f packets/s%n",
+                label, nanos / 1_000_000.0, packets / seconds);
+    }
+
+    // ================================================================
+    // SYN flood simulation
+    // ================================================================
+
+    private static void simulateSynFlood(int packetCount, Path auditDirectory)
+            throws InterruptedException, IOException {
+        Firewall firewall = new Firewall(100, 1000L);
+
+        if (auditDirectory != null) {
+            firewall.spillAuditTo(auditDirectory, "syn-flood");
+        }
+
+        firewall.addRule(new FirewallRule(
+                "Allow inbound HTTP",
+                Action.ALLOW,
+                Direction.INBOUND,
+                Protocol.TCP,
+                "0.0.0.0/0",
+                "10.0.0.10/32",
+                1, 65535,
+                80, 80
+        ));
+
+        Random random = new Random(7);
+        long time = 1_000_000L;
+        int peakConnections = 0;
+        int peakRateCounters = 0;
+
+        // One spoofed SYN per millisecond that never completes the
+        // handshake, each from a random source address and port.
+        for (int i = 0; i < packetCount; i++) {
+            firewall.process(new Packet(
+                    longToIpv4(random.nextInt() & 0xFFFFFFFFL), "10.0.0.10",
+                    1024 + random.nextInt(64_000), 80,
+                    Protocol.TCP, Direction.INBOUND,
+                    true, false, false, false, false, time++));
+
+            peakConnections = Math.max(peakConnections, firewall.activeConnections());
+            peakRateCounters = Math.max(peakRateCounters, firewall.activeRateCounters());
+        }
+
+        System.out.println("SYN flood simulation:");
+        System.out.println("  SYN packets          : " + packetCount);
+        System.out.println("  Peak connections     : " + peakConnections);
+        System.out.println("  Peak rate counters   : " + peakRateCounters);
+        System.out.println("  Active connections   : " + firewall.activeConnections());
+        System.out.println("  Active rate counters : " + firewall.activeRateCounters());
+
+        for (ConnectionState state : ConnectionState.values()) {
+            if (state != ConnectionState.CLOSED) {
+                System.out.printf("  Evicted %-12s : %d%n",
+                        state, firewall.evictedConnections(state));
+            }
+        }
+
+        System.out.println("  Evicted rate counters: " + firewall.evictedRateCounters());
+
+        firewall.closeAudit();
+        System.out.println("  Dropped audit records: " + firewall.droppedAuditRecords());
+    }
+
+    // ================================================================
+    // Sharded pipeline benchmark
+    // ================================================================
+
+    private static void benchmarkShards(int packetCount) throws InterruptedException {
+        Packet[] traffic = synthesizeFlows(packetCount, new Random(11));
+
+        System.out.println("Sharded firewall benchmark:");
+        System.out.println("  Packets : " + traffic.length);
+        System.out.println("  Cores   : " + Runtime.getRuntime().availableProcessors());
+
+        long baseline = 0;
+
+        // The first pass at one shard only warms up the JIT.
+        for (int shards = 0; shards <= 8; shards = Math.max(1, shards * 2)) {
+            ShardedFirewall firewall = new ShardedFirewall(
+                    Math.max(1, shards), 1_000, 1000L,
+                    RateLimitStrategy.TOKEN_BUCKET, IdleTimeouts.DEFAULT, 1 << 14);
+            addBenchmarkRules(firewall);
+            firewall.start();
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < traffic.length; i++) {
+                firewall.submit(traffic[i]);
+            }
+
+            firewall.shutdown();
+            long elapsed = System.nanoTime() - start;
+
+            if (shards == 0) {
+                continue;
+            }
+
+            if (shards == 1) {
+                baseline = elapsed;
+            }
+
+            System.out.printf(
+                    "  %d shard(s): %8.2f ms, %,12.0f packets/s, %.2fx, allowed=%d denied=%d%n",
+                    shards,
+                    elapsed / 1_000_000.0,
+                    traffic.length / (elapsed / 1_000_000_000.0),
+                    (double) baseline / elapsed,
+                    firewall.allowedCount(),
+                    firewall.deniedCount());
+        }
+    }
+
+    private static void addBenchmarkRules(ShardedFirewall firewall) {
+        firewall.addRule(new FirewallRule(
+                "Allow outbound HTTPS",
+                Action.ALLOW,
+                Direction.OUTBOUND,
+                Protocol.TCP,
+                "10.0.0.0/8",
+                "0.0.0.0/0",
+                1, 65535,
+                443, 443
+        ));
+
+        firewall.addRule(new FirewallRule(
+                "Allow outbound DNS",
+                Action.ALLOW,
+                Direction.OUTBOUND,
+                Protocol.UDP,
+                "10.0.0.0/8",
+                "0.0.0.0/0",
+                1, 65535,
+                53, 53
+        ));
+
+        firewall.addRule(new FirewallRule(
+                "Deny all other traffic",
+                Action.DENY,
+                Direction.ANY,
+                Protocol.ANY,
+                "0.0.0.0/0",
+                "0.0.0.0/0",
+                1, 65535,
+                1, 65535
+        ));
+    }
+
+    /*
+     * Builds interleaved TCP flows (handshake, data, FIN exchange) and
+     * UDP datagrams. Packets of one flow appear in order, so per-flow
+     * ordering guarantees are visible in the allow/deny counts.
+     */
+    private static Packet[] synthesizeFlows(int packetCount, Random random) {
+        Packet[] packets = new Packet[packetCount];
+        String[] clients = new String[4096];
+        String[] servers = new String[4096];
+
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = longToIpv4(0x0A000000L | random.nextInt(1 << 24));
+            servers[i] = longToIpv4(random.nextInt() & 0xFFFFFFFFL);
+        }
+
+        long time = 1_000_000L;
+        int count = 0;
+        int port = 1024;
+
+        while (count < packetCount) {
+            String client = clients[random.nextInt(clients.length)];
+            String server = servers[random.nextInt(servers.length)];
+            port = port == 65535 ? 1024 : port + 1;
+
+            if (random.nextInt(4) == 0) {
+                packets[count++] = new Packet(client, server, port, 53,
+                        Protocol.UDP, Direction.OUTBOUND,
+                        false, false, false, false, false, time++);
+                continue;
+            }
+
+            Packet[] flow = {
+                    new Packet(client, server, port, 443, Protocol.TCP, Direction.OUTBOUND,
+                            true, false, false, false, false, time++),
+                    new Packet(server, client, 443, port, Protocol.TCP, Direction.INBOUND,
+                            true, true, false, false, false, time++),
+                    new Packet(client, server, port, 443, Protocol.TCP, Direction.OUTBOUND,
+                            false, true, false, false, false, time++),
+                    new Packet(client, server, port, 443, Protocol.TCP, Direction.OUTBOUND,
+                            false, true, false, false, true, time++),
+                    new Packet(server, client, 443, port, Protocol.TCP, Direction.INBOUND,
+                            false, true, false, false, true, time++),
+                    new Packet(client, server, port, 443, Protocol.TCP, Direction.OUTBOUND,
+                            false, true, true, false, false, time++),
+                    new Packet(server, client, 443, port, Protocol.TCP, Direction.INBOUND,
+                            false, true, true, false, false, time++)
+            };
+
+            for (int i = 0; i < flow.length && count < packetCount; i++) {
+                packets[count++] = flow[i];
+            }
+        }
+
+        return packets;
+    }
+
+    // ================================================================
+    // Rate limiter benchmark
+    // ================================================================
+
+    private static void benchmarkRateLimiters(int sourceCount) {
+        int maximumEvents = 100;
+        long windowMillis = 1000L;
+        int calls = 10_000_000;
+
+        System.out.println("Rate limiter benchmark:");
+        System.out.println("  Sources : " + sourceCount);
+        System.out.println("  Limit   : " + maximumEvents + " per " + windowMillis + " ms");
+
+        for (RateLimitStrategy strategy : RateLimitStrategy.values()) {
+            long before = usedHeap();
+            RateLimiter[] limiters = new RateLimiter[sourceCount];
+
+            for (int i = 0; i < sourceCount; i++) {
+                limiters[i] = strategy.create(maximumEvents, windowMillis);
+            }
+
+            // Every source sends a short burst inside one window, which is
+            // what fills the timestamp log.
+            long now = 1_000_000L;
+
+            for (int burst = 0; burst < 16; burst++) {
+                for (int i = 0; i < sourceCount; i++) {
+                    limiters[i].allow(now);
+                }
+
+                now++;
+            }
+
+            long retained = usedHeap() - before;
+
+            Random random = new Random(5);
+            long allowed = 0;
+            long start = System.nanoTime();
+
+            for (int i = 0; i < calls; i++) {
+                if (limiters[random.nextInt(sourceCount)].allow(now + (i >>> 10))) {
+                    allowed++;
+                }
+            }
+
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("  %-22s: %7.1f MiB retained (%5.1f B/source), "
+                            + "%,12.0f calls/s, allowed=%d%n",
+                    strategy,
+                    retained / 1024.0 / 1024.0,
+                    (double) retained / sourceCount,
+                    calls / (elapsed / 1_000_000_000.0),
+                    allowed);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static String longToIpv4(long address) {
+        return ((address >>> 24) & 0xFF) + "."
+                + ((address >>> 16) & 0xFF) + "."
+                + ((address >>> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+
+    // ================================================================
+    // Firewall engine
+    // ================================================================
+
+    static final class Firewall {
+        private final List<FirewallRule> rules = new ArrayList<FirewallRule>();
+        private final ConnectionTable connections = new ConnectionTable(1024);
+        private final Map<String, RateLimiter> rateCounters =
+                new HashMap<String, RateLimiter>();
+        private final AuditRing auditLog = new AuditRing(AuditRing.DEFAULT_CAPACITY);
+        private AuditSpiller auditSpiller;
+        private RuleClassifier classifier;
+
+        private final int rateLimit;
+        private final long rateWindowMillis;
+        private final RateLimitStrategy rateLimitStrategy;
+        private final IdleTimeouts idleTimeouts;
+
+        private final TimerWheel connectionTimers = new TimerWheel(TIMER_TICK_MILLIS);
+        private final TimerWheel rateCounterTimers = new TimerWheel(TIMER_TICK_MILLIS);
+        private RateLimiter[] countersByHandle = new RateLimiter[16];
+        private String[] sourcesByHandle = new String[16];
+        private int[] freeCounterHandles = new int[16];
+        private int freeCounterCount;
+        private int counterHighWater;
+
+        private final long[] evictedConnections =
+                new long[ConnectionState.values().length];
+        private long evictedRateCounters;
+
+        private final TimerWheel.Expiry connectionExpiry = new TimerWheel.Expiry() {
+            @Override
+            public void onTimer(int handle, long nowMillis) {
+                expireConnection(handle, nowMillis);
+            }
+        };
+
+        private final TimerWheel.Expiry rateCounterExpiry = new TimerWheel.Expiry() {
+            @Override
+            public void onTimer(int handle, long nowMillis) {
+                expireRateCounter(handle, nowMillis);
+            }
+        };
+
+        Firewall(int rateLimit, long rateWindowMillis) {
+            this(rateLimit, rateWindowMillis,
+                    RateLimitStrategy.SLIDING_WINDOW_LOG, IdleTimeouts.DEFAULT);
+        }
+
+        Firewall(int rateLimit, long rateWindowMillis,
+                 RateLimitStrategy rateLimitStrategy, IdleTimeouts idleTimeouts) {
+            this.rateLimit = rateLimit;
+            this.rateWindowMillis = rateWindowMillis;
+            this.rateLimitStrategy = rateLimitStrategy;
+            this.idleTimeouts = idleTimeouts;
+        }
+
+        void addRule(FirewallRule rule) {
+            rules.add(rule);
+            classifier = null;
+        }
+
+        void shareClassifier(RuleClassifier compiled) {
+            classifier = compiled;
+        }
+
+        Decision process(Packet packet) {
+            expireIdle(packet.timestampMillis);
+
+            if (!allowByRateLimit(packet)) {
+                return deny(packet, ReasonCode.RATE_LIMIT_EXCEEDED, null);
+            }
+
+            int existing = connections.find(packet);
+
+            if (existing >= 0 && packet.protocol == Protocol.TCP) {
+                connections.touch(existing, packet.timestampMillis);
+                return processExistingTcpConnection(packet, existing);
+            }
+
+            int ruleIndex = findFirstMatchingRule(packet);
+
+            if (ruleIndex < 0) {
+                return deny(packet, ReasonCode.NO_MATCHING_RULE, null);
+            }
+
+            FirewallRule matchedRule = rules.get(ruleIndex);
+
+            if (matchedRule.action == Action.DENY) {
+                return decide(false, packet, ReasonCode.RULE_DENY,
+                        ruleIndex, matchedRule.decisionReason, null);
+            }
+
+            if (packet.protocol == Protocol.TCP) {
+                if (!packet.syn || packet.ack) {
+                    return deny(packet, ReasonCode.NEW_TCP_CONNECTION_REQUIRES_SYN, null);
+                }
+
+                int connection = connections.insert(packet, ConnectionState.SYN_SENT);
+                connectionTimers.schedule(connection,
+                        packet.timestampMillis + idleTimeouts.synSentMillis);
+
+                return decide(true, packet, ReasonCode.RULE_ALLOW,
+                        ruleIndex, matchedRule.decisionReason, ConnectionState.SYN_SENT);
+            }
+
+            return decide(true, packet, ReasonCode.RULE_ALLOW,
+                    ruleIndex, matchedRule.decisionReason, null);
+        }
+
+        private Decision processExistingTcpConnection(
+                Packet packet, int connection) {
+
+            if (packet.rst) {
+                removeConnection(connection);
+                return allow(packet, ReasonCode.TCP_RESET, ConnectionState.CLOSED);
+            }
+
+            boolean forward = connections.isForward(connection, packet);
+            boolean reverse = connections.isReverse(connection, packet);
+
+            ConnectionState state = connections.state(connection);
+
+            if (!forward && !reverse) {
+                return deny(packet, ReasonCode.CONNECTION_DIRECTION_MISMATCH, state);
+            }
+
+            if (state == ConnectionState.SYN_SENT) {
+                if (reverse && packet.syn && packet.ack) {
+                    setConnectionState(connection, ConnectionState.SYN_RECEIVED);
+                    return allow(packet, ReasonCode.STATEFUL_SYN_ACK_ALLOWED,
+                            ConnectionState.SYN_RECEIVED);
+                }
+
+                return deny(packet, ReasonCode.EXPECTED_SYN_ACK, state);
+            }
+
+            if (state == ConnectionState.SYN_RECEIVED) {
+                if (forward && packet.ack && !packet.syn) {
+                    setConnectionState(connection, ConnectionState.ESTABLISHED);
+                    return allow(packet, ReasonCode.STATEFUL_HANDSHAKE_COMPLETE,
+                            ConnectionState.ESTABLISHED);
+                }
+
+                return deny(packet, ReasonCode.EXPECTED_FINAL_ACK, state);
+            }
+
+            if (state == ConnectionState.ESTABLISHED) {
+                if (packet.fin) {
+                    setConnectionState(connection, ConnectionState.FIN_WAIT);
+                    return allow(packet, ReasonCode.STATEFUL_FIN_ALLOWED,
+                            ConnectionState.FIN_WAIT);
+                }
+
+                return allow(packet, ReasonCode.STATEFUL_ESTABLISHED_CONNECTION, state);
+            }
+
+            if (state == ConnectionState.FIN_WAIT) {
+                if (packet.fin || packet.ack) {
+                    removeConnection(connection);
+                    return allow(packet, ReasonCode.STATEFUL_CONNECTION_CLOSED,
+                            ConnectionState.CLOSED);
+                }
+
+                return deny(packet, ReasonCode.CONNECTION_CLOSING, state);
+            }
+
+            return deny(packet, ReasonCode.CONNECTION_ALREADY_CLOSED, state);
+        }
+
+        private void setConnectionState(int connection, ConnectionState state) {
+            connections.setState(connection, state);
+            connectionTimers.schedule(connection,
+                    connections.lastSeenMillis(connection) + idleTimeouts.forState(state));
+        }
+
+        private void removeConnection(int connection) {
+            connectionTimers.cancel(connection);
+            connections.remove(connection);
+        }
+
+        private boolean allowByRateLimit(Packet packet) {
+            RateLimiter counter = rateCounters.get(packet.sourceIp);
+
+            if (counter == null) {
+                int handle = freeCounterCount > 0
+                        ? freeCounterHandles[--freeCounterCount]
+                        : counterHighWater++;
+
+                if (handle == countersByHandle.length) {
+                    countersByHandle = Arrays.copyOf(countersByHandle, handle * 2);
+                    sourcesByHandle = Arrays.copyOf(sourcesByHandle, handle * 2);
+                    freeCounterHandles = Arrays.copyOf(freeCounterHandles, handle * 2);
+                }
+
+                counter = rateLimitStrategy.create(rateLimit, rateWindowMillis);
+                countersByHandle[handle] = counter;
+                sourcesByHandle[handle] = packet.sourceIp;
+                rateCounters.put(packet.sourceIp, counter);
+
+                boolean allowed = counter.allow(packet.timestampMillis);
+                rateCounterTimers.schedule(handle, counter.idleAfterMillis());
+                return allowed;
+            }
+
+            return counter.allow(packet.timestampMillis);
+        }
+
+        /*
+         * Timers are not moved on every packet. When one fires, the entry's
+         * real deadline is recomputed from its last-seen time and current
+         * state, and the timer is re-armed if the entry is still live.
+         */
+        void expireIdle(long nowMillis) {
+            connectionTimers.advance(nowMillis, connectionExpiry);
+            rateCounterTimers.advance(nowMillis, rateCounterExpiry);
+        }
+
+        private void expireConnection(int connection, long nowMillis) {
+            ConnectionState state = connections.state(connection);
+            long deadline = connections.lastSeenMillis(connection)
+                    + idleTimeouts.forState(state);
+
+            if (deadline > nowMillis) {
+                connectionTimers.schedule(connection, deadline);
+                return;
+            }
+
+            connections.remove(connection);
+            evictedConnections[state.ordinal()]++;
+        }
+
+        private void expireRateCounter(int handle, long nowMillis) {
+            long deadline = countersByHandle[handle].idleAfterMillis();
+
+            if (deadline > nowMillis) {
+                rateCounterTimers.schedule(handle, deadline);
+                return;
+            }
+
+            rateCounters.remove(sourcesByHandle[handle]);
+            countersByHandle[handle] = null;
+            sourcesByHandle[handle] = null;
+            freeCounterHandles[freeCounterCount++] = handle;
+            evictedRateCounters++;
+        }
+
+        int activeConnections() {
+            return connections.size();
+        }
+
+        int activeRateCounters() {
+            return rateCounters.size();
+        }
+
+        long evictedConnections(ConnectionState state) {
+            return evictedConnections[state.ordinal()];
+        }
+
+        long evictedRateCounters() {
+            return evictedRateCounters;
+        }
+
+        private int findFirstMatchingRule(Packet packet) {
+            if (classifier == null) {
+                classifier = new RuleClassifier(rules);
+            }
+
+            return classifier.firstMatchingIndex(packet);
+        }
+
+        FirewallRule findFirstMatchingRuleLinear(Packet packet) {
+            for (int i = 0; i < rules.size(); i++) {
+                FirewallRule rule = rules.get(i);
+
+                if (rule.matches(packet)) {
+                    return rule;
+                }
+            }
+
+            return null;
+        }
+
+        private Decision allow(Packet packet, ReasonCode reason,
+                               ConnectionState state) {
+            return decide(true, packet, reason, -1, reason.name(), state);
+        }
+
+        private Decision deny(Packet packet, ReasonCode reason,
+                              ConnectionState state) {
+            return decide(false, packet, reason, -1, reason.name(), state);
+        }
+
+        private Decision decide(boolean allowed, Packet packet, ReasonCode reason,
+                                int ruleIndex, String reasonText,
+                                ConnectionState state) {
+            auditLog.append(packet, allowed, reason, ruleIndex, state);
+            return new Decision(allowed, reasonText, state);
+        }
+
+        /*
+         * Starts a background thread that drains the audit ring into
+         * memory-mapped segment files. Records that arrive while the ring
+         * is full are dropped and counted instead of blocking packets.
+         */
+        void spillAuditTo(Path directory, String filePrefix) throws IOException {
+            auditSpiller = new AuditSpiller(auditLog, directory, filePrefix,
+                    AuditSpiller.DEFAULT_SEGMENT_RECORDS);
+            auditSpiller.start();
+        }
+
+        void closeAudit() throws InterruptedException, IOException {
+            if (auditSpiller != null) {
+                auditSpiller.close();
+                auditSpiller = null;
+            }
+        }
+
+        long droppedAuditRecords() {
+            return auditLog.dropped();
+        }
+
+        void printAuditLog() {
+            printAuditRecords(auditLog.snapshot(), rules);
+        }
+    }
+
+    // ================================================================
+    // Sharded multi-core pipeline
+    // ================================================================
+
+    /*
+     * Runs one Firewall per worker thread. A single producer hashes each
+     * packet's symmetric 5-tuple to a shard, so both directions of a flow
+     * land on the same shard and are processed in arrival order. Shards
+     * share only the immutable rule classifier; connection tables, rate
+     * counters, timer wheels and audit logs are confined to their thread.
+     *
+     * Rate limits are enforced per shard: a source whose flows hash to
+     * several shards gets the configured budget on each of them.
+     */
+    static final class ShardedFirewall {
+        private final List<FirewallRule> rules = new ArrayList<FirewallRule>();
+        private final Shard[] shards;
+        private final int rateLimit;
+        private final long rateWindowMillis;
+        private final RateLimitStrategy rateLimitStrategy;
+        private final IdleTimeouts idleTimeouts;
+        private final int ringCapacity;
+        private boolean started;
+
+        ShardedFirewall(int shardCount, int rateLimit, long rateWindowMillis,
+                        RateLimitStrategy rateLimitStrategy,
+                        IdleTimeouts idleTimeouts, int ringCapacity) {
+            if (shardCount < 1) {
+                throw new IllegalArgumentException("At least one shard is required");
+            }
+
+            this.shards = new Shard[shardCount];
+            this.rateLimit = rateLimit;
+            this.rateWindowMillis = rateWindowMillis;
+            this.rateLimitStrategy = rateLimitStrategy;
+            this.idleTimeouts = idleTimeouts;
+            this.ringCapacity = ringCapacity;
+        }
+
+        void addRule(FirewallRule rule) {
+            if (started) {
+                throw new IllegalStateException("Rules must be added before start()");
+            }
+
+            rules.add(rule);
+        }
+
+        void start() {
+            RuleClassifier classifier = new RuleClassifier(rules);
+
+            for (int i = 0; i < shards.length; i++) {
+                Firewall firewall = new Firewall(
+                        rateLimit, rateWindowMillis, rateLimitStrategy, idleTimeouts);
+
+                for (int r = 0; r < rules.size(); r++) {
+                    firewall.addRule(rules.get(r));
+                }
+
+                firewall.shareClassifier(classifier);
+                shards[i] = new Shard(firewall, new PacketRing(ringCapacity));
+                shards[i].thread = new Thread(shards[i], "firewall-shard-" + i);
+                shards[i].thread.start();
+            }
+
+            started = true;
+        }
+
+        /*
+         * Must be called from a single producer thread. Blocks by yielding
+         * while the target shard's ring is full.
+         */
+        void submit(Packet packet) {
+            Shard shard = shards[shardFor(packet)];
+
+            while (!shard.ring.offer(packet)) {
+                Thread.yield();
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            for (Shard shard : shards) {
+                shard.closed = true;
+            }
+
+            for (Shard shard : shards) {
+                shard.thread.join();
+            }
+        }
+
+        long allowedCount() {
+            long total = 0;
+
+            for (Shard shard : shards) {
+                total += shard.allowed;
+            }
+
+            return total;
+        }
+
+        long deniedCount() {
+            long total = 0;
+
+            for (Shard shard : shards) {
+                total += shard.denied;
+            }
+
+            return total;
+        }
+
+        Firewall shard(int index) {
+            return shards[index].firewall;
+        }
+
+        int shardFor(Packet packet) {
+            int hash = ConnectionTable.hash(
+                    packet.sourceAddress, (char) packet.sourcePort,
+                    packet.destinationAddress, (char) packet.destinationPort,
+                    (byte) packet.protocol.ordinal());
+
+            // Use the high bits: the low bits pick slots inside each
+            // shard's connection table.
+            return (int) (((hash & 0xFFFFFFFFL) * shards.length) >>> 32);
+        }
+    }
+
+    static final class Shard implements Runnable {
+        final Firewall firewall;
+        final PacketRing ring;
+        Thread thread;
+        volatile boolean closed;
+        long allowed;
+        long denied;
+
+        Shard(Firewall firewall, PacketRing ring) {
+            this.firewall = firewall;
+            this.ring = ring;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Packet packet = ring.poll();
+
+                if (packet == null) {
+                    if (closed && ring.isEmpty()) {
+                        return;
+                    }
+
+                    Thread.yield();
+                    continue;
+                }
+
+                if (firewall.process(packet).allowed) {
+                    allowed++;
+                } else {
+                    denied++;
+                }
+            }
+        }
+    }
+
+    /*
+     * Bounded single-producer/single-consumer ring. Each side caches the
+     * other side's index and only re-reads the volatile counter when the
+     * cached value says the ring is full (producer) or empty (consumer).
+     */
+    static final class PacketRing {
+        private final Packet[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private long cachedHead;
+        private long cachedTail;
+
+        PacketRing(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            slots = new Packet[size];
+            mask = size - 1;
+        }
+
+        boolean offer(Packet packet) {
+            long currentTail = tail.get();
+
+            if (currentTail - cachedHead >= slots.length) {
+                cachedHead = head.get();
+
+                if (currentTail - cachedHead >= slots.length) {
+                    return false;
+                }
+            }
+
+            slots[(int) currentTail & mask] = packet;
+            tail.lazySet(currentTail + 1);
+            return true;
+        }
+
+        Packet poll() {
+            long currentHead = head.get();
+
+            if (currentHead >= cachedTail) {
+                cachedTail = tail.get();
+
+                if (currentHead >= cachedTail) {
+                    return null;
+                }
+            }
+
+            int index = (int) currentHead & mask;
+            Packet packet = slots[index];
+            slots[index] = null;
+            head.lazySet(currentHead + 1);
+            return packet;
+        }
+
+        boolean isEmpty() {
+            return head.get() >= tail.get();
+        }
+    }
+
+    // ================================================================
+    // Binary audit log
+    // ================================================================
+
+    /*
+     * Fixed-capacity ring of fixed-width little-endian audit records in a
+     * direct buffer. Appending writes primitives at an absolute offset, so
+     * auditing never allocates and never grows the heap.
+     *
+     * Without a spiller the ring keeps the most recent records and
+     * overwrites the oldest. With a spiller attached it becomes a
+     * single-producer/single-consumer queue, and records that arrive
+     * while it is full are dropped and counted so packets never block.
+     *
+     * Record layout (32 bytes):
+     *   0 timestamp long    8 source int      12 destination int
+     *  16 source port char 18 dest port char  20 rule index int
+     *  24 protocol         25 direction       26 verdict
+     *  27 reason code      28 state (-1 none) 29 TCP flags
+     */
+    static final class AuditRing {
+        static final int RECORD_SIZE = 32;
+        static final int DEFAULT_CAPACITY = 1 << 16;
+
+        final ByteBuffer storage;
+        final int capacity;
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong tail = new AtomicLong();
+        private final int mask;
+        private volatile boolean draining;
+        private long cachedHead;
+        private long dropped;
+
+        AuditRing(int capacity) {
+            this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.mask = this.capacity - 1;
+            this.storage = ByteBuffer.allocateDirect(this.capacity * RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void append(Packet packet, boolean allowed, ReasonCode reason,
+                    int ruleIndex, ConnectionState state) {
+            long position = tail.get();
+
+            if (position - cachedHead >= capacity) {
+                cachedHead = head.get();
+
+                if (position - cachedHead >= capacity) {
+                    if (draining) {
+                        dropped++;
+                        return;
+                    }
+
+                    cachedHead = position - capacity + 1;
+                    head.lazySet(cachedHead);
+                }
+            }
+
+            int offset = (int) (position & mask) * RECORD_SIZE;
+
+            storage.putLong(offset, packet.timestampMillis);
+            storage.putInt(offset + 8, packet.sourceAddress);
+            storage.putInt(offset + 12, packet.destinationAddress);
+            storage.putChar(offset + 16, (char) packet.sourcePort);
+            storage.putChar(offset + 18, (char) packet.destinationPort);
+            storage.putInt(offset + 20, ruleIndex);
+            storage.put(offset + 24, (byte) packet.protocol.ordinal());
+            storage.put(offset + 25, (byte) packet.direction.ordinal());
+            storage.put(offset + 26, (byte) (allowed ? 1 : 0));
+            storage.put(offset + 27, (byte) reason.ordinal());
+            storage.put(offset + 28, (byte) (state == null ? -1 : state.ordinal()));
+            storage.put(offset + 29, packet.flagBits());
+            storage.putChar(offset + 30, (char) 0);
+
+            tail.lazySet(position + 1);
+        }
+
+        void startDraining() {
+            draining = true;
+        }
+
+        boolean isEmpty() {
+            return head.get() >= tail.get();
+        }
+
+        long dropped() {
+            return dropped;
+        }
+
+        /*
+         * Decodes the records currently held in the ring. Intended for the
+         * owning thread; with a spiller attached it only sees records that
+         * have not been drained yet.
+         */
+        List<AuditRecord> snapshot() {
+            List<AuditRecord> records = new ArrayList<AuditRecord>();
+            long end = tail.get();
+
+            for (long position = head.get(); position < end; position++) {
+                records.add(AuditRecord.decode(
+                        storage, (int) (position & mask) * RECORD_SIZE));
+            }
+
+            return records;
+        }
+    }
+
+    /*
+     * Background writer that drains an AuditRing into fixed-size segment
+     * files through memory-mapped buffers. Each segment starts with a
+     * 16-byte header (magic, version, record size, record count) followed
+     * by raw ring records.
+     *
+     * Records are group-committed: every COMMIT_RECORDS records, after
+     * COMMIT_NANOS, when the ring runs dry and on segment close, the new
+     * records are forced first and only then the header count, so after a
+     * crash the count never covers records that did not reach the disk.
+     */
+    static final class AuditSpiller implements Runnable {
+        static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+        static final int MAGIC = 0x31415746;   // "FWA1" little-endian
+        static final short VERSION = 1;
+        static final int HEADER_SIZE = 16;
+        static final int COMMIT_RECORDS = 4096;
+        static final long COMMIT_NANOS = 10_000_000L;
+
+        private final AuditRing ring;
+        private final ByteBuffer source;
+        private final Path directory;
+        private final String filePrefix;
+        private final int segmentRecords;
+        private final Thread thread;
+        private volatile boolean closed;
+        private volatile IOException failure;
+
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private int segmentIndex;
+        private int segmentCount;
+        private int committedCount;
+        private long lastCommitNanos = System.nanoTime();
+
+        AuditSpiller(AuditRing ring, Path directory, String filePrefix,
+                     int segmentRecords) throws IOException {
+            this.ring = ring;
+            this.source = ring.storage.duplicate();
+            this.directory = directory;
+            this.filePrefix = filePrefix;
+            this.segmentRecords = segmentRecords;
+            this.thread = new Thread(this, "audit-spiller-" + filePrefix);
+            this.thread.setDaemon(true);
+
+            Files.createDirectories(directory);
+            openSegment();
+        }
+
+        void start() {
+            ring.startDraining();
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    if (drainBatch() > 0) {
+                        continue;
+                    }
+
+                    if (committedCount < segmentCount) {
+                        commit();
+                    }
+
+                    if (closed && ring.isEmpty()) {
+                        break;
+                    }
+
+                    LockSupport.parkNanos(1_000_000L);
+                }
+
+                closeSegment();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        void close() throws InterruptedException, IOException {
+            closed = true;
+            thread.join();
+
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private int drainBatch() throws IOException {
+            long head = ring.head.get();
+            long available = ring.tail.get() - head;
+
+            if (available == 0) {
+                return 0;
+            }
+
+            if (segmentCount == segmentRecords) {
+                closeSegment();
+                segmentIndex++;
+                openSegment();
+            }
+
+            int index = (int) (head & (ring.capacity - 1));
+            int count = (int) Math.min(available, Math.min(
+                    ring.capacity - index, segmentRecords - segmentCount));
+
+            source.limit((index + count) * AuditRing.RECORD_SIZE);
+            source.position(index * AuditRing.RECORD_SIZE);
+            segment.position(HEADER_SIZE + segmentCount * AuditRing.RECORD_SIZE);
+            segment.put(source);
+
+            segmentCount += count;
+            ring.head.lazySet(head + count);
+
+            if (segmentCount - committedCount >= COMMIT_RECORDS
+                    || System.nanoTime() - lastCommitNanos >= COMMIT_NANOS) {
+                commit();
+            }
+
+            return count;
+        }
+
+        private void openSegment() throws IOException {
+            Path path = directory.resolve(
+                    String.format("%s-%06d.audit", filePrefix, segmentIndex));
+
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) segmentRecords * AuditRing.RECORD_SIZE);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segment.putInt(0, MAGIC);
+            segment.putShort(4, VERSION);
+            segment.putShort(6, (short) AuditRing.RECORD_SIZE);
+            segment.putLong(8, 0L);
+            segment.force(0, HEADER_SIZE);
+            segmentCount = 0;
+            committedCount = 0;
+        }
+
+        private void commit() {
+            if (committedCount < segmentCount) {
+                segment.force(HEADER_SIZE + committedCount * AuditRing.RECORD_SIZE,
+                        (segmentCount - committedCount) * AuditRing.RECORD_SIZE);
+                segment.putLong(8, segmentCount);
+                segment.force(0, HEADER_SIZE);
+                committedCount = segmentCount;
+            }
+
+            lastCommitNanos = System.nanoTime();
+        }
+
+        private void closeSegment() throws IOException {
+            commit();
+            channel.close();
+        }
+    }
+
+    static final class AuditRecord {
+        final long timestampMillis;
+        final int sourceAddress;
+        final int destinationAddress;
+        final int sourcePort;
+        final int destinationPort;
+        final int ruleIndex;
+        final Protocol protocol;
+        final Direction direction;
+        final boolean allowed;
+        final ReasonCode reason;
+        final ConnectionState connectionState;
+        final int flags;
+
+        private AuditRecord(ByteBuffer buffer, int offset) {
+            timestampMillis = buffer.getLong(offset);
+            sourceAddress = buffer.getInt(offset + 8);
+            destinationAddress = buffer.getInt(offset + 12);
+            sourcePort = buffer.getChar(offset + 16);
+            destinationPort = buffer.getChar(offset + 18);
+            ruleIndex = buffer.getInt(offset + 20);
+            protocol = Protocol.values()[buffer.get(offset + 24)];
+            direction = Direction.values()[buffer.get(offset + 25)];
+            allowed = buffer.get(offset + 26) != 0;
+            reason = ReasonCode.values()[buffer.get(offset + 27)];
+
+            byte state = buffer.get(offset + 28);
+            connectionState = state < 0 ? null : ConnectionState.values()[state];
+            flags = buffer.get(offset + 29);
+        }
+
+        static AuditRecord decode(ByteBuffer buffer, int offset) {
+            return new AuditRecord(buffer, offset);
+        }
+
+        String source() {
+            return longToIpv4(sourceAddress & 0xFFFFFFFFL) + ":" + sourcePort;
+        }
+
+        String destination() {
+            return longToIpv4(destinationAddress & 0xFFFFFFFFL) + ":" + destinationPort;
+        }
+
+        /*
+         * Rule-based reasons name the rule when the rule list is known and
+         * fall back to its index when decoding offline.
+         */
+        String reasonText(List<FirewallRule> rules) {
+            if (ruleIndex < 0) {
+                return reason.name();
+            }
+
+            if (rules != null && ruleIndex < rules.size()) {
+                return rules.get(ruleIndex).decisionReason;
+            }
+
+            return reason.name() + " #" + ruleIndex;
+        }
+    }
+
+    /*
+     * Offline reader for spilled segments. Optional filters narrow the
+     * output by verdict, source CIDR and reason code.
+     */
+    static final class AuditLogReader {
+        private Boolean allowed;
+        private Cidr source;
+        private ReasonCode reason;
+
+        AuditLogReader onlyAllowed(boolean value) {
+            allowed = value;
+            return this;
+        }
+
+        AuditLogReader fromSource(String cidr) {
+            source = new Cidr(cidr);
+            return this;
+        }
+
+        AuditLogReader withReason(ReasonCode value) {
+            reason = value;
+            return this;
+        }
+
+        List<AuditRecord> read(Path directory) throws IOException {
+            List<Path> segments = new ArrayList<Path>();
+
+            try (DirectoryStream<Path> stream =
+                         Files.newDirectoryStream(directory, "*.audit")) {
+                for (Path path : stream) {
+                    segments.add(path);
+                }
+            }
+
+            segments.sort(null);
+
+            List<AuditRecord> records = new ArrayList<AuditRecord>();
+
+            for (Path path : segments) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    MappedByteBuffer segment = channel.map(
+                            FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    segment.order(ByteOrder.LITTLE_ENDIAN);
+
+                    if (segment.getInt(0) != AuditSpiller.MAGIC
+                            || segment.getShort(6) != AuditRing.RECORD_SIZE) {
+                        throw new IOException("Not an audit segment: " + path);
+                    }
+
+                    long count = segment.getLong(8);
+
+                    for (long i = 0; i < count; i++) {
+                        AuditRecord record = AuditRecord.decode(segment,
+                                (int) (AuditSpiller.HEADER_SIZE + i * AuditRing.RECORD_SIZE));
+
+                        if (accepts(record)) {
+                            records.add(record);
+                        }
+                    }
+                }
+            }
+
+            return records;
+        }
+
+        private boolean accepts(AuditRecord record) {
+            return (allowed == null || allowed == record.allowed)
+                    && (source == null || source.contains(record.sourceAddress))
+                    && (reason == null || reason == record.reason);
+        }
+    }
+
+    static void printAuditRecords(List<AuditRecord> records, List<FirewallRule> rules) {
+        System.out.println("+------+-----------+---------------------+"
+                + "---------------------+--------+-------------------------------+");
+
+        System.out.println("| Time | Direction | Source              | Destination         "
+                + "| Result | Reason                        |");
+
+        System.out.println("+------+-----------+---------------------+"
+                + "---------------------+--------+-------------------------------+");
+
+        for (int i = 0; i < records.size(); i++) {
+            AuditRecord record = records.get(i);
+
+            System.out.printf(
+                    "| %-4d | %-9s | %-19s | %-19s | %-6s | %-29s |%n",
+                    record.timestampMillis,
+                    record.direction,
+                    limit(record.source(), 19),
+                    limit(record.destination(), 19),
+                    record.allowed ? "ALLOW" : "DENY",
+                    limit(record.reasonText(rules), 29)
+            );
+        }
+
+        System.out.println("+------+-----------+---------------------+"
+                + "---------------------+--------+-------------------------------+");
+    }
+
+    private static void readAuditLog(String[] args) throws IOException {
+        AuditLogReader reader = new AuditLogReader();
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--allow":
+                    reader.onlyAllowed(true);
+                    break;
+                case "--deny":
+                    reader.onlyAllowed(false);
+                    break;
+                case "--source":
+                    reader.fromSource(args[++i]);
+                    break;
+                case "--reason":
+                    reader.withReason(ReasonCode.valueOf(args[++i]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown audit filter: " + args[i]);
+            }
+        }
+
+        List<AuditRecord> records = reader.read(Paths.get(args[1]));
+        printAuditRecords(records, null);
+        System.out.println(records.size() + " record(s)");
+    }
+
+    // ================================================================
+    // Rules
+    // ================================================================
+
+    static final class FirewallRule {
+        final String name;
+        final Action action;
+        final Direction direction;
+        final Protocol protocol;
+        final Cidr sourceRange;
+        final Cidr destinationRange;
+        final int sourcePortStart;
+        final int sourcePortEnd;
+        final int destinationPortStart;
+        final int destinationPortEnd;
+        final String decisionReason;
+
+        FirewallRule(
+                String name,
+                Action action,
+                Direction direction,
+                Protocol protocol,
+                String sourceRange,
+                String destinationRange,
+                int sourcePortStart,
+                int sourcePortEnd,
+                int destinationPortStart,
+                int destinationPortEnd) {
+
+            this.name = name;
+            this.action = action;
+            this.direction = direction;
+            this.protocol = protocol;
+            this.sourceRange = new Cidr(sourceRange);
+            this.destinationRange = new Cidr(destinationRange);
+            this.sourcePortStart = sourcePortStart;
+            this.sourcePortEnd = sourcePortEnd;
+            this.destinationPortStart = destinationPortStart;
+            this.destinationPortEnd = destinationPortEnd;
+            this.decisionReason = (action == Action.ALLOW ? "RULE_ALLOW: " : "RULE_DENY: ")
+                    + name;
+        }
+
+        boolean matches(Packet packet) {
+            boolean directionMatches = direction == Direction.ANY
+                    || direction == packet.direction;
+
+            boolean protocolMatches = protocol == Protocol.ANY
+                    || protocol == packet.protocol;
+
+            return directionMatches
+                    && protocolMatches
+                    && sourceRange.contains(packet.sourceAddress)
+                    && destinationRange.contains(packet.destinationAddress)
+                    && packet.sourcePort >= sourcePortStart
+                    && packet.sourcePort <= sourcePortEnd
+                    && packet.destinationPort >= destinationPortStart
+                    && packet.destinationPort <= destinationPortEnd;
+        }
+    }
+
+    // ================================================================
+    // Compiled rule classifier
+    // ================================================================
+
+    /*
+     * Bit-vector classifier over an ordered rule list.
+     *
+     * Every dimension of a rule is indexed separately and answers with a
+     * bitset of the rules that accept the packet in that dimension:
+     * direction and protocol buckets, one interval index per port range,
+     * and one prefix trie per CIDR. The bitsets are ANDed word by word and
+     * the lowest set bit is the first matching rule, so rule order still
+     * decides the winner. The classifier is immutable once built.
+     */
+    static final class RuleClassifier {
+        private final FirewallRule[] rules;
+        private final long[][] directionBuckets;
+        private final long[][] protocolBuckets;
+        private final PortIntervalIndex sourcePorts;
+        private final PortIntervalIndex destinationPorts;
+        private final PrefixTrie sourceTrie;
+        private final PrefixTrie destinationTrie;
+
+        RuleClassifier(List<FirewallRule> ruleList) {
+            rules = ruleList.toArray(new FirewallRule[0]);
+
+            int words = Math.max(1, (rules.length + 63) >>> 6);
+            Direction[] directions = Direction.values();
+            Protocol[] protocols = Protocol.values();
+
+            directionBuckets = new long[directions.length][words];
+            protocolBuckets = new long[protocols.length][words];
+
+            int[] sourceStarts = new int[rules.length];
+            int[] sourceEnds = new int[rules.length];
+            int[] destinationStarts = new int[rules.length];
+            int[] destinationEnds = new int[rules.length];
+
+            sourceTrie = new PrefixTrie(words);
+            destinationTrie = new PrefixTrie(words);
+
+            for (int i = 0; i < rules.length; i++) {
+                FirewallRule rule = rules[i];
+
+                for (Direction direction : directions) {
+                    if (rule.direction == Direction.ANY || rule.direction == direction) {
+                        setBit(directionBuckets[direction.ordinal()], i);
+                    }
+                }
+
+                for (Protocol protocol : protocols) {
+                    if (rule.protocol == Protocol.ANY || rule.protocol == protocol) {
+                        setBit(protocolBuckets[protocol.ordinal()], i);
+                    }
+                }
+
+                sourceStarts[i] = rule.sourcePortStart;
+                sourceEnds[i] = rule.sourcePortEnd;
+                destinationStarts[i] = rule.destinationPortStart;
+                destinationEnds[i] = rule.destinationPortEnd;
+
+                sourceTrie.insert(rule.sourceRange, i);
+                destinationTrie.insert(rule.destinationRange, i);
+            }
+
+            sourcePorts = new PortIntervalIndex(sourceStarts, sourceEnds, words);
+            destinationPorts = new PortIntervalIndex(
+                    destinationStarts, destinationEnds, words);
+
+            sourceTrie.inheritAncestorRules();
+            destinationTrie.inheritAncestorRules();
+        }
+
+        FirewallRule findFirstMatchingRule(Packet packet) {
+            int index = firstMatchingIndex(packet);
+            return index < 0 ? null : rules[index];
+        }
+
+        int firstMatchingIndex(Packet packet) {
+            long[] direction = directionBuckets[packet.direction.ordinal()];
+            long[] protocol = protocolBuckets[packet.protocol.ordinal()];
+            long[] source = sourceTrie.lookup(packet.sourceAddress);
+            long[] destination = destinationTrie.lookup(packet.destinationAddress);
+            long[] sourcePort = sourcePorts.lookup(packet.sourcePort);
+            long[] destinationPort = destinationPorts.lookup(packet.destinationPort);
+
+            if (source == null || destination == null
+                    || sourcePort == null || destinationPort == null) {
+                return -1;
+            }
+
+            for (int w = 0; w < direction.length; w++) {
+                long candidates = direction[w] & protocol[w]
+                        & source[w] & destination[w]
+                        & sourcePort[w] & destinationPort[w];
+
+                if (candidates != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(candidates);
+                }
+            }
+
+            return -1;
+        }
+
+        private static void setBit(long[] bits, int index) {
+            bits[index >>> 6] |= 1L << index;
+        }
+    }
+
+    /*
+     * Elementary-interval index: the sorted rule boundaries split the port
+     * space into intervals that every rule either fully covers or misses,
+     * and each interval carries the bitset of covering rules.
+     */
+    static final class PortIntervalIndex {
+        private final int[] boundaries;
+        private final long[][] intervalRules;
+
+        PortIntervalIndex(int[] starts, int[] ends, int words) {
+            int[] points = new int[starts.length * 2];
+            int count = 0;
+
+            for (int i = 0; i < starts.length; i++) {
+                if (starts[i] > ends[i]) {
+                    continue;
+                }
+
+                points[count++] = starts[i];
+                points[count++] = ends[i] + 1;
+            }
+
+            Arrays.sort(points, 0, count);
+
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || points[unique - 1] != points[i]) {
+                    points[unique++] = points[i];
+                }
+            }
+
+            boundaries = Arrays.copyOf(points, unique);
+            intervalRules = new long[unique][];
 
-    private static void process(Firewall firewall, Packet packet) {
-        Decision decision = firewall.process(packet);
+            for (int i = 0; i < starts.length; i++) {
+                if (starts[i] > ends[i]) {
+                    continue;
+                }
 
-        System.out.println(packet.summary());
-        System.out.println("  Decision: " + decision.allowed
-                + " | reason=" + decision.reason
-                + " | state=" + decision.connectionState);
-    }
+                int from = Arrays.binarySearch(boundaries, starts[i]);
+                int to = Arrays.binarySearch(boundaries, ends[i] + 1);
 
-    // ================================================================
-    // Firewall engine
-    // ================================================================
+                for (int interval = from; interval < to; interval++) {
+                    if (intervalRules[interval] == null) {
+                        intervalRules[interval] = new long[words];
+                    }
 
-    static final class Firewall {
-        private final List<FirewallRule> rules = new ArrayList<FirewallRule>();
-        private final Map<String, Connection> connections =
-                new HashMap<String, Connection>();
-        private final Map<String, SlidingWindowCounter> rateCounters =
-                new HashMap<String, SlidingWindowCounter>();
-        private final List<AuditEvent> auditLog = new ArrayList<AuditEvent>();
+                    RuleClassifier.setBit(intervalRules[interval], i);
+                }
+            }
+        }
 
-        private final int rateLimit;
-        private final long rateWindowMillis;
+        long[] lookup(int port) {
+            int index = Arrays.binarySearch(boundaries, port);
 
-        Firewall(int rateLimit, long rateWindowMillis) {
-            this.rateLimit = rateLimit;
-            this.rateWindowMillis = rateWindowMillis;
+            if (index < 0) {
+                index = -index - 2;
+            }
+
+            return index < 0 ? null : intervalRules[index];
         }
+    }
 
-        void addRule(FirewallRule rule) {
-            rules.add(rule);
+    /*
+     * Binary trie over IPv4 prefixes. After inheritAncestorRules() every
+     * node holds the union of the rules attached to it and to its
+     * ancestors, so a lookup only needs the deepest node on the path.
+     */
+    static final class PrefixTrie {
+        private final int words;
+        private int[] zero = new int[64];
+        private int[] one = new int[64];
+        private long[][] nodeRules = new long[64][];
+        private int nodeCount = 1;
+
+        PrefixTrie(int words) {
+            this.words = words;
         }
 
-        Decision process(Packet packet) {
-            if (!allowByRateLimit(packet)) {
-                return deny(packet, "RATE_LIMIT_EXCEEDED", null);
-            }
+        void insert(Cidr range, int ruleIndex) {
+            int prefixLength = Long.bitCount(range.mask);
+            int network = (int) range.network;
+            int node = 0;
 
-            String directKey = connectionKey(
-                    packet.sourceIp, packet.sourcePort,
-                    packet.destinationIp, packet.destinationPort,
-                    packet.protocol);
+            for (int depth = 0; depth < prefixLength; depth++) {
+                boolean bit = (network << depth) < 0;
+                int child = bit ? one[node] : zero[node];
 
-            String reverseKey = connectionKey(
-                    packet.destinationIp, packet.destinationPort,
-                    packet.sourceIp, packet.sourcePort,
-                    packet.protocol);
+                if (child == 0) {
+                    child = newNode();
 
-            Connection existing = connections.get(directKey);
+                    if (bit) {
+                        one[node] = child;
+                    } else {
+                        zero[node] = child;
+                    }
+                }
 
-            if (existing == null) {
-                existing = connections.get(reverseKey);
+                node = child;
             }
 
-            if (existing != null && packet.protocol == Protocol.TCP) {
-                return processExistingTcpConnection(packet, existing);
+            if (nodeRules[node] == null) {
+                nodeRules[node] = new long[words];
             }
 
-            FirewallRule matchedRule = findFirstMatchingRule(packet);
+            RuleClassifier.setBit(nodeRules[node], ruleIndex);
+        }
+
+        void inheritAncestorRules() {
+            int[] stack = new int[nodeCount];
+            int size = 0;
+            stack[size++] = 0;
+
+            while (size > 0) {
+                int node = stack[--size];
+
+                if (zero[node] != 0) {
+                    inherit(node, zero[node]);
+                    stack[size++] = zero[node];
+                }
 
-            if (matchedRule == null) {
-                return deny(packet, "NO_MATCHING_RULE", null);
+                if (one[node] != 0) {
+                    inherit(node, one[node]);
+                    stack[size++] = one[node];
+                }
             }
+        }
 
-            if (matchedRule.action == Action.DENY) {
-                return deny(packet, "RULE_DENY: " + matchedRule.name, null);
+        private void inherit(int parent, int child) {
+            long[] inherited = nodeRules[parent];
+
+            if (nodeRules[child] == null) {
+                nodeRules[child] = inherited;
+            } else if (inherited != null) {
+                for (int w = 0; w < words; w++) {
+                    nodeRules[child][w] |= inherited[w];
+                }
             }
+        }
 
-            if (packet.protocol == Protocol.TCP) {
-                if (!packet.syn || packet.ack) {
-                    return deny(packet, "NEW_TCP_CONNECTION_REQUIRES_SYN", null);
+        long[] lookup(int address) {
+            int node = 0;
+
+            for (int depth = 0; depth < 32; depth++) {
+                int child = (address << depth) < 0 ? one[node] : zero[node];
+
+                if (child == 0) {
+                    break;
                 }
 
-                Connection connection = new Connection(
-                        packet.sourceIp, packet.sourcePort,
-                        packet.destinationIp, packet.destinationPort,
-                        ConnectionState.SYN_SENT
-                );
+                node = child;
+            }
 
-                connections.put(directKey, connection);
+            return nodeRules[node];
+        }
 
-                return allow(packet,
-                        "RULE_ALLOW: " + matchedRule.name,
-                        connection.state);
+        private int newNode() {
+            if (nodeCount == zero.length) {
+                int capacity = nodeCount * 2;
+                zero = Arrays.copyOf(zero, capacity);
+                one = Arrays.copyOf(one, capacity);
+                nodeRules = Arrays.copyOf(nodeRules, capacity);
             }
 
-            return allow(packet, "RULE_ALLOW: " + matchedRule.name, null);
+            return nodeCount++;
         }
+    }
 
-        private Decision processExistingTcpConnection(
-                Packet packet, Connection connection) {
+    // ================================================================
+    // Connection tracking table
+    // ================================================================
 
-            if (packet.rst) {
-                removeConnection(connection);
-                return allow(packet, "TCP_RESET", ConnectionState.CLOSED);
-            }
+    /*
+     * Open-addressed connection table keyed by the 5-tuple.
+     *
+     * Entries live in parallel primitive arrays indexed by a stable entry
+     * id: client and server endpoints as IPv4 ints and char ports, the
+     * protocol and state ordinals, and the last-seen timestamp. A separate
+     * open-addressed index maps the tuple hash to entry ids. The hash is
+     * symmetric in the two endpoints, so a packet and its reply probe the
+     * same chain and an entry matches in either direction. Deletion uses
+     * backward shifting in the index, so it never accumulates tombstones,
+     * and entry ids stay valid until the entry itself is removed.
+     */
+    static final class ConnectionTable {
+        private static final byte EMPTY = 0;
+        private static final ConnectionState[] STATES = ConnectionState.values();
+
+        private int[] index;
+        private int mask;
+
+        private int[] clientAddress;
+        private int[] serverAddress;
+        private char[] clientPort;
+        private char[] serverPort;
+        private byte[] protocol;
+        private byte[] state;
+        private long[] lastSeenMillis;
+
+        private int[] freeIds;
+        private int freeCount;
+        private int highWater;
+        private int size;
+
+        ConnectionTable(int initialCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1)) << 1;
+            index = new int[capacity];
+            mask = capacity - 1;
+
+            int entries = capacity / 2;
+            clientAddress = new int[entries];
+            serverAddress = new int[entries];
+            clientPort = new char[entries];
+            serverPort = new char[entries];
+            protocol = new byte[entries];
+            state = new byte[entries];
+            lastSeenMillis = new long[entries];
+            freeIds = new int[entries];
+        }
 
-            boolean forward = packet.sourceIp.equals(connection.clientIp)
-                    && packet.sourcePort == connection.clientPort
-                    && packet.destinationIp.equals(connection.serverIp)
-                    && packet.destinationPort == connection.serverPort;
+        int size() {
+            return size;
+        }
 
-            boolean reverse = packet.sourceIp.equals(connection.serverIp)
-                    && packet.sourcePort == connection.serverPort
-                    && packet.destinationIp.equals(connection.clientIp)
-                    && packet.destinationPort == connection.clientPort;
+        int find(Packet packet) {
+            char sourcePort = (char) packet.sourcePort;
+            char destinationPort = (char) packet.destinationPort;
+            byte protocolCode = (byte) packet.protocol.ordinal();
 
-            if (!forward && !reverse) {
-                return deny(packet, "CONNECTION_DIRECTION_MISMATCH", connection.state);
-            }
+            int slot = hash(packet.sourceAddress, sourcePort,
+                    packet.destinationAddress, destinationPort, protocolCode) & mask;
 
-            if (connection.state == ConnectionState.SYN_SENT) {
-                if (reverse && packet.syn && packet.ack) {
-                    connection.state = ConnectionState.SYN_RECEIVED;
-                    return allow(packet, "STATEFUL_SYN_ACK_ALLOWED", connection.state);
+            while (index[slot] != 0) {
+                int id = index[slot] - 1;
+
+                if (protocol[id] == protocolCode
+                        && (matches(id, packet.sourceAddress, sourcePort,
+                                packet.destinationAddress, destinationPort)
+                        || matches(id, packet.destinationAddress, destinationPort,
+                                packet.sourceAddress, sourcePort))) {
+                    return id;
                 }
 
-                return deny(packet, "EXPECTED_SYN_ACK", connection.state);
+                slot = (slot + 1) & mask;
             }
 
-            if (connection.state == ConnectionState.SYN_RECEIVED) {
-                if (forward && packet.ack && !packet.syn) {
-                    connection.state = ConnectionState.ESTABLISHED;
-                    return allow(packet, "STATEFUL_HANDSHAKE_COMPLETE", connection.state);
-                }
+            return -1;
+        }
 
-                return deny(packet, "EXPECTED_FINAL_ACK", connection.state);
+        /*
+         * Inserts a connection whose client is the packet source and
+         * returns its entry id. The caller has already checked that no
+         * entry exists for the tuple.
+         */
+        int insert(Packet packet, ConnectionState initialState) {
+            if ((size + 1) * 2 > index.length) {
+                grow();
             }
 
-            if (connection.state == ConnectionState.ESTABLISHED) {
-                if (packet.fin) {
-                    connection.state = ConnectionState.FIN_WAIT;
-                    return allow(packet, "STATEFUL_FIN_ALLOWED", connection.state);
-                }
+            int id = freeCount > 0 ? freeIds[--freeCount] : highWater++;
+
+            clientAddress[id] = packet.sourceAddress;
+            clientPort[id] = (char) packet.sourcePort;
+            serverAddress[id] = packet.destinationAddress;
+            serverPort[id] = (char) packet.destinationPort;
+            protocol[id] = (byte) packet.protocol.ordinal();
+            state[id] = (byte) (initialState.ordinal() + 1);
+            lastSeenMillis[id] = packet.timestampMillis;
+
+            index[homeSlot(id)] = id + 1;
+            size++;
+
+            return id;
+        }
+
+        ConnectionState state(int id) {
+            return STATES[state[id] - 1];
+        }
+
+        void setState(int id, ConnectionState newState) {
+            state[id] = (byte) (newState.ordinal() + 1);
+        }
+
+        long lastSeenMillis(int id) {
+            return lastSeenMillis[id];
+        }
+
+        void touch(int id, long nowMillis) {
+            lastSeenMillis[id] = nowMillis;
+        }
+
+        boolean isForward(int id, Packet packet) {
+            return matches(id,
+                    packet.sourceAddress, (char) packet.sourcePort,
+                    packet.destinationAddress, (char) packet.destinationPort);
+        }
+
+        boolean isReverse(int id, Packet packet) {
+            return matches(id,
+                    packet.destinationAddress, (char) packet.destinationPort,
+                    packet.sourceAddress, (char) packet.sourcePort);
+        }
+
+        void remove(int id) {
+            int slot = hash(clientAddress[id], clientPort[id],
+                    serverAddress[id], serverPort[id], protocol[id]) & mask;
 
-                return allow(packet, "STATEFUL_ESTABLISHED_CONNECTION", connection.state);
+            while (index[slot] != id + 1) {
+                slot = (slot + 1) & mask;
             }
 
-            if (connection.state == ConnectionState.FIN_WAIT) {
-                if (packet.fin || packet.ack) {
-                    connection.state = ConnectionState.CLOSED;
-                    removeConnection(connection);
-                    return allow(packet, "STATEFUL_CONNECTION_CLOSED", connection.state);
+            index[slot] = 0;
+            state[id] = EMPTY;
+            freeIds[freeCount++] = id;
+            size--;
+
+            int hole = slot;
+            int next = (slot + 1) & mask;
+
+            while (index[next] != 0) {
+                int home = entryHash(index[next] - 1) & mask;
+
+                // Move the entry back if its home slot is not cyclically
+                // between the hole and its current position.
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    index[hole] = index[next];
+                    index[next] = 0;
+                    hole = next;
                 }
 
-                return deny(packet, "CONNECTION_CLOSING", connection.state);
+                next = (next + 1) & mask;
             }
+        }
 
-            return deny(packet, "CONNECTION_ALREADY_CLOSED", connection.state);
+        private boolean matches(int id, int client, char clientPortValue,
+                                int server, char serverPortValue) {
+            return clientAddress[id] == client
+                    && clientPort[id] == clientPortValue
+                    && serverAddress[id] == server
+                    && serverPort[id] == serverPortValue;
         }
 
-        private boolean allowByRateLimit(Packet packet) {
-            SlidingWindowCounter counter = rateCounters.get(packet.sourceIp);
+        private int homeSlot(int id) {
+            int slot = entryHash(id) & mask;
 
-            if (counter == null) {
-                counter = new SlidingWindowCounter(rateLimit, rateWindowMillis);
-                rateCounters.put(packet.sourceIp, counter);
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
             }
 
-            return counter.allow(packet.timestampMillis);
+            return slot;
         }
 
-        private FirewallRule findFirstMatchingRule(Packet packet) {
-            for (int i = 0; i < rules.size(); i++) {
-                FirewallRule rule = rules.get(i);
+        private int entryHash(int id) {
+            return hash(clientAddress[id], clientPort[id],
+                    serverAddress[id], serverPort[id], protocol[id]);
+        }
 
-                if (rule.matches(packet)) {
-                    return rule;
+        private void grow() {
+            int capacity = index.length * 2;
+            int entries = capacity / 2;
+
+            index = new int[capacity];
+            mask = capacity - 1;
+
+            clientAddress = Arrays.copyOf(clientAddress, entries);
+            serverAddress = Arrays.copyOf(serverAddress, entries);
+            clientPort = Arrays.copyOf(clientPort, entries);
+            serverPort = Arrays.copyOf(serverPort, entries);
+            protocol = Arrays.copyOf(protocol, entries);
+            state = Arrays.copyOf(state, entries);
+            lastSeenMillis = Arrays.copyOf(lastSeenMillis, entries);
+            freeIds = Arrays.copyOf(freeIds, entries);
+
+            for (int id = 0; id < highWater; id++) {
+                if (state[id] != EMPTY) {
+                    index[homeSlot(id)] = id + 1;
                 }
             }
+        }
 
-            return null;
+        /*
+         * Sum and xor are both order-independent, so swapping the two
+         * endpoints yields the same hash.
+         */
+        static int hash(int addressA, char portA, int addressB, char portB,
+                        byte protocolCode) {
+            long endpointA = ((long) addressA << 16) | portA;
+            long endpointB = ((long) addressB << 16) | portB;
+            long h = (endpointA + endpointB) * 0x9E3779B97F4A7C15L
+                    ^ (endpointA ^ endpointB)
+                    ^ ((long) protocolCode << 56);
+
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            return (int) h;
         }
+    }
 
-        private Decision allow(Packet packet, String reason,
-                               ConnectionState state) {
-            auditLog.add(new AuditEvent(packet, true, reason, state));
-            return new Decision(true, reason, state);
+    // ================================================================
+    // Idle-timeout timer wheel
+    // ================================================================
+
+    /*
+     * Hierarchical timing wheel over integer handles, driven by packet
+     * timestamps rather than wall-clock time.
+     *
+     * Each level has 64 slots; a slot on level L spans 64^L ticks. Timers
+     * are intrusive doubly linked lists in primitive arrays, so schedule
+     * and cancel are O(1), and advancing costs O(1) per elapsed tick plus
+     * one cascade step per timer and level. Deadlines beyond the top level
+     * are parked in its furthest slot and re-cascaded until they are due.
+     */
+    static final class TimerWheel {
+        interface Expiry {
+            void onTimer(int handle, long nowMillis);
         }
 
-        private Decision deny(Packet packet, String reason,
-                              ConnectionState state) {
-            auditLog.add(new AuditEvent(packet, false, reason, state));
-            return new Decision(false, reason, state);
+        private static final int SLOT_BITS = 6;
+        private static final int SLOTS = 1 << SLOT_BITS;
+        private static final int LEVELS = 4;
+        private static final int NONE = -1;
+
+        private final long tickMillis;
+        private final int[] heads = new int[LEVELS * SLOTS];
+        private final long[] occupied = new long[LEVELS];
+
+        private int[] next = new int[0];
+        private int[] previous = new int[0];
+        private int[] bucket = new int[0];
+        private long[] deadlineTick = new long[0];
+
+        private long currentTick = Long.MIN_VALUE;
+        private int size;
+
+        TimerWheel(long tickMillis) {
+            this.tickMillis = tickMillis;
+            Arrays.fill(heads, NONE);
         }
 
-        private void removeConnection(Connection connection) {
-            connections.remove(connectionKey(
-                    connection.clientIp, connection.clientPort,
-                    connection.serverIp, connection.serverPort,
-                    Protocol.TCP));
+        int size() {
+            return size;
         }
 
-        void printAuditLog() {
-            System.out.println("+------+-----------+---------------------+"
-                    + "---------------------+--------+-------------------------------+");
+        void schedule(int handle, long deadlineMillis) {
+            ensureCapacity(handle + 1);
+
+            if (bucket[handle] != NONE) {
+                unlink(handle);
+            }
+
+            // Round up so a timer never fires before its deadline.
+            long tick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+
+            if (currentTick == Long.MIN_VALUE) {
+                currentTick = tick;
+            }
+
+            deadlineTick[handle] = tick;
+            link(handle, tick);
+            size++;
+        }
+
+        void cancel(int handle) {
+            if (handle < bucket.length && bucket[handle] != NONE) {
+                unlink(handle);
+            }
+        }
+
+        void advance(long nowMillis, Expiry expiry) {
+            long target = Math.floorDiv(nowMillis, tickMillis);
+
+            while (currentTick <= target) {
+                if (size == 0) {
+                    currentTick = target + 1;
+                    return;
+                }
+
+                int slot = (int) (currentTick & (SLOTS - 1));
+
+                while (heads[slot] != NONE) {
+                    int handle = heads[slot];
+                    unlink(handle);
+                    expiry.onTimer(handle, nowMillis);
+                }
+
+                // Nothing left on level 0: jump straight to the next
+                // cascade boundary instead of walking empty ticks.
+                currentTick = occupied[0] == 0
+                        ? Math.min(target + 1, (currentTick | (SLOTS - 1)) + 1)
+                        : currentTick + 1;
+
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        cascade(level);
+                    }
+                }
+            }
+        }
+
+        private void cascade(int level) {
+            int slot = level * SLOTS
+                    + (int) ((currentTick >> (SLOT_BITS * level)) & (SLOTS - 1));
+
+            while (heads[slot] != NONE) {
+                int handle = heads[slot];
+                unlink(handle);
+                link(handle, deadlineTick[handle]);
+                size++;
+            }
+        }
 
-            System.out.println("| Time | Direction | Source              | Destination         "
-                    + "| Result | Reason                        |");
+        private void link(int handle, long tick) {
+            int level = 0;
 
-            System.out.println("+------+-----------+---------------------+"
-                    + "---------------------+--------+-------------------------------+");
+            while (level < LEVELS - 1
+                    && (tick >> (SLOT_BITS * level))
+                    - (currentTick >> (SLOT_BITS * level)) >= SLOTS) {
+                level++;
+            }
 
-            for (int i = 0; i < auditLog.size(); i++) {
-                AuditEvent event = auditLog.get(i);
+            long top = (currentTick >> (SLOT_BITS * level)) + SLOTS - 1;
+            long position = Math.max(currentTick >> (SLOT_BITS * level),
+                    Math.min(top, tick >> (SLOT_BITS * level)));
+            int slot = (int) (position & (SLOTS - 1));
+            int head = level * SLOTS + slot;
 
-                String source = event.packet.sourceIp + ":" + event.packet.sourcePort;
-                String destination = event.packet.destinationIp + ":"
-                        + event.packet.destinationPort;
+            next[handle] = heads[head];
+            previous[handle] = NONE;
 
-                System.out.printf(
-                        "| %-4d | %-9s | %-19s | %-19s | %-6s | %-29s |%n",
-                        event.packet.timestampMillis,
-                        event.packet.direction,
-                        limit(source, 19),
-                        limit(destination, 19),
-                        event.allowed ? "ALLOW" : "DENY",
-                        limit(event.reason, 29)
-                );
+            if (heads[head] != NONE) {
+                previous[heads[head]] = handle;
             }
 
-            System.out.println("+------+-----------+---------------------+"
-                    + "---------------------+--------+-------------------------------+");
+            heads[head] = handle;
+            bucket[handle] = head;
+            occupied[level] |= 1L << slot;
         }
-    }
 
-    // ================================================================
-    // Rules
-    // ================================================================
+        private void unlink(int handle) {
+            int head = bucket[handle];
 
-    static final class FirewallRule {
-        final String name;
-        final Action action;
-        final Direction direction;
-        final Protocol protocol;
-        final Cidr sourceRange;
-        final Cidr destinationRange;
-        final int sourcePortStart;
-        final int sourcePortEnd;
-        final int destinationPortStart;
-        final int destinationPortEnd;
+            if (previous[handle] != NONE) {
+                next[previous[handle]] = next[handle];
+            } else {
+                heads[head] = next[handle];
+            }
 
-        FirewallRule(
-                String name,
-                Action action,
-                Direction direction,
-                Protocol protocol,
-                String sourceRange,
-                String destinationRange,
-                int sourcePortStart,
-                int sourcePortEnd,
-                int destinationPortStart,
-                int destinationPortEnd) {
+            if (next[handle] != NONE) {
+                previous[next[handle]] = previous[handle];
+            }
 
-            this.name = name;
-            this.action = action;
-            this.direction = direction;
-            this.protocol = protocol;
-            this.sourceRange = new Cidr(sourceRange);
-            this.destinationRange = new Cidr(destinationRange);
-            this.sourcePortStart = sourcePortStart;
-            this.sourcePortEnd = sourcePortEnd;
-            this.destinationPortStart = destinationPortStart;
-            this.destinationPortEnd = destinationPortEnd;
+            if (heads[head] == NONE) {
+                occupied[head / SLOTS] &= ~(1L << (head % SLOTS));
+            }
+
+            bucket[handle] = NONE;
+            size--;
         }
 
-        boolean matches(Packet packet) {
-            boolean directionMatches = direction == Direction.ANY
-                    || direction == packet.direction;
+        private void ensureCapacity(int capacity) {
+            if (capacity <= bucket.length) {
+                return;
+            }
 
-            boolean protocolMatches = protocol == Protocol.ANY
-                    || protocol == packet.protocol;
+            int newCapacity = Math.max(capacity, Math.max(16, bucket.length * 2));
+            int oldCapacity = bucket.length;
 
-            return directionMatches
-                    && protocolMatches
-                    && sourceRange.contains(packet.sourceIp)
-                    && destinationRange.contains(packet.destinationIp)
-                    && packet.sourcePort >= sourcePortStart
-                    && packet.sourcePort <= sourcePortEnd
-                    && packet.destinationPort >= destinationPortStart
-                    && packet.destinationPort <= destinationPortEnd;
+            next = Arrays.copyOf(next, newCapacity);
+            previous = Arrays.copyOf(previous, newCapacity);
+            bucket = Arrays.copyOf(bucket, newCapacity);
+            deadlineTick = Arrays.copyOf(deadlineTick, newCapacity);
+            Arrays.fill(bucket, oldCapacity, newCapacity, NONE);
         }
     }
 
@@ -398,6 +2310,8 @@ public final class StatefulFirewallSimulator {
     static final class Packet {
         final String sourceIp;
         final String destinationIp;
+        final int sourceAddress;
+        final int destinationAddress;
         final int sourcePort;
         final int destinationPort;
         final Protocol protocol;
@@ -418,6 +2332,8 @@ public final class StatefulFirewallSimulator {
 
             this.sourceIp = sourceIp;
             this.destinationIp = destinationIp;
+            this.sourceAddress = (int) Cidr.ipv4ToLong(sourceIp);
+            this.destinationAddress = (int) Cidr.ipv4ToLong(destinationIp);
             this.sourcePort = sourcePort;
             this.destinationPort = destinationPort;
             this.protocol = protocol;
@@ -439,6 +2355,14 @@ public final class StatefulFirewallSimulator {
                     + " flags=" + flags();
         }
 
+        byte flagBits() {
+            return (byte) ((syn ? 1 : 0)
+                    | (ack ? 2 : 0)
+                    | (fin ? 4 : 0)
+                    | (rst ? 8 : 0)
+                    | (psh ? 16 : 0));
+        }
+
         String flags() {
             StringBuilder flags = new StringBuilder();
 
@@ -452,37 +2376,50 @@ public final class StatefulFirewallSimulator {
         }
     }
 
-    static final class Connection {
-        final String clientIp;
-        final int clientPort;
-        final String serverIp;
-        final int serverPort;
-        ConnectionState state;
+    /*
+     * Per-source rate limiter. idleAfterMillis() is the earliest time at
+     * which the limiter behaves exactly like a freshly created one, so the
+     * firewall can evict it from that point on without changing decisions.
+     */
+    interface RateLimiter {
+        boolean allow(long now);
 
-        Connection(
-                String clientIp, int clientPort,
-                String serverIp, int serverPort,
-                ConnectionState state) {
+        long idleAfterMillis();
+    }
 
-            this.clientIp = clientIp;
-            this.clientPort = clientPort;
-            this.serverIp = serverIp;
-            this.serverPort = serverPort;
-            this.state = state;
+    enum RateLimitStrategy {
+        SLIDING_WINDOW_LOG,
+        SLIDING_WINDOW_COUNTER,
+        TOKEN_BUCKET;
+
+        RateLimiter create(int maximumEvents, long windowMillis) {
+            switch (this) {
+                case SLIDING_WINDOW_COUNTER:
+                    return new SlidingWindowCounter(maximumEvents, windowMillis);
+                case TOKEN_BUCKET:
+                    return new TokenBucket(maximumEvents, windowMillis);
+                default:
+                    return new SlidingWindowLog(maximumEvents, windowMillis);
+            }
         }
     }
 
-    static final class SlidingWindowCounter {
+    /*
+     * Exact sliding window: remembers every accepted timestamp inside the
+     * window, so memory grows with the configured limit.
+     */
+    static final class SlidingWindowLog implements RateLimiter {
         private final int maximumEvents;
         private final long windowMillis;
         private final ArrayDeque<Long> timestamps = new ArrayDeque<Long>();
 
-        SlidingWindowCounter(int maximumEvents, long windowMillis) {
+        SlidingWindowLog(int maximumEvents, long windowMillis) {
             this.maximumEvents = maximumEvents;
             this.windowMillis = windowMillis;
         }
 
-        boolean allow(long now) {
+        @Override
+        public boolean allow(long now) {
             while (!timestamps.isEmpty()
                     && now - timestamps.peekFirst() >= windowMillis) {
                 timestamps.removeFirst();
@@ -495,20 +2432,145 @@ public final class StatefulFirewallSimulator {
             timestamps.addLast(now);
             return true;
         }
+
+        @Override
+        public long idleAfterMillis() {
+            return timestamps.isEmpty()
+                    ? Long.MIN_VALUE
+                    : timestamps.peekLast() + windowMillis;
+        }
     }
 
-    static final class AuditEvent {
-        final Packet packet;
-        final boolean allowed;
-        final String reason;
-        final ConnectionState connectionState;
+    /*
+     * Approximate sliding window in constant memory: counts for the current
+     * and previous fixed windows, with the previous count weighted by how
+     * much of it still overlaps the sliding window.
+     */
+    static final class SlidingWindowCounter implements RateLimiter {
+        private final int maximumEvents;
+        private final long windowMillis;
+        private long windowIndex = Long.MIN_VALUE;
+        private int currentCount;
+        private int previousCount;
 
-        AuditEvent(Packet packet, boolean allowed, String reason,
-                   ConnectionState connectionState) {
-            this.packet = packet;
-            this.allowed = allowed;
-            this.reason = reason;
-            this.connectionState = connectionState;
+        SlidingWindowCounter(int maximumEvents, long windowMillis) {
+            this.maximumEvents = maximumEvents;
+            this.windowMillis = windowMillis;
+        }
+
+        @Override
+        public boolean allow(long now) {
+            long index = Math.floorDiv(now, windowMillis);
+
+            if (index != windowIndex) {
+                previousCount = index == windowIndex + 1 ? currentCount : 0;
+                currentCount = 0;
+                windowIndex = index;
+            }
+
+            long elapsed = now - index * windowMillis;
+            long weighted = previousCount * (windowMillis - elapsed)
+                    + currentCount * windowMillis;
+
+            if (weighted >= maximumEvents * windowMillis) {
+                return false;
+            }
+
+            currentCount++;
+            return true;
+        }
+
+        @Override
+        public long idleAfterMillis() {
+            return (windowIndex + 2) * windowMillis;
+        }
+    }
+
+    /*
+     * Token bucket holding up to maximumEvents tokens, refilled at
+     * maximumEvents per window. Tokens are kept as a fixed-point long
+     * scaled by windowMillis, so refill and spend are exact integer math.
+     */
+    static final class TokenBucket implements RateLimiter {
+        private final long capacity;
+        private final long refillPerMillis;
+        private final long cost;
+        private long tokens;
+        private long lastRefillMillis = Long.MIN_VALUE;
+
+        TokenBucket(int maximumEvents, long windowMillis) {
+            this.capacity = (long) maximumEvents * windowMillis;
+            this.refillPerMillis = maximumEvents;
+            this.cost = windowMillis;
+            this.tokens = capacity;
+        }
+
+        @Override
+        public boolean allow(long now) {
+            if (lastRefillMillis != Long.MIN_VALUE && now > lastRefillMillis) {
+                long elapsed = now - lastRefillMillis;
+                long missing = capacity - tokens;
+
+                tokens = elapsed >= (missing + refillPerMillis - 1) / Math.max(1, refillPerMillis)
+                        ? capacity
+                        : tokens + elapsed * refillPerMillis;
+            }
+
+            lastRefillMillis = Math.max(lastRefillMillis, now);
+
+            if (tokens < cost) {
+                return false;
+            }
+
+            tokens -= cost;
+            return true;
+        }
+
+        @Override
+        public long idleAfterMillis() {
+            if (refillPerMillis <= 0) {
+                return lastRefillMillis;
+            }
+
+            return lastRefillMillis
+                    + (capacity - tokens + refillPerMillis - 1) / refillPerMillis;
+        }
+    }
+
+    /*
+     * Per-state idle timeouts. SYN_RECEIVED shares the SYN_SENT timeout
+     * because both are half-open.
+     */
+    static final class IdleTimeouts {
+        static final IdleTimeouts DEFAULT = new IdleTimeouts(
+                30_000L,        // SYN_SENT / SYN_RECEIVED
+                3_600_000L,     // ESTABLISHED
+                120_000L        // FIN_WAIT
+        );
+
+        final long synSentMillis;
+        final long establishedMillis;
+        final long finWaitMillis;
+
+        IdleTimeouts(long synSentMillis, long establishedMillis,
+                     long finWaitMillis) {
+            this.synSentMillis = synSentMillis;
+            this.establishedMillis = establishedMillis;
+            this.finWaitMillis = finWaitMillis;
+        }
+
+        long forState(ConnectionState state) {
+            switch (state) {
+                case SYN_SENT:
+                case SYN_RECEIVED:
+                    return synSentMillis;
+                case ESTABLISHED:
+                    return establishedMillis;
+                case FIN_WAIT:
+                    return finWaitMillis;
+                default:
+                    return 0L;
+            }
         }
     }
 
@@ -563,7 +2625,11 @@ public final class StatefulFirewallSimulator {
             return (ipv4ToLong(ipAddress) & mask) == network;
         }
 
-        private static long ipv4ToLong(String ipAddress) {
+        boolean contains(int address) {
+            return ((address & 0xFFFFFFFFL) & mask) == network;
+        }
+
+        static long ipv4ToLong(String ipAddress) {
             String[] parts = ipAddress.split("\\.");
 
             if (parts.length != 4) {
@@ -594,15 +2660,7 @@ public final class StatefulFirewallSimulator {
         }
     }
 
-    static String connectionKey(
-            String sourceIp, int sourcePort,
-            String destinationIp, int destinationPort,
-            Protocol protocol) {
-
-        return sourceIp + ":" + sourcePort
-                + ">" + destinationIp + ":" + destinationPort
-                + "/" + protocol;
-    }
+    static final long TIMER_TICK_MILLIS = 10L;
 
     static String limit(String text, int maximumLength) {
         return text.length() <= maximumLength
@@ -622,6 +2680,25 @@ public final class StatefulFirewallSimulator {
         TCP, UDP, ANY
     }
 
+    enum ReasonCode {
+        RATE_LIMIT_EXCEEDED,
+        NO_MATCHING_RULE,
+        RULE_ALLOW,
+        RULE_DENY,
+        NEW_TCP_CONNECTION_REQUIRES_SYN,
+        TCP_RESET,
+        CONNECTION_DIRECTION_MISMATCH,
+        STATEFUL_SYN_ACK_ALLOWED,
+        EXPECTED_SYN_ACK,
+        STATEFUL_HANDSHAKE_COMPLETE,
+        EXPECTED_FINAL_ACK,
+        STATEFUL_FIN_ALLOWED,
+        STATEFUL_ESTABLISHED_CONNECTION,
+        STATEFUL_CONNECTION_CLOSED,
+        CONNECTION_CLOSING,
+        CONNECTION_ALREADY_CLOSED
+    }
+
     enum ConnectionState {
         SYN_SENT, SYN_RECEIVED, ESTABLISHED, FIN_WAIT, CLOSED
     }
@@ -1,21 +1,41 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
  * Tamper-evident audit log using SHA-256 hash chaining.
  *
  * Features:
- * - LinkedList-backed audit entries
+ * - ArrayList-backed in-memory audit entries (O(1) access while verifying)
+ * - Durable log: fixed-size mapped segment files, a mapped offset index,
+ *   binary hash chain, group commit and restart from the committed tail
  * - SHA-256(content || previousHash)
- * - Append and verify-all
+ * - Append and verify-all, recomputing entry hashes in parallel chunks
  * - Find exact first tampered entry
  * - Merkle-root batch verification
+ * - Incremental Merkle mountain range with inclusion and consistency proofs
  * - Edit and deletion tampering demonstrations
  * - No JavaFX or external libraries
  */
 public final class TamperEvidentAuditLog {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--benchmark")) {
+            benchmarkVerification(1_000_000, 10_000_000);
+            return;
+        }
+
         AuditLog log = createSampleLog();
 
         System.out.println("Initial audit log:");
@@ -31,6 +51,8 @@ public final class TamperEvidentAuditLog {
 
         demonstrateEditTampering();
         demonstrateDeletionTampering();
+        demonstrateMerkleProofs();
+        demonstrateDurableLog();
     }
 
     private static AuditLog createSampleLog() {
@@ -78,12 +100,212 @@ public final class TamperEvidentAuditLog {
                 + log.verifyMerkleSnapshot(originalSnapshot));
     }
 
+    private static void demonstrateMerkleProofs() {
+        AuditLog log = createSampleLog();
+        MerkleSnapshot monitorView = log.createMerkleSnapshot();
+
+        System.out.println("\n--- Merkle proof demonstration ---");
+
+        log.append("LOGIN user=admin ip=10.0.0.5");
+        log.append("DELETE temp-cache");
+        log.append("LOGOUT user=admin");
+        MerkleSnapshot latest = log.createMerkleSnapshot();
+
+        int oldCount = monitorView.entryCount;
+        int newCount = latest.entryCount;
+        byte[] latestRoot = fromHex(latest.rootHex);
+
+        byte[][] consistency = log.consistencyProof(oldCount, newCount);
+        System.out.println("Consistency " + oldCount + " -> " + newCount
+                + " (" + consistency.length + " hashes): "
+                + MerkleMountainRange.verifyConsistency(oldCount, newCount,
+                        fromHex(monitorView.rootHex), latestRoot, consistency));
+
+        byte[][] inclusion = log.inclusionProof(2, newCount);
+        byte[] entryHash = fromHex(log.entries.get(2).hash);
+        System.out.println("Inclusion of entry #2 ("
+                + inclusion.length + " hashes): "
+                + MerkleMountainRange.verifyInclusion(entryHash, 2, newCount,
+                        inclusion, latestRoot));
+
+        entryHash[0] ^= 1;
+        System.out.println("Inclusion of a forged entry #2: "
+                + MerkleMountainRange.verifyInclusion(entryHash, 2, newCount,
+                        inclusion, latestRoot));
+
+        int leaves = 1_000_000;
+        MerkleMountainRange range = new MerkleMountainRange();
+        byte[] leaf = new byte[32];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < leaves; i++) {
+            leaf[0] = (byte) i;
+            leaf[1] = (byte) (i >>> 8);
+            leaf[2] = (byte) (i >>> 16);
+            range.append(leaf);
+        }
+        long appendNanos = System.nanoTime() - start;
+
+        int oldSize = 999_983;
+        start = System.nanoTime();
+        byte[] oldRoot = range.rootAt(oldSize);
+        byte[] newRoot = range.root();
+        byte[][] proof = range.consistencyProof(oldSize, leaves);
+        boolean consistent = MerkleMountainRange.verifyConsistency(
+                oldSize, leaves, oldRoot, newRoot, proof);
+        long proofNanos = System.nanoTime() - start;
+
+        System.out.printf("Appended %,d leaves in %.0f ms (%.2f us each)%n",
+                leaves, appendNanos / 1e6, appendNanos / 1e3 / leaves);
+        System.out.printf("Consistency %,d -> %,d: %d hashes, %s, "
+                + "%.3f ms including both roots%n",
+                oldSize, leaves, proof.length, consistent, proofNanos / 1e6);
+    }
+
+    private static void demonstrateDurableLog() throws IOException {
+        Path directory = Files.createTempDirectory("audit-log");
+        int extraEntries = 50_000;
+
+        System.out.println("\n--- Durable log demonstration ---");
+
+        long start = System.nanoTime();
+        try (DurableAuditLog log =
+                     DurableAuditLog.open(directory, 1 << 20, 256, 10)) {
+            log.append("LOGIN user=cyber ip=192.168.1.10");
+            log.append("READ confidential-report.pdf");
+            log.append("UPDATE report-status=reviewed");
+            log.append("LOGOUT user=cyber");
+
+            for (int i = 0; i < extraEntries; i++) {
+                log.append("EVENT sequence=" + i + " action=heartbeat");
+            }
+        }
+        long appendNanos = System.nanoTime() - start;
+        int appended = 4 + extraEntries;
+
+        // Simulated crash: these appends never reach a group commit and the
+        // log is never closed.
+        DurableAuditLog crashed =
+                DurableAuditLog.open(directory, 1 << 20, Integer.MAX_VALUE, 60_000);
+        for (int i = 0; i < 3; i++) {
+            int sequence = extraEntries + i;
+            crashed.append("EVENT sequence=" + sequence + " action=unsynced");
+        }
+        String crashedTail = crashed.tailHashHex();
+
+        start = System.nanoTime();
+        try (DurableAuditLog log = DurableAuditLog.open(directory)) {
+            long openNanos = System.nanoTime() - start;
+
+            System.out.printf("Appended %,d entries in %.0f ms (%,.0f entries/s, "
+                    + "group commit every 256)%n",
+                    appended, appendNanos / 1e6, appended / (appendNanos / 1e9));
+            System.out.printf("Reopened in %.2f ms; tail hash %s%n",
+                    openNanos / 1e6, log.tailHashHex());
+            System.out.println("Recovered " + log.recoveredEntries()
+                    + " uncommitted entries after the crash (size " + log.size()
+                    + "); tail hash matches: "
+                    + log.tailHashHex().equals(crashedTail));
+
+            String inMemoryHash = createSampleLog().entries.get(3).hash;
+            System.out.println("Entry #3 hash matches the in-memory log: "
+                    + log.get(3).hash.equals(inMemoryHash));
+            System.out.println("Random access, entry #40000: "
+                    + log.get(40_000).content);
+            System.out.println("Durable chain valid: " + log.verifyAll().valid);
+
+            log.tamperContent(40_000, "EVENT sequence=39996 action=DELETEALL");
+            VerificationResult result = log.verifyAll();
+            System.out.println("After editing entry #40000 on disk, "
+                    + "first tampered index: " + result.entryIndex
+                    + " (" + result.reason + ")");
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void benchmarkVerification(int memoryEntries, int durableEntries)
+            throws IOException {
+        int threads = ForkJoinPool.commonPool().getParallelism();
+
+        AuditLog memoryLog = new AuditLog();
+        for (int i = 0; i < memoryEntries; i++) {
+            memoryLog.append("EVENT sequence=" + i + " action=heartbeat");
+        }
+        timeVerification("In-memory", memoryLog.entries.size(),
+                memoryLog::verifyAll, threads);
+
+        Path directory = Files.createTempDirectory("audit-bench");
+        try (DurableAuditLog log = DurableAuditLog.open(directory)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < durableEntries; i++) {
+                log.append("EVENT sequence=" + i + " action=heartbeat");
+            }
+            log.sync();
+            System.out.printf("Appended %,d durable entries in %.1f s%n",
+                    log.size(), (System.nanoTime() - start) / 1e9);
+
+            timeVerification("Durable", log.size(), log::verifyAll, threads);
+
+            int late = durableEntries / 10 * 7;
+            log.tamperContent(late, "EVENT sequence=" + late + " action=DELETEALL");
+            start = System.nanoTime();
+            VerificationResult result = log.verifyAll(true);
+            System.out.printf("Tampered #%,d: first tampered index %,d "
+                    + "in %.0f ms%n",
+                    late, result.entryIndex, (System.nanoTime() - start) / 1e6);
+
+            int early = 10_000;
+            log.tamperContent(early,
+                    "EVENT sequence=" + early + " action=DELETEALL");
+            start = System.nanoTime();
+            result = log.verifyAll(true);
+            System.out.printf("Tampered #%,d as well: first tampered index %,d "
+                    + "in %.0f ms%n",
+                    early, result.entryIndex, (System.nanoTime() - start) / 1e6);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private interface Verifier {
+        VerificationResult verifyAll(boolean parallel);
+    }
+
+    private static void timeVerification(String label, int entries,
+                                         Verifier verifier, int threads) {
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            boolean serial = verifier.verifyAll(false).valid;
+            long serialNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            boolean parallel = verifier.verifyAll(true).valid;
+            long parallelNanos = System.nanoTime() - start;
+
+            System.out.printf("%s verify %,d entries: serial %.0f ms, "
+                    + "parallel %.0f ms on %d threads (%s/%s)%n",
+                    label, entries, serialNanos / 1e6, parallelNanos / 1e6,
+                    threads, serial, parallel);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
     // ================================================================
     // Audit log
     // ================================================================
 
     static final class AuditLog {
-        private final LinkedList<AuditEntry> entries = new LinkedList<AuditEntry>();
+        private static final String ZERO_HASH = zeros(64);
+
+        private final ArrayList<AuditEntry> entries = new ArrayList<AuditEntry>();
+        private MerkleMountainRange merkle = new MerkleMountainRange();
 
         public void append(String content) {
             if (content == null || content.length() == 0) {
@@ -91,88 +313,94 @@ public final class TamperEvidentAuditLog {
             }
 
             String previousHash = entries.isEmpty()
-                    ? zeros(64)
-                    : entries.getLast().hash;
+                    ? ZERO_HASH
+                    : entries.get(entries.size() - 1).hash;
 
             int index = entries.size();
             String hash = calculateEntryHash(index, content, previousHash);
 
             entries.add(new AuditEntry(index, content, previousHash, hash));
+            merkle.append(fromHex(hash));
+        }
+
+        public VerificationResult verifyAll() {
+            return verifyAll(true);
         }
 
         /*
-         * Verifies each entry in order.
          * Returns the exact first location where tampering is detected.
+         * Each entry is checked against its own fields and the stored hash of
+         * the entry before it, so chunks of the log can be hashed in parallel.
          */
-        public VerificationResult verifyAll() {
-            String expectedPreviousHash = zeros(64);
+        public VerificationResult verifyAll(boolean parallel) {
+            return verifyChunked(entries.size(), this::checkEntry, parallel);
+        }
 
-            for (int i = 0; i < entries.size(); i++) {
-                AuditEntry entry = entries.get(i);
+        private String checkEntry(int i) {
+            AuditEntry entry = entries.get(i);
 
-                if (entry.index != i) {
-                    return new VerificationResult(
-                            false,
-                            i,
-                            "Entry index was changed or an entry was deleted"
-                    );
-                }
+            if (entry.index != i) {
+                return "Entry index was changed or an entry was deleted";
+            }
 
-                if (!entry.previousHash.equals(expectedPreviousHash)) {
-                    return new VerificationResult(
-                            false,
-                            i,
-                            "Previous-hash link is broken"
-                    );
-                }
+            String expectedPreviousHash = i == 0 ? ZERO_HASH : entries.get(i - 1).hash;
+            if (!entry.previousHash.equals(expectedPreviousHash)) {
+                return "Previous-hash link is broken";
+            }
 
-                String expectedHash = calculateEntryHash(
-                        entry.index,
-                        entry.content,
-                        entry.previousHash
-                );
-
-                if (!entry.hash.equals(expectedHash)) {
-                    return new VerificationResult(
-                            false,
-                            i,
-                            "Content or stored hash was changed"
-                    );
-                }
+            String expectedHash = calculateEntryHash(
+                    entry.index,
+                    entry.content,
+                    entry.previousHash
+            );
 
-                expectedPreviousHash = entry.hash;
+            if (!entry.hash.equals(expectedHash)) {
+                return "Content or stored hash was changed";
             }
 
-            return new VerificationResult(true, -1, "Audit chain is valid");
+            return null;
         }
 
         /*
          * Creates a compact Merkle snapshot of all entry hashes.
-         * A later comparison quickly shows whether any entry changed.
+         * The mountain range is maintained by append, so this costs
+         * O(log n) hashes instead of rebuilding the tree.
          */
         public MerkleSnapshot createMerkleSnapshot() {
-            if (entries.isEmpty()) {
-                return new MerkleSnapshot(sha256Hex("EMPTY_AUDIT_LOG"), 0);
-            }
-
-            String[] hashes = new String[entries.size()];
-
-            for (int i = 0; i < entries.size(); i++) {
-                hashes[i] = entries.get(i).hash;
-            }
-
-            return new MerkleSnapshot(calculateMerkleRoot(hashes), hashes.length);
+            return new MerkleSnapshot(toHex(merkle.root()), merkle.size());
         }
 
+        /*
+         * True when the current log still extends the snapshot: a consistency
+         * proof must link the snapshot root to the current root. A log that
+         * grew since the snapshot passes; rewritten or removed history does not.
+         */
         public boolean verifyMerkleSnapshot(MerkleSnapshot snapshot) {
-            if (snapshot == null) {
+            if (snapshot == null || snapshot.entryCount < 0 || snapshot.entryCount > merkle.size()
+                    || snapshot.rootHex == null || snapshot.rootHex.length() != 64
+                    || merkle.size() != entries.size()) {
+                return false;
+            }
+
+            byte[] oldRoot;
+            try {
+                oldRoot = fromHex(snapshot.rootHex);
+            } catch (IllegalArgumentException e) {
                 return false;
             }
+            byte[] newRoot = merkle.root();
+            byte[][] proof = merkle.consistencyProof(snapshot.entryCount, merkle.size());
+
+            return MerkleMountainRange.verifyConsistency(
+                    snapshot.entryCount, merkle.size(), oldRoot, newRoot, proof);
+        }
 
-            MerkleSnapshot current = createMerkleSnapshot();
+        public byte[][] inclusionProof(int index, int treeSize) {
+            return merkle.inclusionProof(index, treeSize);
+        }
 
-            return current.entryCount == snapshot.entryCount
-                    && constantTimeEquals(current.rootHex, snapshot.rootHex);
+        public byte[][] consistencyProof(int oldSize, int newSize) {
+            return merkle.consistencyProof(oldSize, newSize);
         }
 
         public void printEntries() {
@@ -196,6 +424,12 @@ public final class TamperEvidentAuditLog {
         public void deleteEntry(int index) {
             checkIndex(index);
             entries.remove(index);
+
+            // An attacker with write access rebuilds the derived tree as well.
+            merkle = new MerkleMountainRange();
+            for (AuditEntry entry : entries) {
+                merkle.append(fromHex(entry.hash));
+            }
         }
 
         private void checkIndex(int index) {
@@ -242,56 +476,954 @@ public final class TamperEvidentAuditLog {
     }
 
     // ================================================================
-    // Hash chain and Merkle tree
+    // Chunked verification
     // ================================================================
 
+    private static final int VERIFY_CHUNK = 4096;
+
     /*
-     * SHA-256(index || content || previousHash).
-     * Length separators prevent ambiguous concatenation.
+     * Checks entry i against its own stored fields and the stored hash of
+     * entry i - 1 only, returning why it fails or null. Up to the first
+     * failure that stored hash equals the recomputed one, so the lowest
+     * failing index and its reason match a sequential walk.
+     * Called from several threads at once.
      */
-    private static String calculateEntryHash(
-            int index, String content, String previousHash) {
+    private interface EntryCheck {
+        String check(int index);
+    }
 
-        String encoded = "index=" + index
-                + "|contentLength=" + content.length()
-                + "|content=" + content
-                + "|previousHash=" + previousHash;
+    /*
+     * Runs the checks in VERIFY_CHUNK-entry chunks on the common ForkJoinPool.
+     * The lowest failing index found so far is shared; chunks and entries
+     * above it are skipped, so after tampering is found only the work that
+     * could still find an earlier index goes on.
+     */
+    private static VerificationResult verifyChunked(int count, EntryCheck check, boolean parallel) {
+        AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
 
-        return sha256Hex(encoded);
+        if (parallel && count > VERIFY_CHUNK) {
+            ForkJoinPool.commonPool().invoke(new VerifyTask(check, 0, count, firstFailure));
+        } else {
+            VerifyTask.scan(check, 0, count, firstFailure);
+        }
+
+        int first = firstFailure.get();
+        if (first == Integer.MAX_VALUE) {
+            return new VerificationResult(true, -1, "Audit chain is valid");
+        }
+
+        return new VerificationResult(false, first, check.check(first));
+    }
+
+    private static final class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryCheck check;
+        private final int from;
+        private final int to;
+        private final AtomicInteger firstFailure;
+
+        VerifyTask(EntryCheck check, int from, int to, AtomicInteger firstFailure) {
+            this.check = check;
+            this.from = from;
+            this.to = to;
+            this.firstFailure = firstFailure;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= firstFailure.get()) return;
+
+            if (to - from <= VERIFY_CHUNK) {
+                scan(check, from, to, firstFailure);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new VerifyTask(check, from, middle, firstFailure),
+                    new VerifyTask(check, middle, to, firstFailure));
+        }
+
+        static void scan(EntryCheck check, int from, int to, AtomicInteger firstFailure) {
+            for (int i = from; i < to && i < firstFailure.get(); i++) {
+                if (check.check(i) != null) {
+                    firstFailure.accumulateAndGet(i, Math::min);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Per-thread hasher and buffers for checking durable records.
+    private static final class VerifyScratch {
+        private static final ThreadLocal<VerifyScratch> CURRENT = new ThreadLocal<>();
+
+        final EntryHasher hasher = new EntryHasher();
+        final byte[] expectedPrevious = new byte[32];
+        final byte[] stored = new byte[32];
+        final byte[] computed = new byte[32];
+        private byte[] content = new byte[256];
+
+        static VerifyScratch current() {
+            VerifyScratch scratch = CURRENT.get();
+            if (scratch == null) {
+                scratch = new VerifyScratch();
+                CURRENT.set(scratch);
+            }
+            return scratch;
+        }
+
+        byte[] content(int length) {
+            if (content.length < length) content = new byte[length];
+            return content;
+        }
     }
 
-    private static String calculateMerkleRoot(String[] hashes) {
-        if (hashes.length == 0) {
-            return sha256Hex("EMPTY_AUDIT_LOG");
+    // ================================================================
+    // Merkle mountain range: append-only accumulator with proofs
+    // ================================================================
+
+    /*
+     * RFC 6962 / RFC 9162 Merkle tree over entry hashes, kept as a mountain
+     * range: levels[h] stores the root of every complete, aligned subtree of
+     * 2^h leaves. An append adds one leaf and merges completed pairs upward,
+     * O(log n) worst case and O(1) amortized. The root and any subtree hash
+     * needed by a proof come from stored nodes plus O(log n) hashing, so
+     * nothing is rebuilt from the leaves.
+     *
+     * Leaves hash as SHA-256(0x00 || entryHash), interior nodes as
+     * SHA-256(0x01 || left || right); the domain bytes stop a leaf from
+     * passing for a node.
+     */
+    static final class MerkleMountainRange {
+        private static final byte[] EMPTY_ROOT = fromHex(sha256Hex("EMPTY_AUDIT_LOG"));
+
+        private byte[][] levels = { new byte[32 * 16] };
+        private int[] counts = new int[1];
+        private int size;
+        private final MessageDigest digest = newSha256();
+
+        int size() {
+            return size;
+        }
+
+        void append(byte[] entryHash) {
+            int index = size;
+            ensureCapacity(0, index + 1);
+            leafHash(digest, entryHash, levels[0], index * 32);
+            counts[0] = index + 1;
+
+            // A right child completes its pair; keep merging while that happens.
+            int height = 0;
+            for (int node = index; (node & 1) == 1; node >>>= 1, height++) {
+                if (height + 1 == levels.length) {
+                    levels = Arrays.copyOf(levels, levels.length + 1);
+                    counts = Arrays.copyOf(counts, counts.length + 1);
+                    levels[height + 1] = new byte[32 * 16];
+                }
+
+                int parent = node >>> 1;
+                ensureCapacity(height + 1, parent + 1);
+                nodeHash(digest, levels[height], (node - 1) * 32, levels[height], node * 32,
+                        levels[height + 1], parent * 32);
+                counts[height + 1] = parent + 1;
+            }
+
+            size = index + 1;
+        }
+
+        byte[] root() {
+            return rootAt(size);
+        }
+
+        // Root of the tree as it was after the first treeSize appends.
+        byte[] rootAt(int treeSize) {
+            if (treeSize < 0 || treeSize > size) throw new IllegalArgumentException("Invalid tree size");
+            return treeSize == 0 ? EMPTY_ROOT.clone() : rangeHash(0, treeSize);
+        }
+
+        /*
+         * RFC 6962 PATH(m, D[n]): sibling hashes from the leaf upward.
+         */
+        byte[][] inclusionProof(int leafIndex, int treeSize) {
+            if (treeSize < 1 || treeSize > size || leafIndex < 0 || leafIndex >= treeSize) {
+                throw new IllegalArgumentException("Invalid leaf index or tree size");
+            }
+
+            ArrayList<byte[]> proof = new ArrayList<byte[]>();
+            inclusionPath(leafIndex, 0, treeSize, proof);
+            return proof.toArray(new byte[0][]);
+        }
+
+        /*
+         * RFC 6962 PROOF(m, D[n]): the hashes needed to show the tree of size
+         * oldSize is a prefix of the tree of size newSize.
+         */
+        byte[][] consistencyProof(int oldSize, int newSize) {
+            if (oldSize < 0 || oldSize > newSize || newSize > size) {
+                throw new IllegalArgumentException("Invalid tree sizes");
+            }
+
+            ArrayList<byte[]> proof = new ArrayList<byte[]>();
+            if (oldSize > 0 && oldSize < newSize) {
+                subproof(oldSize, 0, newSize, true, proof);
+            }
+            return proof.toArray(new byte[0][]);
+        }
+
+        private void inclusionPath(int leafIndex, int start, int end, ArrayList<byte[]> proof) {
+            if (end - start == 1) return;
+
+            int split = largestPowerOfTwoBelow(end - start);
+            if (leafIndex < split) {
+                inclusionPath(leafIndex, start, start + split, proof);
+                proof.add(rangeHash(start + split, end));
+            } else {
+                inclusionPath(leafIndex - split, start + split, end, proof);
+                proof.add(rangeHash(start, start + split));
+            }
+        }
+
+        private void subproof(int oldSize, int start, int end, boolean complete, ArrayList<byte[]> proof) {
+            int count = end - start;
+
+            if (oldSize == count) {
+                if (!complete) proof.add(rangeHash(start, end));
+                return;
+            }
+
+            int split = largestPowerOfTwoBelow(count);
+            if (oldSize <= split) {
+                subproof(oldSize, start, start + split, complete, proof);
+                proof.add(rangeHash(start + split, end));
+            } else {
+                subproof(oldSize - split, start + split, end, false, proof);
+                proof.add(rangeHash(start, start + split));
+            }
+        }
+
+        // MTH(D[start:end]): a stored node when the range is an aligned power of
+        // two, otherwise the RFC split at the largest power of two below the size.
+        private byte[] rangeHash(int start, int end) {
+            int count = end - start;
+
+            if (Integer.bitCount(count) == 1 && start % count == 0) {
+                int height = Integer.numberOfTrailingZeros(count);
+                return Arrays.copyOfRange(levels[height], (start >>> height) * 32, (start >>> height) * 32 + 32);
+            }
+
+            int split = largestPowerOfTwoBelow(count);
+            byte[] left = rangeHash(start, start + split);
+            byte[] right = rangeHash(start + split, end);
+            byte[] parent = new byte[32];
+            nodeHash(digest, left, 0, right, 0, parent, 0);
+            return parent;
+        }
+
+        private void ensureCapacity(int height, int nodes) {
+            if (levels[height].length >= nodes * 32) return;
+            levels[height] = Arrays.copyOf(levels[height], Math.max(nodes, levels[height].length / 16) * 32);
         }
 
-        String[] currentLevel = new String[hashes.length];
+        static boolean verifyInclusion(byte[] entryHash, int leafIndex, int treeSize,
+                                       byte[][] proof, byte[] expectedRoot) {
+            if (leafIndex < 0 || leafIndex >= treeSize || !isHash(entryHash)
+                    || !isHash(expectedRoot) || !areHashes(proof)) {
+                return false;
+            }
+
+            MessageDigest digest = newSha256();
+            long fn = leafIndex;
+            long sn = treeSize - 1;
+            byte[] r = new byte[32];
+            leafHash(digest, entryHash, r, 0);
+
+            for (byte[] p : proof) {
+                if (sn == 0) return false;
+
+                if ((fn & 1) == 1 || fn == sn) {
+                    nodeHash(digest, p, 0, r, 0, r, 0);
+                    if ((fn & 1) == 0) {
+                        while ((fn & 1) == 0 && fn != 0) {
+                            fn >>= 1;
+                            sn >>= 1;
+                        }
+                    }
+                } else {
+                    nodeHash(digest, r, 0, p, 0, r, 0);
+                }
+
+                fn >>= 1;
+                sn >>= 1;
+            }
 
-        for (int i = 0; i < hashes.length; i++) {
-            currentLevel[i] = hashes[i];
+            return sn == 0 && MessageDigest.isEqual(r, expectedRoot);
         }
 
-        int currentLength = currentLevel.length;
+        /*
+         * RFC 9162 section 2.1.4.2. A monitor that trusts (oldSize, oldRoot)
+         * can accept (newSize, newRoot) after O(log n) hashes.
+         */
+        static boolean verifyConsistency(int oldSize, int newSize, byte[] oldRoot,
+                                         byte[] newRoot, byte[][] proof) {
+            if (oldSize < 0 || oldSize > newSize || !isHash(oldRoot)
+                    || !isHash(newRoot) || !areHashes(proof)) {
+                return false;
+            }
+            if (oldSize == newSize) return proof.length == 0 && MessageDigest.isEqual(oldRoot, newRoot);
+            if (oldSize == 0) return proof.length == 0 && MessageDigest.isEqual(oldRoot, EMPTY_ROOT);
+            if (proof.length == 0) return false;
+
+            byte[][] path = proof;
+            if (Integer.bitCount(oldSize) == 1) {
+                path = new byte[proof.length + 1][];
+                path[0] = oldRoot;
+                System.arraycopy(proof, 0, path, 1, proof.length);
+            }
 
-        while (currentLength > 1) {
-            int nextLength = (currentLength + 1) / 2;
-            String[] nextLevel = new String[nextLength];
+            MessageDigest digest = newSha256();
+            long fn = oldSize - 1;
+            long sn = newSize - 1;
 
-            for (int i = 0; i < nextLength; i++) {
-                String left = currentLevel[i * 2];
+            while ((fn & 1) == 1) {
+                fn >>= 1;
+                sn >>= 1;
+            }
 
-                String right = (i * 2 + 1 < currentLength)
-                        ? currentLevel[i * 2 + 1]
-                        : left;
+            byte[] fr = path[0].clone();
+            byte[] sr = path[0].clone();
+
+            for (int i = 1; i < path.length; i++) {
+                byte[] c = path[i];
+                if (sn == 0) return false;
+
+                if ((fn & 1) == 1 || fn == sn) {
+                    nodeHash(digest, c, 0, fr, 0, fr, 0);
+                    nodeHash(digest, c, 0, sr, 0, sr, 0);
+                    if ((fn & 1) == 0) {
+                        while ((fn & 1) == 0 && fn != 0) {
+                            fn >>= 1;
+                            sn >>= 1;
+                        }
+                    }
+                } else {
+                    nodeHash(digest, sr, 0, c, 0, sr, 0);
+                }
 
-                nextLevel[i] = sha256Hex(left + right);
+                fn >>= 1;
+                sn >>= 1;
             }
 
-            currentLevel = nextLevel;
-            currentLength = nextLength;
+            return sn == 0 && MessageDigest.isEqual(fr, oldRoot) && MessageDigest.isEqual(sr, newRoot);
+        }
+
+        // Proofs come from untrusted parties: anything but 32-byte hashes fails verification.
+        private static boolean isHash(byte[] hash) {
+            return hash != null && hash.length == 32;
+        }
+
+        private static boolean areHashes(byte[][] proof) {
+            if (proof == null) return false;
+            for (byte[] hash : proof) {
+                if (!isHash(hash)) return false;
+            }
+            return true;
         }
 
-        return currentLevel[0];
+        private static MessageDigest newSha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (Exception e) {
+                throw new IllegalStateException("SHA-256 is unavailable", e);
+            }
+        }
+
+        private static int largestPowerOfTwoBelow(int n) {
+            return Integer.highestOneBit(n - 1);
+        }
+
+        private static void leafHash(MessageDigest digest, byte[] entryHash, byte[] out, int outOffset) {
+            digest.update((byte) 0x00);
+            digest.update(entryHash, 0, 32);
+            finish(digest, out, outOffset);
+        }
+
+        // Safe when out aliases left or right: both are consumed before digest() writes.
+        private static void nodeHash(MessageDigest digest, byte[] left, int leftOffset,
+                                     byte[] right, int rightOffset, byte[] out, int outOffset) {
+            digest.update((byte) 0x01);
+            digest.update(left, leftOffset, 32);
+            digest.update(right, rightOffset, 32);
+            finish(digest, out, outOffset);
+        }
+
+        private static void finish(MessageDigest digest, byte[] out, int outOffset) {
+            try {
+                digest.digest(out, outOffset, 32);
+            } catch (Exception e) {
+                throw new IllegalStateException("SHA-256 failed", e);
+            }
+        }
+    }
+
+    // ================================================================
+    // Durable audit log: segment files, mapped offset index, binary chain
+    // ================================================================
+
+    /*
+     * On-disk layout (all integers big-endian):
+     *
+     *   audit.idx             64-byte header, then one 8-byte offset per entry
+     *     header              magic "AUDX", version, segment size, committed
+     *                         entry count, next write offset, tail hash (32)
+     *   segment-00000000.log  fixed-size, preallocated, memory-mapped
+     *     record              total length, index, previous hash (32),
+     *                         content, entry hash (32)
+     *
+     * Offsets are logical: segment * segmentSize + position. A length of -1
+     * marks the unused end of a segment and 0 marks the end of the log.
+     * Entry hashes are exactly those of calculateEntryHash, stored as raw bytes.
+     *
+     * Appends become durable at the next group commit: after a number of
+     * entries, on the first append past a time limit, or on sync()/close().
+     * A commit forces the new records, then their index entries, then the
+     * header. On open only records past the committed header are re-hashed
+     * and recovered.
+     *
+     * One instance per directory. Appends and single-entry reads share the
+     * instance lock, so readers may run on other threads than the writer.
+     */
+    static final class DurableAuditLog implements Closeable {
+        static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+        private static final int INDEX_MAGIC = 0x41554458; // "AUDX"
+        private static final int INDEX_VERSION = 1;
+        private static final int INDEX_HEADER_SIZE = 64;
+        private static final int INDEX_CHUNK_ENTRIES = 1 << 20;
+        private static final int RECORD_OVERHEAD = 4 + 4 + 32 + 32;
+        private static final int END_OF_SEGMENT = -1;
+
+        private final Path directory;
+        private final int segmentSize;
+        private final int groupCommitEntries;
+        private final long groupCommitNanos;
+        private final MappedByteBuffer indexHeader;
+        private final EntryHasher hasher = new EntryHasher();
+        private final byte[] tailHash = new byte[32];
+        private final byte[] hashScratch = new byte[32];
+
+        // Replaced, never mutated, when they grow, so readers can use them unlocked.
+        private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        private volatile MappedByteBuffer[] indexChunks = new MappedByteBuffer[0];
+
+        private volatile int count;
+        private long nextOffset;
+        private int syncedCount;
+        private long syncedOffset;
+        private long lastSyncNanos = System.nanoTime();
+        private int recoveredEntries;
+        private boolean closed;
+
+        private DurableAuditLog(Path directory, int segmentSize, int groupCommitEntries,
+                                long groupCommitMillis, MappedByteBuffer indexHeader) {
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+            this.groupCommitEntries = groupCommitEntries;
+            this.groupCommitNanos = groupCommitMillis * 1_000_000L;
+            this.indexHeader = indexHeader;
+        }
+
+        static DurableAuditLog open(Path directory) throws IOException {
+            return open(directory, DEFAULT_SEGMENT_SIZE, 256, 10);
+        }
+
+        /*
+         * Opens or creates a log. The segment size of an existing log is read
+         * from its header; the argument only applies to new logs.
+         */
+        static DurableAuditLog open(Path directory, int segmentSize, int groupCommitEntries,
+                                    long groupCommitMillis) throws IOException {
+            if (segmentSize < RECORD_OVERHEAD + 8 || groupCommitEntries < 1 || groupCommitMillis < 0) {
+                throw new IllegalArgumentException("Invalid durable log settings");
+            }
+
+            Files.createDirectories(directory);
+            Path indexPath = directory.resolve("audit.idx");
+            boolean fresh = !Files.exists(indexPath);
+
+            MappedByteBuffer header;
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                header = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE);
+            }
+
+            if (fresh) {
+                header.putInt(0, INDEX_MAGIC).putInt(4, INDEX_VERSION).putInt(8, segmentSize);
+                header.force();
+            } else if (header.getInt(0) != INDEX_MAGIC || header.getInt(4) != INDEX_VERSION) {
+                throw new IOException("Not an audit log index: " + indexPath);
+            }
+
+            DurableAuditLog log = new DurableAuditLog(directory, header.getInt(8),
+                    groupCommitEntries, groupCommitMillis, header);
+            log.restore();
+            return log;
+        }
+
+        // Trusts the committed header, then re-hashes only what was written after it.
+        private void restore() throws IOException {
+            count = indexHeader.getInt(12);
+            nextOffset = indexHeader.getLong(16);
+            indexHeader.get(24, tailHash);
+
+            for (int segment = 0; Files.exists(segmentPath(segment)); segment++) {
+                segment(segment);
+            }
+
+            for (int chunk = 0; chunk * (long) INDEX_CHUNK_ENTRIES < count; chunk++) {
+                indexChunk(chunk);
+            }
+
+            byte[] previous = new byte[32];
+            byte[] content = new byte[256];
+
+            while (true) {
+                int segment = segmentOf(nextOffset);
+                int position = positionOf(nextOffset);
+                if (segment >= segments.length || position + 4 > segmentSize) break;
+
+                MappedByteBuffer buffer = segments[segment];
+                int recordLength = buffer.getInt(position);
+
+                if (recordLength == END_OF_SEGMENT) {
+                    if (segment + 1 >= segments.length) break;
+                    nextOffset = (segment + 1L) * segmentSize;
+                    continue;
+                }
+
+                if (recordLength <= RECORD_OVERHEAD || recordLength > segmentSize - 4 - position) break;
+                if (buffer.getInt(position + 4) != count) break;
+
+                buffer.get(position + 8, previous);
+                if (!Arrays.equals(previous, tailHash)) break;
+
+                int contentLength = recordLength - RECORD_OVERHEAD;
+                if (content.length < contentLength) content = new byte[contentLength];
+                buffer.get(position + 40, content, 0, contentLength);
+                hasher.hash(count, content, contentLength, previous, hashScratch);
+
+                buffer.get(position + 40 + contentLength, previous);
+                if (!Arrays.equals(previous, hashScratch)) break;
+
+                putIndex(count, nextOffset);
+                System.arraycopy(hashScratch, 0, tailHash, 0, 32);
+                count++;
+                nextOffset += recordLength;
+                recoveredEntries++;
+            }
+
+            // Anything past the recovered tail is a torn write; mark the end of the log.
+            int segment = segmentOf(nextOffset);
+            int position = positionOf(nextOffset);
+            if (segment < segments.length && position + 4 <= segmentSize) {
+                segments[segment].putInt(position, 0);
+            }
+
+            syncedCount = indexHeader.getInt(12);
+            syncedOffset = indexHeader.getLong(16);
+            if (recoveredEntries > 0) sync();
+        }
+
+        synchronized int append(String content) throws IOException {
+            if (closed) throw new IllegalStateException("Audit log is closed");
+            if (content == null || content.length() == 0) {
+                throw new IllegalArgumentException("Audit content cannot be empty");
+            }
+
+            byte[] bytes = utf8LikeBytes(content);
+            int recordLength = RECORD_OVERHEAD + bytes.length;
+            if (recordLength > segmentSize - 4) {
+                throw new IllegalArgumentException("Audit entry does not fit in a segment");
+            }
+
+            int segment = segmentOf(nextOffset);
+            int position = positionOf(nextOffset);
+
+            // Keep 4 bytes after every record for the end-of-log or end-of-segment marker.
+            if (recordLength > segmentSize - 4 - position) {
+                segment(segment).putInt(position, END_OF_SEGMENT);
+                segment++;
+                position = 0;
+                nextOffset = (long) segment * segmentSize;
+            }
+
+            MappedByteBuffer buffer = segment(segment);
+            hasher.hash(count, bytes, bytes.length, tailHash, hashScratch);
+
+            buffer.putInt(position + recordLength, 0);
+            buffer.put(position + 8, tailHash);
+            buffer.put(position + 40, bytes);
+            buffer.put(position + 40 + bytes.length, hashScratch);
+            buffer.putInt(position + 4, count);
+            buffer.putInt(position, recordLength);
+
+            putIndex(count, nextOffset);
+            System.arraycopy(hashScratch, 0, tailHash, 0, 32);
+            nextOffset += recordLength;
+            int index = count++;
+
+            if (count - syncedCount >= groupCommitEntries
+                    || System.nanoTime() - lastSyncNanos >= groupCommitNanos) {
+                sync();
+            }
+
+            return index;
+        }
+
+        /*
+         * Group commit: forces the records written since the last commit, their
+         * index slots, and finally the header that makes them visible on restart.
+         */
+        synchronized void sync() {
+            if (count == syncedCount) return;
+
+            for (long offset = syncedOffset; offset < nextOffset; ) {
+                int segment = segmentOf(offset);
+                int from = positionOf(offset);
+                long segmentEnd = (segment + 1L) * segmentSize;
+                int to = nextOffset < segmentEnd ? positionOf(nextOffset) : segmentSize;
+                segments[segment].force(from, to - from);
+                offset = segmentEnd;
+            }
+
+            for (int entry = syncedCount; entry < count; ) {
+                int chunk = entry / INDEX_CHUNK_ENTRIES;
+                int from = entry % INDEX_CHUNK_ENTRIES;
+                int to = Math.min(count - chunk * INDEX_CHUNK_ENTRIES, INDEX_CHUNK_ENTRIES);
+                indexChunks[chunk].force(from * 8, (to - from) * 8);
+                entry = chunk * INDEX_CHUNK_ENTRIES + to;
+            }
+
+            indexHeader.putInt(12, count).putLong(16, nextOffset).put(24, tailHash);
+            indexHeader.force();
+
+            syncedCount = count;
+            syncedOffset = nextOffset;
+            lastSyncNanos = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            sync();
+            closed = true;
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        synchronized int recoveredEntries() {
+            return recoveredEntries;
+        }
+
+        synchronized String tailHashHex() {
+            return toHex(tailHash);
+        }
+
+        // O(1): one index slot, then one record in a mapped segment.
+        synchronized AuditEntry get(int index) {
+            checkIndex(index);
+
+            long offset = checkedOffset(index);
+            MappedByteBuffer buffer = segments[segmentOf(offset)];
+            int position = positionOf(offset);
+            int contentLength = readRecordLength(buffer, position) - RECORD_OVERHEAD;
+
+            byte[] previous = new byte[32];
+            byte[] content = new byte[contentLength];
+            byte[] hash = new byte[32];
+            buffer.get(position + 8, previous);
+            buffer.get(position + 40, content);
+            buffer.get(position + 40 + contentLength, hash);
+
+            return new AuditEntry(buffer.getInt(position + 4), asciiString(content),
+                    toHex(previous), toHex(hash));
+        }
+
+        public VerificationResult verifyAll() {
+            return verifyAll(true);
+        }
+
+        // Checks the entries present at the call; appends may continue meanwhile.
+        public VerificationResult verifyAll(boolean parallel) {
+            int size;
+            long end;
+            byte[] expectedTail;
+            synchronized (this) {
+                size = count;
+                end = nextOffset;
+                expectedTail = tailHash.clone();
+            }
+
+            VerificationResult result = verifyChunked(size, i -> checkEntry(i, end), parallel);
+
+            if (result.valid && size > 0) {
+                byte[] last = new byte[32];
+                long offset = indexOffset(size - 1);
+                MappedByteBuffer buffer = segments[segmentOf(offset)];
+                int position = positionOf(offset);
+                buffer.get(position + buffer.getInt(position) - 32, last);
+
+                if (!Arrays.equals(last, expectedTail)) {
+                    return new VerificationResult(false, size - 1, "Tail hash does not match the last entry");
+                }
+            }
+
+            return result;
+        }
+
+        private String checkEntry(int i, long end) {
+            VerifyScratch scratch = VerifyScratch.current();
+
+            long offset = recordOffset(i, end);
+            if (offset < 0) {
+                return "Index offset was changed";
+            }
+
+            MappedByteBuffer buffer = segments[segmentOf(offset)];
+            int position = positionOf(offset);
+            int recordLength = buffer.getInt(position);
+
+            if (recordLength <= RECORD_OVERHEAD || recordLength > segmentSize - position) {
+                return "Record length was changed";
+            }
+
+            if (buffer.getInt(position + 4) != i) {
+                return "Entry index was changed or an entry was deleted";
+            }
+
+            // The previous record's stored hash stands in for the one a
+            // sequential walk would have recomputed; they agree up to the
+            // first failure, which is the only index reported.
+            if (i == 0) {
+                Arrays.fill(scratch.expectedPrevious, (byte) 0);
+            } else {
+                long previousOffset = recordOffset(i - 1, end);
+                if (previousOffset < 0) {
+                    return "Previous-hash link is broken";
+                }
+
+                MappedByteBuffer previousBuffer = segments[segmentOf(previousOffset)];
+                int previousPosition = positionOf(previousOffset);
+                int previousLength = previousBuffer.getInt(previousPosition);
+
+                if (previousLength <= RECORD_OVERHEAD || previousLength > segmentSize - previousPosition) {
+                    return "Previous-hash link is broken";
+                }
+                previousBuffer.get(previousPosition + previousLength - 32, scratch.expectedPrevious);
+            }
+
+            buffer.get(position + 8, scratch.stored);
+            if (!Arrays.equals(scratch.stored, scratch.expectedPrevious)) {
+                return "Previous-hash link is broken";
+            }
+
+            int contentLength = recordLength - RECORD_OVERHEAD;
+            byte[] content = scratch.content(contentLength);
+            buffer.get(position + 40, content, 0, contentLength);
+            scratch.hasher.hash(i, content, contentLength, scratch.expectedPrevious, scratch.computed);
+
+            buffer.get(position + 40 + contentLength, scratch.stored);
+            if (!Arrays.equals(scratch.stored, scratch.computed)) {
+                return "Content or stored hash was changed";
+            }
+
+            return null;
+        }
+
+        // Simulates an attacker editing a record in place on disk (same length).
+        public synchronized void tamperContent(int index, String replacementContent) {
+            checkIndex(index);
+
+            long offset = checkedOffset(index);
+            MappedByteBuffer buffer = segments[segmentOf(offset)];
+            int position = positionOf(offset);
+            byte[] replacement = utf8LikeBytes(replacementContent);
+            int contentLength = readRecordLength(buffer, position) - RECORD_OVERHEAD;
+
+            buffer.put(position + 40, replacement, 0, Math.min(contentLength, replacement.length));
+        }
+
+        /*
+         * Index slots are on disk too, so a slot is only followed when it points
+         * into the written log and the mapped segments, past the previous
+         * entry's slot. Returns -1 otherwise.
+         */
+        private long recordOffset(int index, long end) {
+            long offset = indexOffset(index);
+            if (offset < 0 || offset >= end || segmentOf(offset) >= segments.length
+                    || positionOf(offset) > segmentSize - 4) {
+                return -1;
+            }
+            if (index > 0 && offset <= indexOffset(index - 1)) return -1;
+            return offset;
+        }
+
+        private long checkedOffset(int index) {
+            long offset = recordOffset(index, nextOffset);
+            if (offset < 0) {
+                throw new IllegalStateException("Corrupt audit index slot " + index);
+            }
+            return offset;
+        }
+
+        private int readRecordLength(MappedByteBuffer buffer, int position) {
+            int recordLength = buffer.getInt(position);
+            if (recordLength <= RECORD_OVERHEAD || recordLength > segmentSize - position) {
+                throw new IllegalStateException("Corrupt audit record at " + position);
+            }
+            return recordLength;
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= count) {
+                throw new IllegalArgumentException("Invalid audit entry index");
+            }
+        }
+
+        private int segmentOf(long offset) {
+            return (int) (offset / segmentSize);
+        }
+
+        private int positionOf(long offset) {
+            return (int) (offset % segmentSize);
+        }
+
+        private Path segmentPath(int segment) {
+            return directory.resolve(String.format("segment-%08d.log", segment));
+        }
+
+        private MappedByteBuffer segment(int segment) throws IOException {
+            MappedByteBuffer[] current = segments;
+            if (segment < current.length) return current[segment];
+
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+
+            segments = appendBuffer(current, mapped);
+            return mapped;
+        }
+
+        private long indexOffset(int index) {
+            return indexChunks[index / INDEX_CHUNK_ENTRIES].getLong((index % INDEX_CHUNK_ENTRIES) * 8);
+        }
+
+        private void putIndex(int index, long offset) throws IOException {
+            indexChunk(index / INDEX_CHUNK_ENTRIES).putLong((index % INDEX_CHUNK_ENTRIES) * 8, offset);
+        }
+
+        private MappedByteBuffer indexChunk(int chunk) throws IOException {
+            MappedByteBuffer[] current = indexChunks;
+            if (chunk < current.length) return current[chunk];
+
+            long chunkBytes = INDEX_CHUNK_ENTRIES * 8L;
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(directory.resolve("audit.idx"),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                        INDEX_HEADER_SIZE + chunk * chunkBytes, chunkBytes);
+            }
+
+            indexChunks = appendBuffer(current, mapped);
+            return mapped;
+        }
+
+        private static MappedByteBuffer[] appendBuffer(MappedByteBuffer[] current, MappedByteBuffer added) {
+            MappedByteBuffer[] expanded = Arrays.copyOf(current, current.length + 1);
+            expanded[current.length] = added;
+            return expanded;
+        }
+    }
+
+    /*
+     * Computes calculateEntryHash over bytes with one reused MessageDigest:
+     * the same "index=..|contentLength=..|content=..|previousHash=<hex>"
+     * encoding, without building the String.
+     */
+    private static final class EntryHasher {
+        private static final byte[] INDEX_LABEL = utf8LikeBytes("index=");
+        private static final byte[] LENGTH_LABEL = utf8LikeBytes("|contentLength=");
+        private static final byte[] CONTENT_LABEL = utf8LikeBytes("|content=");
+        private static final byte[] PREVIOUS_LABEL = utf8LikeBytes("|previousHash=");
+        private static final byte[] HEX = utf8LikeBytes("0123456789abcdef");
+
+        private final MessageDigest digest;
+        private final byte[] decimal = new byte[11];
+        private final byte[] hex = new byte[64];
+
+        EntryHasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (Exception e) {
+                throw new IllegalStateException("SHA-256 is unavailable", e);
+            }
+        }
+
+        void hash(int index, byte[] content, int contentLength, byte[] previousHash, byte[] out) {
+            digest.update(INDEX_LABEL);
+            updateDecimal(index);
+            digest.update(LENGTH_LABEL);
+            updateDecimal(contentLength);
+            digest.update(CONTENT_LABEL);
+            digest.update(content, 0, contentLength);
+            digest.update(PREVIOUS_LABEL);
+
+            for (int i = 0; i < 32; i++) {
+                hex[i * 2] = HEX[(previousHash[i] >>> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX[previousHash[i] & 0x0F];
+            }
+            digest.update(hex);
+
+            try {
+                digest.digest(out, 0, 32);
+            } catch (Exception e) {
+                throw new IllegalStateException("SHA-256 failed", e);
+            }
+        }
+
+        private void updateDecimal(int value) {
+            int position = decimal.length;
+
+            do {
+                decimal[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+
+            digest.update(decimal, position, decimal.length - position);
+        }
+    }
+
+    // ================================================================
+    // Hash chain and Merkle tree
+    // ================================================================
+
+    /*
+     * SHA-256(index || content || previousHash).
+     * Length separators prevent ambiguous concatenation.
+     */
+    private static String calculateEntryHash(
+            int index, String content, String previousHash) {
+
+        String encoded = "index=" + index
+                + "|contentLength=" + content.length()
+                + "|content=" + content
+                + "|previousHash=" + previousHash;
+
+        return sha256Hex(encoded);
     }
 
     private static String sha256Hex(String text) {
@@ -325,18 +1457,35 @@ public final class TamperEvidentAuditLog {
         return result;
     }
 
-    private static boolean constantTimeEquals(String first, String second) {
-        if (first == null || second == null || first.length() != second.length()) {
-            return false;
+    private static String asciiString(byte[] bytes) {
+        char[] result = new char[bytes.length];
+
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = (char) (bytes[i] & 0x7F);
         }
 
-        int difference = 0;
+        return new String(result);
+    }
 
-        for (int i = 0; i < first.length(); i++) {
-            difference |= first.charAt(i) ^ second.charAt(i);
+    private static byte[] fromHex(String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex string");
         }
 
-        return difference == 0;
+        byte[] result = new byte[hex.length() / 2];
+
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string");
+            }
+
+            result[i] = (byte) ((high << 4) | low);
+        }
+
+        return result;
     }
 
     private static String zeros(int count) {
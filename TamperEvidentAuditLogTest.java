@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Basic test runner for the durable log in TamperEvidentAuditLog.
+ *  - Appends entries across several small segments and verifies the chain
+ *  - Corrupts one record length on disk; verification reports that entry
+ *  - Corrupts index slots (out of range, negative, out of order); verification
+ *    reports the exact entry and random access refuses to follow the slot
+ *
+ * Run:
+ *   javac TamperEvidentAuditLogTest.java
+ *   java TamperEvidentAuditLogTest
+ */
+public class TamperEvidentAuditLogTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int ENTRIES = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("audit-log-test");
+
+        try (TamperEvidentAuditLog.DurableAuditLog log =
+                     TamperEvidentAuditLog.DurableAuditLog.open(dir, SEGMENT_SIZE, 256, 10)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                log.append("EVENT sequence=" + i + " action=heartbeat");
+            }
+        }
+
+        expectFirstInvalid(dir, -1, "untouched log");
+
+        // A huge record length must be reported, not followed into a 2 GiB allocation.
+        long record = indexSlot(dir, 7);
+        int length = readInt(segment(dir, record), position(record));
+        writeInt(segment(dir, record), position(record), 0x7FFFFFFF);
+        expectFirstInvalid(dir, 7, "record length 0x7FFFFFFF");
+        writeInt(segment(dir, record), position(record), length);
+
+        expectIndexRejected(dir, 5, 1L << 40, "index slot past the log");
+        expectIndexRejected(dir, 12, -1, "negative index slot");
+        expectIndexRejected(dir, 9, indexSlot(dir, 3), "index slot behind the previous entry");
+
+        expectFirstInvalid(dir, -1, "restored log");
+    }
+
+    private static void expectIndexRejected(Path dir, int entry, long offset, String what)
+            throws IOException {
+        long original = indexSlot(dir, entry);
+        writeIndexSlot(dir, entry, offset);
+        expectFirstInvalid(dir, entry, what);
+
+        try (TamperEvidentAuditLog.DurableAuditLog log = TamperEvidentAuditLog.DurableAuditLog.open(dir)) {
+            log.get(entry);
+            System.err.println("TEST FAILED: get() followed the " + what + "!");
+        } catch (IllegalStateException expected) {
+            System.out.println("TEST PASSED: get() refused the " + what + ".");
+        }
+
+        writeIndexSlot(dir, entry, original);
+    }
+
+    private static void expectFirstInvalid(Path dir, int entry, String what) throws IOException {
+        try (TamperEvidentAuditLog.DurableAuditLog log = TamperEvidentAuditLog.DurableAuditLog.open(dir)) {
+            TamperEvidentAuditLog.VerificationResult serial = log.verifyAll(false);
+            TamperEvidentAuditLog.VerificationResult parallel = log.verifyAll(true);
+            boolean ok = entry < 0
+                    ? serial.valid && parallel.valid
+                    : !serial.valid && !parallel.valid
+                            && serial.entryIndex == entry && parallel.entryIndex == entry;
+
+            if (ok) {
+                System.out.println("TEST PASSED: " + what + " -> "
+                        + (entry < 0 ? "valid" : "entry " + entry + " (" + serial.reason + ")"));
+            } else {
+                System.err.println("TEST FAILED: " + what + " -> serial " + serial.entryIndex
+                        + ", parallel " + parallel.entryIndex + ", expected " + entry);
+            }
+        } catch (RuntimeException | Error e) {
+            System.err.println("TEST FAILED: " + what + " threw " + e);
+        }
+    }
+
+    private static Path segment(Path dir, long offset) {
+        return dir.resolve(String.format("segment-%08d.log", offset / SEGMENT_SIZE));
+    }
+
+    private static long position(long offset) {
+        return offset % SEGMENT_SIZE;
+    }
+
+    // audit.idx: 64-byte header, then one 8-byte offset per entry.
+    private static long indexSlot(Path dir, int entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        try (FileChannel channel = FileChannel.open(dir.resolve("audit.idx"), StandardOpenOption.READ)) {
+            channel.read(buffer, 64 + entry * 8L);
+        }
+        return buffer.getLong(0);
+    }
+
+    private static void writeIndexSlot(Path dir, int entry, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve("audit.idx"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, offset), 64 + entry * 8L);
+        }
+    }
+
+    private static int readInt(Path file, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.read(buffer, position);
+        }
+        return buffer.getInt(0);
+    }
+
+    private static void writeInt(Path file, long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+        }
+    }
+}
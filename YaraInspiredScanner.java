@@ -1,12 +1,37 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,14 +40,29 @@ import java.util.regex.Pattern;
  *
  * - Parses compact YARA-like rules
  * - Supports hex, ASCII, wide, and nocase patterns
+ * - Hex strings may use ?? wildcards, nibble masks and [n-m] jumps; their
+ *   longest fixed atom is prefiltered and the full pattern verified
+ * - Conditions can test match counts (#a > 2), offsets ($a at 0),
+ *   ranges ($a in (0..512)) and filesize, combined with and/or/not
  * - Uses Aho-Corasick for simultaneous pattern matching
  * - Scores/ranks simulated byte-array samples
+ * - Compiles the ruleset once into an immutable, thread-safe matcher that
+ *   can be saved to and loaded from a compact binary file
  *
- * This program scans only embedded simulated data. It does not execute,
- * download, modify, or interact with files or malware.
+ * Options:
+ *   --save-rules <file>  write the compiled ruleset after parsing
+ *   --load-rules <file>  scan with a precompiled ruleset instead of parsing
+ *   --benchmark [MiB]    compare matcher throughput on synthetic data
+ *   --scan <file>        stream a file through the matcher (repeatable)
+ *   --scan-dir <dir>     scan a directory tree in parallel
+ *   --threads <n>        worker threads for --scan-dir (default: all cores)
+ *
+ * By default this program scans only embedded simulated data. Files named
+ * with --scan or found under --scan-dir are only read, in fixed-size chunks or memory-mapped
+ * regions; they are never executed or modified.
  */
 public final class YaraInspiredScanner {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String rulesText =
                 "rule Suspicious_Dropper {\n"
                         + "meta:\n"
@@ -47,9 +87,71 @@ public final class YaraInspiredScanner {
                         + "  $word = \"document\" ascii nocase\n"
                         + "condition:\n"
                         + "  all of them\n"
+                        + "}\n"
+                        + "\n"
+                        + "rule Small_Executable_Downloader {\n"
+                        + "meta:\n"
+                        + "  author = \"security-team\"\n"
+                        + "  severity = \"medium\"\n"
+                        + "strings:\n"
+                        + "  $mz = { 4D 5A }\n"
+                        + "  $download = \"download\" ascii nocase\n"
+                        + "condition:\n"
+                        + "  $mz at 0 and #download >= 1 and $download in (0..64)\n"
+                        + "    and filesize < 1MB\n"
                         + "}\n";
 
-        List<YaraRule> rules = RuleParser.parse(rulesText);
+        Path saveRules = null;
+        Path loadRules = null;
+        List<Path> scanFiles = new ArrayList<Path>();
+        Path scanDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--save-rules".equals(args[i]) && i + 1 < args.length) {
+                saveRules = Paths.get(args[++i]);
+            } else if ("--load-rules".equals(args[i]) && i + 1 < args.length) {
+                loadRules = Paths.get(args[++i]);
+            } else if ("--scan".equals(args[i]) && i + 1 < args.length) {
+                scanFiles.add(Paths.get(args[++i]));
+            } else if ("--scan-dir".equals(args[i]) && i + 1 < args.length) {
+                scanDirectory = Paths.get(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--benchmark".equals(args[i])) {
+                benchmark(RuleParser.parse(rulesText),
+                        i + 1 < args.length ? Integer.parseInt(args[i + 1]) : 1024);
+                return;
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        CompiledRuleset ruleset = loadRules != null
+                ? CompiledRuleset.load(loadRules)
+                : CompiledRuleset.compile(RuleParser.parse(rulesText));
+
+        if (saveRules != null) {
+            ruleset.save(saveRules);
+        }
+
+        if (scanDirectory != null) {
+            DirectoryScanReport report =
+                    new DirectoryScanner(ruleset, threads).scan(scanDirectory);
+            printDirectoryReport(report, ruleset.rules());
+            return;
+        }
+
+        if (!scanFiles.isEmpty()) {
+            List<ScanResult> fileResults = new ArrayList<ScanResult>();
+
+            for (Path file : scanFiles) {
+                fileResults.add(ruleset.scan(file));
+            }
+
+            printResults(fileResults, "Files streamed from disk (read-only)");
+            return;
+        }
 
         List<Sample> samples = new ArrayList<Sample>();
 
@@ -75,281 +177,1687 @@ public final class YaraInspiredScanner {
         List<ScanResult> results = new ArrayList<ScanResult>();
 
         for (int i = 0; i < samples.size(); i++) {
-            results.add(scan(samples.get(i), rules));
+            results.add(ruleset.scan(samples.get(i)));
         }
 
-        Collections.sort(results, new Comparator<ScanResult>() {
-            public int compare(ScanResult first, ScanResult second) {
-                return second.score - first.score;
-            }
-        });
+        Collections.sort(results, BY_SCORE);
 
-        printResults(results);
+        printResults(results, "Simulated samples only");
     }
 
     // ================================================================
     // Scanner
     // ================================================================
 
-    private static ScanResult scan(Sample sample, List<YaraRule> rules) {
-        AhoCorasick automaton = new AhoCorasick();
-        Map<String, PatternReference> references =
-                new HashMap<String, PatternReference>();
+    static final Comparator<ScanResult> BY_SCORE = new Comparator<ScanResult>() {
+        public int compare(ScanResult first, ScanResult second) {
+            return second.score - first.score;
+        }
+    };
+
+    /*
+     * Ruleset compiled once into a DenseMatcher over every string variant.
+     * Pattern IDs map to a ruleset-wide string index, and string indexes
+     * to their rule, through flat arrays.
+     * Nothing is mutated after construction, so a single instance can be
+     * shared by any number of concurrent scans.
+     */
+    static final class CompiledRuleset {
+        private static final int MAGIC = 0x59524331;   // "YRC1"
+        private static final int VERSION = 4;
+        private static final int STREAM_CHUNK = 1 << 20;
+        private static final long MMAP_THRESHOLD = 64L << 20;
+        private static final long MMAP_REGION = 256L << 20;
+
+        private final List<YaraRule> rules;
+        private final DenseMatcher matcher;
+        private final int[] patternString;
+        private final HexPattern[] patternHex;
+        private final int[] stringRule;
+        private final HexPattern[] stringHex;
+        private final int[] ruleStringBase;
+        private final int[] stringFreeRules;
+        private final int stringCount;
+
+        private CompiledRuleset(List<YaraRule> rules, DenseMatcher precompiled) {
+            List<byte[]> patterns = new ArrayList<byte[]>();
+            int[] ruleStringBase = new int[rules.size() + 1];
+
+            for (int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+                YaraRule rule = rules.get(ruleIndex);
+                ruleStringBase[ruleIndex + 1] = ruleStringBase[ruleIndex] + rule.strings.size();
+
+                for (int stringIndex = 0; stringIndex < rule.strings.size(); stringIndex++) {
+                    patterns.addAll(rule.strings.get(stringIndex).variants);
+                }
+            }
+
+            int[] patternString = new int[patterns.size()];
+            HexPattern[] patternHex = new HexPattern[patterns.size()];
+            int[] stringRule = new int[ruleStringBase[rules.size()]];
+            HexPattern[] stringHex = new HexPattern[stringRule.length];
+            int[] stringFreeRules = new int[rules.size()];
+            int stringFreeCount = 0;
+            int id = 0;
+
+            for (int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+                YaraRule rule = rules.get(ruleIndex);
+
+                if (!rule.condition.requiresMatch) {
+                    stringFreeRules[stringFreeCount++] = ruleIndex;
+                }
+
+                for (int stringIndex = 0; stringIndex < rule.strings.size(); stringIndex++) {
+                    RuleString ruleString = rule.strings.get(stringIndex);
+                    int string = ruleStringBase[ruleIndex] + stringIndex;
+                    stringRule[string] = ruleIndex;
+                    stringHex[string] = ruleString.hex;
+
+                    for (int variant = 0; variant < ruleString.variants.size(); variant++) {
+                        patternHex[id] = ruleString.hex;
+                        patternString[id++] = string;
+                    }
+                }
+            }
+
+            this.rules = Collections.unmodifiableList(new ArrayList<YaraRule>(rules));
+            this.matcher = precompiled != null ? precompiled : new DenseMatcher(patterns);
+            this.patternString = patternString;
+            this.patternHex = patternHex;
+            this.stringRule = stringRule;
+            this.stringHex = stringHex;
+            this.ruleStringBase = ruleStringBase;
+            this.stringFreeRules = Arrays.copyOf(stringFreeRules, stringFreeCount);
+            this.stringCount = ruleStringBase[rules.size()];
+
+            if (matcher.patternCount() != patterns.size()) {
+                throw new IllegalArgumentException("Matcher does not fit the ruleset");
+            }
+        }
+
+        static CompiledRuleset compile(List<YaraRule> rules) {
+            return new CompiledRuleset(rules, null);
+        }
+
+        List<YaraRule> rules() {
+            return rules;
+        }
+
+        ScanResult scan(Sample sample) {
+            MatchBuffer matches = new MatchBuffer(this, new CandidateReader(sample.bytes));
+            matcher.search(0, sample.bytes, 0, sample.bytes.length, 0L, matches);
+
+            try {
+                matches.verifyPending();
+            } catch (IOException e) {
+                throw new IllegalStateException("In-memory sample cannot fail to read", e);
+            }
+
+            return evaluate(sample, matches);
+        }
+
+        /*
+         * Streams a file through the matcher, carrying the automaton state
+         * across chunks so matches that straddle a boundary are still
+         * found. Small files are read through one reusable heap buffer;
+         * large files are walked in memory-mapped regions. Either way the
+         * heap cost is independent of the file size. Wildcard candidates
+         * are verified with positional reads of the same channel.
+         */
+        ScanResult scan(Path file) throws IOException {
+            MatchBuffer matches;
+            long size;
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                size = channel.size();
+                matches = new MatchBuffer(this, new CandidateReader(channel, size));
+                int state = 0;
+
+                if (size >= MMAP_THRESHOLD) {
+                    for (long position = 0; position < size; position += MMAP_REGION) {
+                        long length = Math.min(MMAP_REGION, size - position);
+                        MappedByteBuffer region = channel.map(
+                                FileChannel.MapMode.READ_ONLY, position, length);
+                        state = matcher.search(state, region, position, matches);
+                    }
+                } else {
+                    ByteBuffer chunk = ByteBuffer.allocate(
+                            (int) Math.max(1, Math.min(STREAM_CHUNK, size)));
+                    long position = 0;
+
+                    while (channel.read(chunk) > 0) {
+                        state = matcher.search(state, chunk.array(), 0, chunk.position(),
+                                position, matches);
+                        position += chunk.position();
+                        chunk.clear();
+                    }
+                }
+
+                matches.verifyPending();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            return evaluate(new Sample(file.toString(), size), matches);
+        }
+
+        /*
+         * Evaluates only the candidate rules: those with at least one
+         * string hit, plus the few whose condition can hold without any.
+         * A ruleset of thousands of rules costs nothing per rule that
+         * never saw a hit.
+         */
+        private ScanResult evaluate(Sample sample, MatchBuffer matches) {
+            List<RuleMatch> ruleMatches = new ArrayList<RuleMatch>();
+            List<String> warnings = new ArrayList<String>();
+            int[] candidates = matches.candidateRules();
+            int score = 0;
+
+            for (int c = 0; c < candidates.length; c++) {
+                int i = candidates[c];
+                YaraRule rule = rules.get(i);
+                int base = ruleStringBase[i];
+
+                for (int s = 0; s < rule.strings.size(); s++) {
+                    if (matches.truncated(base + s)) {
+                        warnings.add(rule.name + " $" + rule.strings.get(s).identifier
+                                + ": " + matches.hitCount(base + s) + " matches, only the first "
+                                + MatchBuffer.MAX_OFFSETS_PER_STRING + " offsets kept");
+                    }
+                }
+
+                if (!rule.condition.evaluate(matches, base, rule.strings.size(), sample.size)) {
+                    continue;
+                }
+
+                Set<String> matched = new HashSet<String>();
+                Map<String, Long> offsets = new LinkedHashMap<String, Long>();
+                Map<String, Integer> hits = new LinkedHashMap<String, Integer>();
+
+                for (int s = 0; s < rule.strings.size(); s++) {
+                    int count = matches.hitCount(base + s);
+
+                    if (count > 0) {
+                        String identifier = rule.strings.get(s).identifier;
+                        matched.add(identifier);
+                        offsets.put(identifier, matches.firstOffset(base + s));
+                        hits.put(identifier, count);
+                    }
+                }
+
+                int ruleScore = severityScore(rule.metadata.get("severity"))
+                        + matched.size() * 10;
+
+                score += ruleScore;
+                ruleMatches.add(new RuleMatch(rule, matched, offsets, hits, ruleScore));
+            }
+
+            return new ScanResult(sample, ruleMatches, score, warnings);
+        }
+
+        /*
+         * Binary layout: magic, version, then per rule its name, metadata
+         * pairs, condition program, and each string with its expanded byte
+         * variants and any wildcard hex pattern, followed by the matcher's
+         * trie, failure and output tables. Loading neither parses rule text nor recomputes failure
+         * links; only the dense DFA rows are re-derived. Version 1 files,
+         * which carry no tables, are still accepted and recompiled, and
+         * the of-them conditions of versions 1 and 2 are translated.
+         */
+        void save(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rules.size());
+
+                for (YaraRule rule : rules) {
+                    out.writeUTF(rule.name);
+                    out.writeInt(rule.metadata.size());
+
+                    for (Map.Entry<String, String> entry : rule.metadata.entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        out.writeUTF(entry.getValue());
+                    }
+
+                    out.writeBoolean(rule.condition.requiresMatch);
+                    out.writeInt(rule.condition.program.length);
+
+                    for (long word : rule.condition.program) {
+                        out.writeLong(word);
+                    }
+
+                    out.writeInt(rule.strings.size());
+
+                    for (RuleString ruleString : rule.strings) {
+                        out.writeUTF(ruleString.identifier);
+                        out.writeInt(ruleString.variants.size());
+
+                        for (byte[] variant : ruleString.variants) {
+                            out.writeInt(variant.length);
+                            out.write(variant);
+                        }
+
+                        out.writeBoolean(ruleString.hex != null);
+
+                        if (ruleString.hex != null) {
+                            ruleString.hex.write(out);
+                        }
+                    }
+                }
+
+                out.writeInt(matcher.denseStates);
+                writeInts(out, matcher.failure);
+                writeInts(out, matcher.edgeStart);
+                out.writeInt(matcher.edgeLabels.length);
+                out.write(matcher.edgeLabels);
+                writeInts(out, matcher.edgeTargets);
+                writeInts(out, matcher.outputStart);
+                writeInts(out, matcher.outputIds);
+                writeInts(out, matcher.outputHead);
+                writeInts(out, matcher.outputLink);
+                writeInts(out, matcher.patternLengths);
+            }
+        }
+
+        static CompiledRuleset load(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a compiled ruleset: " + file);
+                }
+
+                int version = in.readInt();
+
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Unsupported ruleset version " + version);
+                }
+
+                int ruleCount = in.readInt();
+                List<YaraRule> rules = new ArrayList<YaraRule>(ruleCount);
+
+                for (int r = 0; r < ruleCount; r++) {
+                    String name = in.readUTF();
+                    int metadataCount = in.readInt();
+                    Map<String, String> metadata = new HashMap<String, String>();
+
+                    for (int m = 0; m < metadataCount; m++) {
+                        metadata.put(in.readUTF(), in.readUTF());
+                    }
+
+                    RuleCondition condition;
+
+                    if (version < 3) {
+                        condition = RuleCondition.ofThem(
+                                ConditionType.values()[in.readByte()], in.readInt());
+                    } else {
+                        boolean requiresMatch = in.readBoolean();
+                        long[] program = new long[in.readInt()];
+
+                        for (int w = 0; w < program.length; w++) {
+                            program[w] = in.readLong();
+                        }
+
+                        condition = new RuleCondition(program, requiresMatch);
+                    }
+
+                    int stringCount = in.readInt();
+                    List<RuleString> strings = new ArrayList<RuleString>(stringCount);
+
+                    for (int s = 0; s < stringCount; s++) {
+                        String identifier = in.readUTF();
+                        int variantCount = in.readInt();
+
+                        List<byte[]> variants = new ArrayList<byte[]>(variantCount);
+
+                        for (int v = 0; v < variantCount; v++) {
+                            byte[] variant = new byte[in.readInt()];
+                            in.readFully(variant);
+                            variants.add(variant);
+                        }
+
+                        HexPattern hex = version >= 4 && in.readBoolean()
+                                ? HexPattern.read(in) : null;
+                        RuleString ruleString = new RuleString(identifier, hex);
+                        ruleString.variants.addAll(variants);
+                        strings.add(ruleString);
+                    }
+
+                    rules.add(new YaraRule(name, metadata, strings, condition));
+                }
+
+                if (version == 1) {
+                    return new CompiledRuleset(rules, null);
+                }
+
+                int denseStates = in.readInt();
+                int[] failure = readInts(in);
+                int[] edgeStart = readInts(in);
+                byte[] edgeLabels = new byte[in.readInt()];
+                in.readFully(edgeLabels);
+
+                DenseMatcher matcher = new DenseMatcher(
+                        denseStates, failure,
+                        edgeStart, edgeLabels, readInts(in),
+                        readInts(in), readInts(in), readInts(in),
+                        readInts(in), readInts(in));
+
+                return new CompiledRuleset(rules, matcher);
+            }
+        }
+
+        private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+            out.writeInt(values.length);
+
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private static int[] readInts(DataInputStream in) throws IOException {
+            int[] values = new int[in.readInt()];
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readInt();
+            }
+
+            return values;
+        }
+    }
+
+    /*
+     * Per-scan match state in flat primitive arrays: a hit count per rule
+     * string, and each match offset recorded as an event chained per
+     * string in arrival order. The first hit of a rule's string queues
+     * the rule as an evaluation candidate. Only this, not the scanned
+     * bytes, is needed to evaluate conditions afterwards.
+     *
+     * Atom hits of wildcard hex strings are held as pending candidates
+     * and verified in batches through the CandidateReader; only
+     * confirmed matches are recorded.
+     *
+     * Counts are exact, but only the first MAX_OFFSETS_PER_STRING
+     * offsets of a string are kept (YARA's limit is the same one
+     * million), which bounds memory on pathological inputs that match a
+     * short string millions of times. Strings that hit the cap are
+     * flagged so the scan result can warn that offset conditions only
+     * saw the first matches.
+     */
+    static final class MatchBuffer implements MatchListener {
+        static final int MAX_OFFSETS_PER_STRING = 1_000_000;
+        private static final int PENDING_BATCH = 4096;
+
+        private final CompiledRuleset ruleset;
+        private final CandidateReader reader;
+        private final int[] hitCounts;
+        private final boolean[] truncated;
+        private final int[] head;
+        private final int[] tail;
+        private final boolean[] candidate;
+        private int[] candidates;
+        private int candidateCount;
+        private long[] eventOffset = new long[64];
+        private int[] eventNext = new int[64];
+        private int eventCount;
+        private final int[] pendingString = new int[PENDING_BATCH];
+        private final long[] pendingOffset = new long[PENDING_BATCH];
+        private int pendingCount;
+        private long[] verifiedThrough;
+
+        MatchBuffer(CompiledRuleset ruleset, CandidateReader reader) {
+            this.ruleset = ruleset;
+            this.reader = reader;
+            this.hitCounts = new int[ruleset.stringCount];
+            this.truncated = new boolean[ruleset.stringCount];
+            this.head = new int[ruleset.stringCount];
+            this.tail = new int[ruleset.stringCount];
+            this.candidate = new boolean[ruleset.rules.size()];
+            this.candidates = new int[Math.max(8, ruleset.stringFreeRules.length)];
+            Arrays.fill(head, -1);
+
+            for (int rule : ruleset.stringFreeRules) {
+                candidate[rule] = true;
+                candidates[candidateCount++] = rule;
+            }
+        }
+
+        public void onMatch(int patternId, long startOffset) {
+            int string = ruleset.patternString[patternId];
+
+            if (ruleset.patternHex[patternId] != null) {
+                pendingString[pendingCount] = string;
+                pendingOffset[pendingCount++] = startOffset;
+
+                if (pendingCount == PENDING_BATCH) {
+                    try {
+                        verifyPending();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                return;
+            }
+
+            record(string, startOffset);
+        }
+
+        /*
+         * Confirms pending atom hits. A hit at offset p can only belong
+         * to a match starting in [p - maxPrefix, p - minPrefix]. Atom hits
+         * of one string arrive in ascending order, so every start up to
+         * verifiedThrough has already been tested; skipping those makes
+         * each start tested once and reported at most once.
+         */
+        void verifyPending() throws IOException {
+            if (pendingCount > 0 && verifiedThrough == null) {
+                verifiedThrough = new long[hitCounts.length];
+                Arrays.fill(verifiedThrough, -1L);
+            }
+
+            for (int i = 0; i < pendingCount; i++) {
+                int string = pendingString[i];
+                HexPattern hex = ruleset.stringHex[string];
+                long from = Math.max(verifiedThrough[string] + 1,
+                        pendingOffset[i] - hex.maxPrefix);
+                long to = pendingOffset[i] - hex.minPrefix;
+
+                for (long start = from; start <= to; start++) {
+                    if (reader.matchesAt(hex, start)) {
+                        record(string, start);
+                    }
+                }
+
+                verifiedThrough[string] = Math.max(verifiedThrough[string], to);
+            }
+
+            pendingCount = 0;
+        }
+
+        private void record(int string, long startOffset) {
+            int count = ++hitCounts[string];
+
+            if (count == 1) {
+                int rule = ruleset.stringRule[string];
+
+                if (!candidate[rule]) {
+                    candidate[rule] = true;
+
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                    }
+
+                    candidates[candidateCount++] = rule;
+                }
+            }
+
+            if (count > MAX_OFFSETS_PER_STRING) {
+                truncated[string] = true;
+                return;
+            }
+
+            if (eventCount == eventOffset.length) {
+                eventOffset = Arrays.copyOf(eventOffset, eventCount * 2);
+                eventNext = Arrays.copyOf(eventNext, eventCount * 2);
+            }
+
+            eventOffset[eventCount] = startOffset;
+            eventNext[eventCount] = -1;
+
+            if (head[string] < 0) {
+                head[string] = eventCount;
+            } else {
+                eventNext[tail[string]] = eventCount;
+            }
+
+            tail[string] = eventCount++;
+        }
+
+        /*
+         * Candidate rule indexes in rule order, so results are reported
+         * in the order the rules were written.
+         */
+        int[] candidateRules() {
+            int[] result = Arrays.copyOf(candidates, candidateCount);
+            Arrays.sort(result);
+            return result;
+        }
+
+        int hitCount(int string) {
+            return hitCounts[string];
+        }
+
+        boolean truncated(int string) {
+            return truncated[string];
+        }
+
+        long firstOffset(int string) {
+            long first = -1L;
+
+            for (int e = head[string]; e >= 0; e = eventNext[e]) {
+                if (first < 0 || eventOffset[e] < first) {
+                    first = eventOffset[e];
+                }
+            }
+
+            return first;
+        }
+
+        boolean matchedIn(int string, long from, long to) {
+            for (int e = head[string]; e >= 0; e = eventNext[e]) {
+                if (eventOffset[e] >= from && eventOffset[e] <= to) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /*
+     * Random access to the scanned bytes for the verify stage. An
+     * in-memory sample is read directly; a file is read with positional
+     * FileChannel reads into one reusable window, independent of where
+     * the streaming pass currently is. Candidates arrive in roughly
+     * ascending order, so the window rarely has to move backwards.
+     */
+    static final class CandidateReader {
+        private static final int WINDOW = 1 << 20;
+
+        private final byte[] data;
+        private final FileChannel channel;
+        private final long size;
+        private byte[] window;
+        private long windowBase;
+        private int windowLength;
+
+        CandidateReader(byte[] data) {
+            this.data = data;
+            this.channel = null;
+            this.size = data.length;
+        }
+
+        CandidateReader(FileChannel channel, long size) {
+            this.data = null;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        boolean matchesAt(HexPattern pattern, long start) throws IOException {
+            if (start < 0 || start + pattern.values[0].length > size) {
+                return false;
+            }
+
+            if (data != null) {
+                return pattern.matchesAt(data, (int) start, data.length);
+            }
+
+            long end = Math.min(size, start + pattern.maxSpan);
+
+            if (start < windowBase || end > windowBase + windowLength) {
+                fill(start, end);
+            }
+
+            return pattern.matchesAt(window, (int) (start - windowBase), windowLength);
+        }
+
+        private void fill(long start, long end) throws IOException {
+            if (window == null) {
+                window = new byte[WINDOW];
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(window, 0,
+                    (int) Math.min(window.length, size - start));
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            windowBase = start;
+            windowLength = buffer.position();
+
+            if (start + windowLength < end) {
+                throw new IOException("File shrank while it was being scanned");
+            }
+        }
+    }
+
+    // ================================================================
+    // Parallel directory scanning
+    // ================================================================
+
+    /*
+     * Walks a directory tree and scans every regular file on a
+     * ForkJoinPool. The file list is split recursively, so idle workers
+     * steal the remaining halves from busy ones and a few large files do
+     * not leave other cores waiting. All workers share one immutable
+     * CompiledRuleset; each file streams through its own small buffer.
+     */
+    static final class DirectoryScanner {
+        private final CompiledRuleset ruleset;
+        private final int threads;
+
+        DirectoryScanner(CompiledRuleset ruleset, int threads) {
+            this.ruleset = ruleset;
+            this.threads = Math.max(1, threads);
+        }
+
+        DirectoryScanReport scan(Path root) throws IOException {
+            ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+            Path[] files = listFiles(root, errors);
+            ScanResult[] results = new ScanResult[files.length];
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long start = System.nanoTime();
+
+            try {
+                pool.invoke(new ScanFilesTask(ruleset, files, results, errors,
+                        0, files.length));
+            } finally {
+                pool.shutdown();
+            }
+
+            long elapsed = System.nanoTime() - start;
+            List<ScanResult> merged = new ArrayList<ScanResult>(files.length);
+            long[] ruleHits = new long[ruleset.rules().size()];
+            Map<YaraRule, Integer> ruleIndex = new IdentityHashMap<YaraRule, Integer>();
+            long bytes = 0;
+
+            for (int i = 0; i < ruleset.rules().size(); i++) {
+                ruleIndex.put(ruleset.rules().get(i), i);
+            }
+
+            for (ScanResult result : results) {
+                if (result == null) {
+                    continue;
+                }
+
+                merged.add(result);
+                bytes += result.sample.size;
+
+                for (RuleMatch match : result.matches) {
+                    ruleHits[ruleIndex.get(match.rule)]++;
+                }
+            }
+
+            // Stable sort: equal scores stay in path order.
+            Collections.sort(merged, BY_SCORE);
+
+            return new DirectoryScanReport(merged, bytes, elapsed, threads,
+                    ruleHits, new ArrayList<String>(errors));
+        }
+
+        /*
+         * Unreadable directories and files are reported as errors and
+         * skipped; the rest of the tree is still scanned.
+         */
+        private static Path[] listFiles(Path root, final ConcurrentLinkedQueue<String> errors)
+                throws IOException {
+            final List<Path> files = new ArrayList<Path>();
+
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    errors.add(file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+                    if (e != null) {
+                        errors.add(directory + ": " + e.getMessage());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
 
-        for (int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
-            YaraRule rule = rules.get(ruleIndex);
+            Collections.sort(files);
+            return files.toArray(new Path[0]);
+        }
+    }
+
+    static final class ScanFilesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledRuleset ruleset;
+        private final Path[] files;
+        private final ScanResult[] results;
+        private final ConcurrentLinkedQueue<String> errors;
+        private final int from;
+        private final int to;
+
+        ScanFilesTask(CompiledRuleset ruleset, Path[] files, ScanResult[] results,
+                      ConcurrentLinkedQueue<String> errors, int from, int to) {
+            this.ruleset = ruleset;
+            this.files = files;
+            this.results = results;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new ScanFilesTask(ruleset, files, results, errors, from, middle),
+                        new ScanFilesTask(ruleset, files, results, errors, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                try {
+                    results[i] = ruleset.scan(files[i]);
+                } catch (IOException e) {
+                    errors.add(files[i] + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static final class DirectoryScanReport {
+        final List<ScanResult> results;
+        final long bytes;
+        final long elapsedNanos;
+        final int threads;
+        final long[] ruleHits;
+        final List<String> errors;
+
+        DirectoryScanReport(List<ScanResult> results, long bytes, long elapsedNanos,
+                            int threads, long[] ruleHits, List<String> errors) {
+            this.results = results;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.threads = threads;
+            this.ruleHits = ruleHits;
+            this.errors = errors;
+        }
+    }
 
-            for (int stringIndex = 0; stringIndex < rule.strings.size(); stringIndex++) {
-                RuleString ruleString = rule.strings.get(stringIndex);
+    private static void printDirectoryReport(DirectoryScanReport report,
+                                             List<YaraRule> rules) {
+        List<ScanResult> flagged = new ArrayList<ScanResult>();
 
-                for (int variant = 0; variant < ruleString.variants.size(); variant++) {
-                    String patternId = rule.name + ":" + ruleString.identifier + ":" + variant;
+        for (ScanResult result : report.results) {
+            if (!result.matches.isEmpty()) {
+                flagged.add(result);
+            }
+        }
+
+        printResults(flagged, "Directory scan: files with at least one matching rule");
+
+        double seconds = report.elapsedNanos / 1_000_000_000.0;
+
+        System.out.println("Summary:");
+        System.out.println("  Threads    : " + report.threads);
+        System.out.println("  Files      : " + report.results.size()
+                + " (" + flagged.size() + " flagged, "
+                + report.errors.size() + " unreadable)");
+        System.out.println("  Bytes      : " + report.bytes);
+        System.out.printf("  Time       : %.2f s%n", seconds);
+        System.out.printf("  Throughput : %.1f files/s, %.1f MB/s%n",
+                report.results.size() / seconds,
+                report.bytes / 1024.0 / 1024.0 / seconds);
+        System.out.println("  Rule hits  :");
+
+        for (int i = 0; i < rules.size(); i++) {
+            System.out.println("    " + rules.get(i).name + ": " + report.ruleHits[i]);
+        }
+
+        for (String error : report.errors) {
+            System.out.println("  Error      : " + error);
+        }
+
+        for (ScanResult result : report.results) {
+            if (result.matches.isEmpty()) {
+                for (String warning : result.warnings) {
+                    System.out.println("  Warning    : " + result.sample.name + ": " + warning);
+                }
+            }
+        }
+    }
+
+    // ================================================================
+    // Matcher benchmark
+    // ================================================================
+
+    /*
+     * Scans totalMiB of mixed data (random binary, ASCII text and embedded
+     * pattern hits) with the map-based automaton and the dense matcher.
+     * A 64 MiB buffer is reused to reach the total.
+     */
+    private static void benchmark(List<YaraRule> rules, int totalMiB) {
+        Random random = new Random(8);
+        List<byte[]> patterns = new ArrayList<byte[]>();
+
+        for (YaraRule rule : rules) {
+            for (RuleString ruleString : rule.strings) {
+                patterns.addAll(ruleString.variants);
+            }
+        }
+
+        while (patterns.size() < 2000) {
+            byte[] word = new byte[4 + random.nextInt(9)];
+
+            for (int i = 0; i < word.length; i++) {
+                word[i] = (byte) ('a' + random.nextInt(26));
+            }
+
+            patterns.add(word);
+        }
+
+        byte[] data = new byte[64 * 1024 * 1024];
+        int position = 0;
+
+        while (position < data.length) {
+            int kind = random.nextInt(8);
+            byte[] chunk;
+
+            if (kind == 0) {
+                chunk = patterns.get(random.nextInt(patterns.size()));
+            } else if (kind < 4) {
+                chunk = new byte[64 + random.nextInt(512)];
+                random.nextBytes(chunk);
+            } else {
+                chunk = new byte[16 + random.nextInt(128)];
+
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = (byte) (i % 7 == 6 ? ' ' : 'a' + random.nextInt(26));
+                }
+            }
+
+            int length = Math.min(chunk.length, data.length - position);
+            System.arraycopy(chunk, 0, data, position, length);
+            position += length;
+        }
+
+        AhoCorasick legacy = new AhoCorasick();
+
+        for (int i = 0; i < patterns.size(); i++) {
+            legacy.addPattern(String.valueOf(i), patterns.get(i));
+        }
+
+        legacy.buildFailureLinks();
+        DenseMatcher dense = new DenseMatcher(patterns);
+
+        byte[] sampleWindow = Arrays.copyOf(data, 1024 * 1024);
+        final Set<String> denseMatches = new HashSet<String>();
+
+        dense.search(0, sampleWindow, 0, sampleWindow.length, 0L, new MatchListener() {
+            public void onMatch(int patternId, long startOffset) {
+                denseMatches.add(String.valueOf(patternId));
+            }
+        });
+
+        if (!denseMatches.equals(legacy.search(sampleWindow))) {
+            throw new IllegalStateException("Dense matcher disagrees with the reference");
+        }
+
+        final long[] hits = new long[1];
+        MatchListener counter = new MatchListener() {
+            public void onMatch(int patternId, long startOffset) {
+                hits[0]++;
+            }
+        };
+
+        int passes = Math.max(1, totalMiB / 64);
+        long start = System.nanoTime();
+
+        for (int pass = 0; pass < passes; pass++) {
+            legacy.search(data);
+        }
+
+        long legacyNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+
+        for (int pass = 0; pass < passes; pass++) {
+            dense.search(0, data, 0, data.length, 0L, counter);
+        }
+
+        long denseNanos = System.nanoTime() - start;
+        double megabytes = (double) passes * data.length / (1024.0 * 1024.0);
+
+        System.out.println("Aho-Corasick matcher benchmark:");
+        System.out.println("  Patterns     : " + patterns.size());
+        System.out.println("  States       : " + dense.stateCount
+                + " (" + dense.denseStates + " dense)");
+        System.out.printf("  Data scanned : %.0f MiB%n", megabytes);
+        System.out.printf("  Map-based    : %8.1f MB/s%n", megabytes / (legacyNanos / 1e9));
+        System.out.printf("  Dense tables : %8.1f MB/s (%d hits)%n",
+                megabytes / (denseNanos / 1e9), hits[0]);
+    }
+
+    private static int severityScore(String severity) {
+        if (severity == null) return 10;
+
+        if ("critical".equalsIgnoreCase(severity)) return 100;
+        if ("high".equalsIgnoreCase(severity)) return 70;
+        if ("medium".equalsIgnoreCase(severity)) return 40;
+        if ("low".equalsIgnoreCase(severity)) return 10;
+
+        return 20;
+    }
+
+    private static void printResults(List<ScanResult> results, String origin) {
+        System.out.println("YARA-inspired Aho-Corasick scanner");
+        System.out.println(origin);
+        System.out.println();
+
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+
+            System.out.println("Sample: " + result.sample.name);
+            System.out.println("Size  : " + result.sample.size + " bytes");
+            System.out.println("Score : " + result.score);
+
+            for (String warning : result.warnings) {
+                System.out.println("Warning: " + warning);
+            }
+
+            if (result.matches.isEmpty()) {
+                System.out.println("Result: No matching rules");
+            } else {
+                System.out.println("Result: MATCH");
+
+                for (int j = 0; j < result.matches.size(); j++) {
+                    RuleMatch match = result.matches.get(j);
+
+                    System.out.println("  Rule     : " + match.rule.name);
+                    System.out.println("  Severity : "
+                            + match.rule.metadata.get("severity"));
+                    System.out.println("  IOCs     : " + match.matchedIdentifiers);
+                    System.out.println("  Offsets  : " + match.firstOffsets);
+                    System.out.println("  Hits     : " + match.hitCounts);
+                    System.out.println("  Score    : " + match.score);
+                }
+            }
+
+            System.out.println();
+        }
+    }
+
+    // ================================================================
+    // Rule parser
+    // ================================================================
+
+    static final class RuleParser {
+        private static final Pattern RULE_PATTERN = Pattern.compile(
+                "(?ms)rule\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*\\{(.*?)^\\}");
+
+        private static final Pattern META_PATTERN = Pattern.compile(
+                "(?m)^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*\"([^\"]*)\"\\s*$");
+
+        private static final Pattern STRING_PATTERN = Pattern.compile(
+                "(?m)^\\s*\\$([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*"
+                        + "(\\{([^}]*)\\}|\"([^\"]*)\")"
+                        + "\\s*(ascii|wide)?\\s*(nocase)?\\s*$");
+
+        static List<YaraRule> parse(String ruleText) {
+            List<YaraRule> rules = new ArrayList<YaraRule>();
+            Matcher ruleMatcher = RULE_PATTERN.matcher(ruleText);
+
+            while (ruleMatcher.find()) {
+                String ruleName = ruleMatcher.group(1);
+                String body = ruleMatcher.group(2);
+
+                String metaBlock = section(body, "meta:", "strings:");
+                String stringsBlock = section(body, "strings:", "condition:");
+                String conditionBlock = after(body, "condition:");
+
+                Map<String, String> metadata = parseMetadata(metaBlock);
+                List<RuleString> strings = parseStrings(stringsBlock);
+
+                if (strings.isEmpty()) {
+                    throw new IllegalArgumentException(
+                            "Rule " + ruleName + " contains no strings");
+                }
+
+                RuleCondition condition =
+                        new ConditionCompiler(conditionBlock, strings).compile();
+
+                rules.add(new YaraRule(ruleName, metadata, strings, condition));
+            }
+
+            if (rules.isEmpty()) {
+                throw new IllegalArgumentException("No valid rules found");
+            }
+
+            return rules;
+        }
+
+        private static Map<String, String> parseMetadata(String text) {
+            Map<String, String> metadata = new HashMap<String, String>();
+            Matcher matcher = META_PATTERN.matcher(text);
+
+            while (matcher.find()) {
+                metadata.put(matcher.group(1), matcher.group(2));
+            }
+
+            return metadata;
+        }
+
+        private static List<RuleString> parseStrings(String text) {
+            List<RuleString> strings = new ArrayList<RuleString>();
+            Matcher matcher = STRING_PATTERN.matcher(text);
+
+            while (matcher.find()) {
+                String identifier = matcher.group(1);
+                String fullPattern = matcher.group(2);
+                String hexBody = matcher.group(3);
+                String textBody = matcher.group(4);
+                String encoding = matcher.group(5);
+                boolean noCase = matcher.group(6) != null;
+
+                RuleString ruleString;
+
+                if (fullPattern.startsWith("{")) {
+                    HexPattern hex = HexPattern.parse(hexBody);
+                    ruleString = new RuleString(identifier, hex.isFixed() ? null : hex);
+                    ruleString.variants.add(hex.atom());
+                } else {
+                    ruleString = new RuleString(identifier, null);
+                    boolean wide = "wide".equalsIgnoreCase(encoding);
+
+                    byte[] value = wide
+                            ? wideAscii(textBody)
+                            : ascii(textBody);
+
+                    if (noCase && !wide) {
+                        byte[] lower = toLowerAscii(value);
+                        byte[] upper = toUpperAscii(value);
+                        ruleString.variants.add(lower);
+
+                        // A string without letters would otherwise be
+                        // counted twice at every offset.
+                        if (!Arrays.equals(lower, upper)) {
+                            ruleString.variants.add(upper);
+                        }
+                    } else {
+                        ruleString.variants.add(value);
+                    }
+                }
+
+                strings.add(ruleString);
+            }
+
+            return strings;
+        }
+
+        /*
+         * Recursive-descent compiler for the condition grammar:
+         *
+         *   expr    := and ('or' and)*
+         *   and     := unary ('and' unary)*
+         *   unary   := 'not' unary | '(' expr ')' | 'true' | 'false'
+         *            | ('all' | 'any' | N) 'of' 'them'
+         *            | '$a' [ 'at' N | 'in' '(' N '..' N ')' ]
+         *            | '#a' cmp N | 'filesize' cmp N
+         *
+         * Numbers are decimal or 0x hex, with an optional KB or MB
+         * suffix. Each method emits postfix code and returns whether its
+         * subexpression requires some string of the rule to match.
+         */
+        private static final class ConditionCompiler {
+            private static final Pattern TOKEN = Pattern.compile(
+                    "\\s*(\\$[A-Za-z0-9_]+|#[A-Za-z0-9_]+|0[xX][0-9A-Fa-f]+|\\d+"
+                            + "|[A-Za-z_][A-Za-z0-9_]*|\\.\\.|==|!=|<=|>=|[<>()])");
+
+            private final String text;
+            private final List<String> tokens = new ArrayList<String>();
+            private final Map<String, Integer> strings = new HashMap<String, Integer>();
+            private long[] code = new long[16];
+            private int length;
+            private int position;
+
+            ConditionCompiler(String text, List<RuleString> ruleStrings) {
+                this.text = text;
+                Matcher matcher = TOKEN.matcher(text);
+                int end = 0;
+
+                while (matcher.find() && matcher.start() == end) {
+                    tokens.add(matcher.group(1));
+                    end = matcher.end();
+                }
+
+                if (!text.substring(end).trim().isEmpty()) {
+                    throw error("unexpected input at '" + text.substring(end).trim() + "'");
+                }
+
+                for (int i = 0; i < ruleStrings.size(); i++) {
+                    strings.put(ruleStrings.get(i).identifier, i);
+                }
+            }
+
+            RuleCondition compile() {
+                boolean requiresMatch = expression();
+
+                if (position < tokens.size()) {
+                    throw error("unexpected '" + tokens.get(position) + "'");
+                }
+
+                return new RuleCondition(Arrays.copyOf(code, length), requiresMatch);
+            }
+
+            private boolean expression() {
+                boolean requires = conjunction();
+
+                while (accept("or")) {
+                    requires &= conjunction();
+                    emit(RuleCondition.OR);
+                }
+
+                return requires;
+            }
+
+            private boolean conjunction() {
+                boolean requires = unary();
+
+                while (accept("and")) {
+                    requires |= unary();
+                    emit(RuleCondition.AND);
+                }
+
+                return requires;
+            }
+
+            private boolean unary() {
+                String token = next();
+
+                if ("not".equalsIgnoreCase(token)) {
+                    unary();
+                    emit(RuleCondition.NOT);
+                    return false;
+                }
+
+                if ("(".equals(token)) {
+                    boolean requires = expression();
+                    expect(")");
+                    return requires;
+                }
+
+                if ("true".equalsIgnoreCase(token) || "false".equalsIgnoreCase(token)) {
+                    emit(RuleCondition.CONST, "true".equalsIgnoreCase(token) ? 1 : 0);
+                    return false;
+                }
+
+                if ("all".equalsIgnoreCase(token) || "any".equalsIgnoreCase(token)) {
+                    expect("of");
+                    expect("them");
+                    emit("all".equalsIgnoreCase(token) ? RuleCondition.ALL_OF : RuleCondition.ANY_OF);
+                    return true;
+                }
+
+                if (token.startsWith("$")) {
+                    int string = string(token);
+
+                    if (accept("at")) {
+                        long offset = number(next());
+                        emit(RuleCondition.IN, string, offset, offset);
+                    } else if (accept("in")) {
+                        expect("(");
+                        long from = number(next());
+                        expect("..");
+                        long to = number(next());
+                        expect(")");
+                        emit(RuleCondition.IN, string, from, to);
+                    } else {
+                        emit(RuleCondition.COUNT, string);
+                        emit(RuleCondition.CONST, 0);
+                        emit(RuleCondition.GT);
+                    }
+
+                    return true;
+                }
+
+                if (token.startsWith("#")) {
+                    emit(RuleCondition.COUNT, string("$" + token.substring(1)));
+                    int op = comparison(next());
+                    long value = number(next());
+                    emit(RuleCondition.CONST, value);
+                    emit(op);
+                    return !RuleCondition.compare(op, 0, value);
+                }
+
+                if ("filesize".equalsIgnoreCase(token)) {
+                    emit(RuleCondition.FILESIZE);
+                    int op = comparison(next());
+                    emit(RuleCondition.CONST, number(next()));
+                    emit(op);
+                    return false;
+                }
+
+                long threshold = number(token);
+                expect("of");
+                expect("them");
+                emit(RuleCondition.N_OF, threshold);
+                return threshold > 0;
+            }
+
+            private int string(String token) {
+                Integer index = strings.get(token.substring(1));
+
+                if (index == null) {
+                    throw error("undefined string " + token);
+                }
+
+                return index.intValue();
+            }
+
+            private int comparison(String token) {
+                if ("==".equals(token)) return RuleCondition.EQ;
+                if ("!=".equals(token)) return RuleCondition.NE;
+                if ("<".equals(token)) return RuleCondition.LT;
+                if ("<=".equals(token)) return RuleCondition.LE;
+                if (">".equals(token)) return RuleCondition.GT;
+                if (">=".equals(token)) return RuleCondition.GE;
+                throw error("expected a comparison, found '" + token + "'");
+            }
+
+            private long number(String token) {
+                long value;
+
+                try {
+                    value = token.startsWith("0x") || token.startsWith("0X")
+                            ? Long.parseLong(token.substring(2), 16)
+                            : Long.parseLong(token);
+                } catch (NumberFormatException e) {
+                    throw error("expected a number, found '" + token + "'");
+                }
+
+                if (accept("KB")) return value << 10;
+                if (accept("MB")) return value << 20;
+                return value;
+            }
+
+            private String next() {
+                if (position == tokens.size()) {
+                    throw error("unexpected end of condition");
+                }
+
+                return tokens.get(position++);
+            }
+
+            private boolean accept(String keyword) {
+                if (position < tokens.size() && keyword.equalsIgnoreCase(tokens.get(position))) {
+                    position++;
+                    return true;
+                }
+
+                return false;
+            }
+
+            private void expect(String keyword) {
+                if (!accept(keyword)) {
+                    throw error("expected '" + keyword + "'");
+                }
+            }
+
+            private void emit(long... words) {
+                if (length + words.length > code.length) {
+                    code = Arrays.copyOf(code, Math.max(code.length * 2, length + words.length));
+                }
+
+                System.arraycopy(words, 0, code, length, words.length);
+                length += words.length;
+            }
+
+            private IllegalArgumentException error(String message) {
+                return new IllegalArgumentException(
+                        "Invalid condition '" + text.trim() + "': " + message);
+            }
+        }
+
+        private static String section(String body, String start, String end) {
+            int startIndex = body.indexOf(start);
+
+            if (startIndex < 0) return "";
+
+            startIndex += start.length();
+
+            int endIndex = body.indexOf(end, startIndex);
+
+            if (endIndex < 0) return body.substring(startIndex);
+
+            return body.substring(startIndex, endIndex);
+        }
+
+        private static String after(String body, String marker) {
+            int index = body.indexOf(marker);
+
+            return index < 0 ? "" : body.substring(index + marker.length());
+        }
+    }
+
+    // ================================================================
+    // Aho-Corasick multi-pattern matcher
+    // ================================================================
 
-                    automaton.addPattern(
-                            patternId,
-                            ruleString.variants.get(variant)
-                    );
+    interface MatchListener {
+        void onMatch(int patternId, long startOffset);
+    }
 
-                    references.put(
-                            patternId,
-                            new PatternReference(rule.name, ruleString.identifier)
-                    );
+    /*
+     * Flattened Aho-Corasick automaton over int pattern IDs.
+     *
+     * States are numbered in BFS order, so shallow states, which see most
+     * of the traffic, come first. The first DENSE_STATE_LIMIT states get a
+     * full 256-entry row in one int[] table with goto and failure folded
+     * in, i.e. a plain DFA step. Deeper states keep only their own edges
+     * in sorted CSR arrays and fall back through failure links, which
+     * always lead to a shallower state and eventually into the dense part.
+     *
+     * Outputs are CSR arrays of pattern IDs per state, chained through
+     * output links (nearest proper suffix with outputs), so nothing is
+     * copied between states. The matcher is immutable after construction.
+     */
+    static final class DenseMatcher {
+        static final int DENSE_STATE_LIMIT = 4096;
+
+        final int stateCount;
+        final int denseStates;
+        final int[] delta;
+        final int[] failure;
+        final int[] edgeStart;
+        final byte[] edgeLabels;
+        final int[] edgeTargets;
+        final int[] outputStart;
+        final int[] outputIds;
+        final int[] outputHead;
+        final int[] outputLink;
+        final int[] patternLengths;
+
+        DenseMatcher(List<byte[]> patterns) {
+            Map<Long, Integer> trieEdges = new HashMap<Long, Integer>();
+            List<int[]> ownOutputs = new ArrayList<int[]>();
+            int nodeCount = 1;
+            ownOutputs.add(null);
+
+            patternLengths = new int[patterns.size()];
+
+            for (int id = 0; id < patterns.size(); id++) {
+                byte[] pattern = patterns.get(id);
+
+                if (pattern == null || pattern.length == 0) {
+                    throw new IllegalArgumentException("Patterns cannot be empty");
                 }
-            }
-        }
-
-        automaton.buildFailureLinks();
 
-        Set<String> rawMatches = automaton.search(sample.bytes);
-        Map<String, Set<String>> matchesByRule =
-                new HashMap<String, Set<String>>();
+                patternLengths[id] = pattern.length;
+                int node = 0;
 
-        for (String patternId : rawMatches) {
-            PatternReference reference = references.get(patternId);
+                for (int i = 0; i < pattern.length; i++) {
+                    long key = ((long) node << 8) | (pattern[i] & 0xFF);
+                    Integer child = trieEdges.get(key);
 
-            if (reference == null) continue;
+                    if (child == null) {
+                        child = nodeCount++;
+                        trieEdges.put(key, child);
+                        ownOutputs.add(null);
+                    }
 
-            Set<String> strings = matchesByRule.get(reference.ruleName);
+                    node = child;
+                }
 
-            if (strings == null) {
-                strings = new HashSet<String>();
-                matchesByRule.put(reference.ruleName, strings);
+                ownOutputs.set(node, append(ownOutputs.get(node), id));
             }
 
-            strings.add(reference.stringIdentifier);
-        }
-
-        List<RuleMatch> ruleMatches = new ArrayList<RuleMatch>();
-        int score = 0;
+            // Group children per node, sorted by label.
+            int[] childCount = new int[nodeCount + 1];
 
-        for (int i = 0; i < rules.size(); i++) {
-            YaraRule rule = rules.get(i);
-            Set<String> matched = matchesByRule.get(rule.name);
-
-            if (matched == null) {
-                matched = new HashSet<String>();
+            for (Long key : trieEdges.keySet()) {
+                childCount[(int) (key >>> 8) + 1]++;
             }
 
-            if (rule.condition.matches(matched.size(), rule.strings.size())) {
-                int ruleScore = severityScore(rule.metadata.get("severity"))
-                        + matched.size() * 10;
-
-                score += ruleScore;
-                ruleMatches.add(new RuleMatch(rule, matched, ruleScore));
+            for (int i = 0; i < nodeCount; i++) {
+                childCount[i + 1] += childCount[i];
             }
-        }
-
-        return new ScanResult(sample, ruleMatches, score);
-    }
-
-    private static int severityScore(String severity) {
-        if (severity == null) return 10;
-
-        if ("critical".equalsIgnoreCase(severity)) return 100;
-        if ("high".equalsIgnoreCase(severity)) return 70;
-        if ("medium".equalsIgnoreCase(severity)) return 40;
-        if ("low".equalsIgnoreCase(severity)) return 10;
-
-        return 20;
-    }
 
-    private static void printResults(List<ScanResult> results) {
-        System.out.println("YARA-inspired Aho-Corasick scanner");
-        System.out.println("Simulated samples only");
-        System.out.println();
+            int[] trieStart = childCount.clone();
+            int[] trieLabels = new int[trieEdges.size()];
+            int[] trieTargets = new int[trieEdges.size()];
+            int[] fill = Arrays.copyOf(trieStart, nodeCount);
 
-        for (int i = 0; i < results.size(); i++) {
-            ScanResult result = results.get(i);
+            for (Map.Entry<Long, Integer> edge : trieEdges.entrySet()) {
+                int node = (int) (edge.getKey() >>> 8);
+                int slot = fill[node]++;
+                trieLabels[slot] = (int) (edge.getKey() & 0xFF);
+                trieTargets[slot] = edge.getValue();
+            }
 
-            System.out.println("Sample: " + result.sample.name);
-            System.out.println("Size  : " + result.sample.bytes.length + " bytes");
-            System.out.println("Score : " + result.score);
+            for (int node = 0; node < nodeCount; node++) {
+                sortEdges(trieLabels, trieTargets, trieStart[node], trieStart[node + 1]);
+            }
 
-            if (result.matches.isEmpty()) {
-                System.out.println("Result: No matching rules");
-            } else {
-                System.out.println("Result: MATCH");
+            // Renumber in BFS order.
+            int[] order = new int[nodeCount];
+            int[] rank = new int[nodeCount];
+            int head = 0;
+            int tail = 1;
 
-                for (int j = 0; j < result.matches.size(); j++) {
-                    RuleMatch match = result.matches.get(j);
+            while (head < tail) {
+                int node = order[head++];
 
-                    System.out.println("  Rule     : " + match.rule.name);
-                    System.out.println("  Severity : "
-                            + match.rule.metadata.get("severity"));
-                    System.out.println("  IOCs     : " + match.matchedIdentifiers);
-                    System.out.println("  Score    : " + match.score);
+                for (int e = trieStart[node]; e < trieStart[node + 1]; e++) {
+                    order[tail++] = trieTargets[e];
                 }
             }
 
-            System.out.println();
-        }
-    }
-
-    // ================================================================
-    // Rule parser
-    // ================================================================
+            for (int i = 0; i < nodeCount; i++) {
+                rank[order[i]] = i;
+            }
 
-    static final class RuleParser {
-        private static final Pattern RULE_PATTERN = Pattern.compile(
-                "(?ms)rule\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*\\{(.*?)^\\}");
+            stateCount = nodeCount;
+            denseStates = Math.min(nodeCount, DENSE_STATE_LIMIT);
+            delta = new int[denseStates * 256];
+            failure = new int[nodeCount];
+            edgeStart = new int[nodeCount + 1];
+            edgeLabels = new byte[trieLabels.length];
+            edgeTargets = new int[trieTargets.length];
+
+            for (int state = 0; state < nodeCount; state++) {
+                int node = order[state];
+                int count = trieStart[node + 1] - trieStart[node];
+                edgeStart[state + 1] = edgeStart[state] + count;
+
+                for (int e = 0; e < count; e++) {
+                    edgeLabels[edgeStart[state] + e] = (byte) trieLabels[trieStart[node] + e];
+                    edgeTargets[edgeStart[state] + e] = rank[trieTargets[trieStart[node] + e]];
+                }
+            }
 
-        private static final Pattern META_PATTERN = Pattern.compile(
-                "(?m)^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*\"([^\"]*)\"\\s*$");
+            // Failure links and dense rows, in BFS order so every failure
+            // target is finished before it is used.
+            for (int state = 0; state < nodeCount; state++) {
+                for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                    int child = edgeTargets[e];
+                    failure[child] = state == 0 ? 0 : next(failure[state], edgeLabels[e] & 0xFF);
+                }
 
-        private static final Pattern STRING_PATTERN = Pattern.compile(
-                "(?m)^\\s*\\$([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*"
-                        + "(\\{([^}]*)\\}|\"([^\"]*)\")"
-                        + "\\s*(ascii|wide)?\\s*(nocase)?\\s*$");
+                if (state < denseStates) {
+                    fillDenseRow(state);
+                }
+            }
 
-        static List<YaraRule> parse(String ruleText) {
-            List<YaraRule> rules = new ArrayList<YaraRule>();
-            Matcher ruleMatcher = RULE_PATTERN.matcher(ruleText);
+            outputStart = new int[nodeCount + 1];
 
-            while (ruleMatcher.find()) {
-                String ruleName = ruleMatcher.group(1);
-                String body = ruleMatcher.group(2);
+            for (int state = 0; state < nodeCount; state++) {
+                int[] own = ownOutputs.get(order[state]);
+                outputStart[state + 1] = outputStart[state] + (own == null ? 0 : own.length);
+            }
 
-                String metaBlock = section(body, "meta:", "strings:");
-                String stringsBlock = section(body, "strings:", "condition:");
-                String conditionBlock = after(body, "condition:");
+            outputIds = new int[outputStart[nodeCount]];
+            outputHead = new int[nodeCount];
+            outputLink = new int[nodeCount];
 
-                Map<String, String> metadata = parseMetadata(metaBlock);
-                List<RuleString> strings = parseStrings(stringsBlock);
-                RuleCondition condition = parseCondition(conditionBlock);
+            for (int state = 0; state < nodeCount; state++) {
+                int[] own = ownOutputs.get(order[state]);
 
-                if (strings.isEmpty()) {
-                    throw new IllegalArgumentException(
-                            "Rule " + ruleName + " contains no strings");
+                if (own != null) {
+                    System.arraycopy(own, 0, outputIds, outputStart[state], own.length);
                 }
 
-                rules.add(new YaraRule(ruleName, metadata, strings, condition));
+                int suffix = failure[state];
+                outputLink[state] = state == 0 ? -1 : outputHead[suffix];
+                outputHead[state] = own != null ? state : outputLink[state];
             }
+        }
 
-            if (rules.isEmpty()) {
-                throw new IllegalArgumentException("No valid rules found");
+        /*
+         * Rebuilds a matcher from stored tables. The dense rows are derived
+         * data and are recomputed rather than stored.
+         */
+        DenseMatcher(int denseStates, int[] failure,
+                     int[] edgeStart, byte[] edgeLabels, int[] edgeTargets,
+                     int[] outputStart, int[] outputIds, int[] outputHead,
+                     int[] outputLink, int[] patternLengths) {
+            this.stateCount = failure.length;
+            this.denseStates = denseStates;
+            this.delta = new int[denseStates * 256];
+            this.failure = failure;
+            this.edgeStart = edgeStart;
+            this.edgeLabels = edgeLabels;
+            this.edgeTargets = edgeTargets;
+            this.outputStart = outputStart;
+            this.outputIds = outputIds;
+            this.outputHead = outputHead;
+            this.outputLink = outputLink;
+            this.patternLengths = patternLengths;
+
+            for (int state = 0; state < denseStates; state++) {
+                fillDenseRow(state);
             }
-
-            return rules;
         }
 
-        private static Map<String, String> parseMetadata(String text) {
-            Map<String, String> metadata = new HashMap<String, String>();
-            Matcher matcher = META_PATTERN.matcher(text);
+        int patternCount() {
+            return patternLengths.length;
+        }
 
-            while (matcher.find()) {
-                metadata.put(matcher.group(1), matcher.group(2));
+        /*
+         * Runs the automaton over data[offset, offset + length) starting in
+         * the given state and returns the final state, so a caller can feed
+         * a stream chunk by chunk. baseOffset is the stream position of
+         * data[offset]; listeners receive each match's start offset.
+         */
+        int search(int state, byte[] data, int offset, int length,
+                   long baseOffset, MatchListener listener) {
+            int end = offset + length;
+
+            for (int i = offset; i < end; i++) {
+                state = next(state, data[i] & 0xFF);
+
+                if (outputHead[state] >= 0) {
+                    report(state, baseOffset + (i - offset), listener);
+                }
             }
 
-            return metadata;
+            return state;
         }
 
-        private static List<RuleString> parseStrings(String text) {
-            List<RuleString> strings = new ArrayList<RuleString>();
-            Matcher matcher = STRING_PATTERN.matcher(text);
+        /*
+         * Same as the array variant, over buffer[position, limit) with
+         * absolute reads, so memory-mapped regions are scanned in place.
+         */
+        int search(int state, ByteBuffer buffer, long baseOffset, MatchListener listener) {
+            int start = buffer.position();
+            int end = buffer.limit();
 
-            while (matcher.find()) {
-                String identifier = matcher.group(1);
-                String fullPattern = matcher.group(2);
-                String hexBody = matcher.group(3);
-                String textBody = matcher.group(4);
-                String encoding = matcher.group(5);
-                boolean noCase = matcher.group(6) != null;
+            for (int i = start; i < end; i++) {
+                state = next(state, buffer.get(i) & 0xFF);
 
-                RuleString ruleString = new RuleString(identifier);
+                if (outputHead[state] >= 0) {
+                    report(state, baseOffset + (i - start), listener);
+                }
+            }
 
-                if (fullPattern.startsWith("{")) {
-                    ruleString.variants.add(parseHexPattern(hexBody));
-                } else {
-                    boolean wide = "wide".equalsIgnoreCase(encoding);
+            return state;
+        }
 
-                    byte[] value = wide
-                            ? wideAscii(textBody)
-                            : ascii(textBody);
+        int next(int state, int value) {
+            while (state >= denseStates) {
+                int low = edgeStart[state];
+                int high = edgeStart[state + 1] - 1;
 
-                    if (noCase && !wide) {
-                        ruleString.variants.add(toLowerAscii(value));
-                        ruleString.variants.add(toUpperAscii(value));
+                while (low <= high) {
+                    int middle = (low + high) >>> 1;
+                    int label = edgeLabels[middle] & 0xFF;
+
+                    if (label < value) {
+                        low = middle + 1;
+                    } else if (label > value) {
+                        high = middle - 1;
                     } else {
-                        ruleString.variants.add(value);
+                        return edgeTargets[middle];
                     }
                 }
 
-                strings.add(ruleString);
+                state = failure[state];
             }
 
-            return strings;
+            return delta[state * 256 + value];
         }
 
-        private static RuleCondition parseCondition(String text) {
-            String normalized = text.trim().toLowerCase();
+        private void fillDenseRow(int state) {
+            int row = state * 256;
 
-            if ("all of them".equals(normalized)) {
-                return new RuleCondition(ConditionType.ALL, 0);
+            for (int value = 0; value < 256; value++) {
+                delta[row + value] = state == 0 ? 0 : delta[failure[state] * 256 + value];
             }
 
-            if ("any of them".equals(normalized)) {
-                return new RuleCondition(ConditionType.ANY, 0);
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                delta[row + (edgeLabels[e] & 0xFF)] = edgeTargets[e];
             }
+        }
 
-            Matcher threshold = Pattern.compile("(\\d+)\\s+of\\s+them")
-                    .matcher(normalized);
-
-            if (threshold.matches()) {
-                return new RuleCondition(
-                        ConditionType.THRESHOLD,
-                        Integer.parseInt(threshold.group(1))
-                );
+        private void report(int state, long position, MatchListener listener) {
+            for (int s = outputHead[state]; s >= 0; s = outputLink[s]) {
+                for (int o = outputStart[s]; o < outputStart[s + 1]; o++) {
+                    int id = outputIds[o];
+                    listener.onMatch(id, position - patternLengths[id] + 1);
+                }
             }
-
-            throw new IllegalArgumentException(
-                    "Supported conditions: all of them, any of them, N of them");
         }
 
-        private static String section(String body, String start, String end) {
-            int startIndex = body.indexOf(start);
-
-            if (startIndex < 0) return "";
-
-            startIndex += start.length();
-
-            int endIndex = body.indexOf(end, startIndex);
-
-            if (endIndex < 0) return body.substring(startIndex);
+        private static int[] append(int[] values, int value) {
+            if (values == null) {
+                return new int[] { value };
+            }
 
-            return body.substring(startIndex, endIndex);
+            int[] result = Arrays.copyOf(values, values.length + 1);
+            result[values.length] = value;
+            return result;
         }
 
-        private static String after(String body, String marker) {
-            int index = body.indexOf(marker);
+        private static void sortEdges(int[] labels, int[] targets, int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                int label = labels[i];
+                int target = targets[i];
+                int j = i - 1;
 
-            return index < 0 ? "" : body.substring(index + marker.length());
+                while (j >= from && labels[j] > label) {
+                    labels[j + 1] = labels[j];
+                    targets[j + 1] = targets[j];
+                    j--;
+                }
+
+                labels[j + 1] = label;
+                targets[j + 1] = target;
+            }
         }
     }
 
-    // ================================================================
-    // Aho-Corasick multi-pattern matcher
-    // ================================================================
-
+    /*
+     * Original map-based automaton. The scanner no longer uses it; it is
+     * kept as the baseline for --benchmark.
+     */
     static final class AhoCorasick {
         private final List<Node> nodes = new ArrayList<Node>();
 
@@ -469,28 +1977,447 @@ public final class YaraInspiredScanner {
         }
     }
 
+    /*
+     * A rule string and the byte variants fed to the matcher. For a
+     * wildcard hex string, hex is set and the single variant is its atom.
+     */
     static final class RuleString {
         final String identifier;
+        final HexPattern hex;
         final List<byte[]> variants = new ArrayList<byte[]>();
 
-        RuleString(String identifier) {
+        RuleString(String identifier, HexPattern hex) {
             this.identifier = identifier;
+            this.hex = hex;
+        }
+    }
+
+    /*
+     * A hex string with ?? wildcards, nibble masks (4? or ?A) and bounded
+     * [n] or [n-m] jumps. The pattern is stored as fixed-length masked
+     * segments separated by jumps. Its longest run of fully fixed bytes,
+     * the atom, is what the DenseMatcher searches for; each atom hit is
+     * only a candidate until matchesAt confirms the whole pattern.
+     */
+    static final class HexPattern {
+        static final int MAX_SPAN = 1 << 16;
+
+        private static final Pattern TOKEN = Pattern.compile(
+                "\\s*(?:([0-9A-Fa-f?]{2})|\\[\\s*(\\d+)\\s*(?:-\\s*(\\d+)\\s*)?\\])\\s*");
+
+        final byte[][] values;
+        final byte[][] masks;
+        final int[] jumpMin;
+        final int[] jumpMax;
+        final int atomSegment;
+        final int atomStart;
+        final int atomLength;
+        final int minPrefix;
+        final int maxPrefix;
+        final int maxSpan;
+
+        HexPattern(byte[][] values, byte[][] masks, int[] jumpMin, int[] jumpMax) {
+            this.values = values;
+            this.masks = masks;
+            this.jumpMin = jumpMin;
+            this.jumpMax = jumpMax;
+
+            int bestSegment = -1;
+            int bestStart = 0;
+            int bestLength = 0;
+
+            for (int segment = 0; segment < masks.length; segment++) {
+                int run = 0;
+
+                for (int i = 0; i <= masks[segment].length; i++) {
+                    if (i < masks[segment].length && masks[segment][i] == (byte) 0xFF) {
+                        run++;
+                        continue;
+                    }
+
+                    if (run > bestLength) {
+                        bestSegment = segment;
+                        bestStart = i - run;
+                        bestLength = run;
+                    }
+
+                    run = 0;
+                }
+            }
+
+            if (bestSegment < 0) {
+                throw new IllegalArgumentException(
+                        "Hex pattern needs at least one fixed byte");
+            }
+
+            int min = bestStart;
+            int max = bestStart;
+            int span = values[values.length - 1].length;
+
+            for (int segment = 0; segment < values.length - 1; segment++) {
+                if (segment < bestSegment) {
+                    min += values[segment].length + jumpMin[segment];
+                    max += values[segment].length + jumpMax[segment];
+                }
+
+                span += values[segment].length + jumpMax[segment];
+            }
+
+            if (span > MAX_SPAN) {
+                throw new IllegalArgumentException(
+                        "Hex pattern spans more than " + MAX_SPAN + " bytes");
+            }
+
+            this.atomSegment = bestSegment;
+            this.atomStart = bestStart;
+            this.atomLength = bestLength;
+            this.minPrefix = min;
+            this.maxPrefix = max;
+            this.maxSpan = span;
+        }
+
+        static HexPattern parse(String text) {
+            List<byte[]> values = new ArrayList<byte[]>();
+            List<byte[]> masks = new ArrayList<byte[]>();
+            List<int[]> jumps = new ArrayList<int[]>();
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            ByteArrayOutputStream mask = new ByteArrayOutputStream();
+            Matcher matcher = TOKEN.matcher(text);
+            int position = 0;
+
+            while (position < text.length()) {
+                matcher.region(position, text.length());
+
+                if (!matcher.lookingAt()) {
+                    throw new IllegalArgumentException("Invalid hex pattern: " + text);
+                }
+
+                position = matcher.end();
+
+                if (matcher.group(1) != null) {
+                    int high = nibble(matcher.group(1).charAt(0));
+                    int low = nibble(matcher.group(1).charAt(1));
+                    value.write((Math.max(high, 0) << 4) | Math.max(low, 0));
+                    mask.write((high < 0 ? 0 : 0xF0) | (low < 0 ? 0 : 0x0F));
+                    continue;
+                }
+
+                int min = Integer.parseInt(matcher.group(2));
+                int max = matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : min;
+
+                if (value.size() == 0 || max < min) {
+                    throw new IllegalArgumentException("Invalid hex jump in: " + text);
+                }
+
+                values.add(value.toByteArray());
+                masks.add(mask.toByteArray());
+                jumps.add(new int[] { min, max });
+                value.reset();
+                mask.reset();
+            }
+
+            if (value.size() == 0) {
+                throw new IllegalArgumentException(
+                        "Hex pattern cannot be empty or end with a jump: " + text);
+            }
+
+            values.add(value.toByteArray());
+            masks.add(mask.toByteArray());
+
+            int[] jumpMin = new int[jumps.size()];
+            int[] jumpMax = new int[jumps.size()];
+
+            for (int i = 0; i < jumps.size(); i++) {
+                jumpMin[i] = jumps.get(i)[0];
+                jumpMax[i] = jumps.get(i)[1];
+            }
+
+            return new HexPattern(values.toArray(new byte[0][]),
+                    masks.toArray(new byte[0][]), jumpMin, jumpMax);
+        }
+
+        private static int nibble(char c) {
+            if (c == '?') return -1;
+            return Character.digit(c, 16);
+        }
+
+        /*
+         * True for a plain hex string, which needs no verification and
+         * is searched for directly.
+         */
+        boolean isFixed() {
+            return values.length == 1 && atomLength == values[0].length;
+        }
+
+        byte[] atom() {
+            return Arrays.copyOfRange(values[atomSegment], atomStart, atomStart + atomLength);
+        }
+
+        /*
+         * Whether the pattern matches data[start, limit). As in YARA, the
+         * offsets where each segment may begin are tracked as a set, one
+         * segment at a time, instead of backtracking through every
+         * combination of gaps. Each offset of the span is tested at most
+         * once per segment, so the work is bounded by segments * maxSpan
+         * however many jumps the pattern has.
+         */
+        boolean matchesAt(byte[] data, int start, int limit) {
+            if (start < 0) {
+                return false;
+            }
+
+            BitSet reachable = new BitSet();
+            reachable.set(0);
+
+            for (int segment = 0; segment < values.length; segment++) {
+                int length = values[segment].length;
+                BitSet next = new BitSet();
+
+                for (int p = reachable.nextSetBit(0); p >= 0; p = reachable.nextSetBit(p + 1)) {
+                    if (!segmentMatches(data, start + p, limit, segment)) {
+                        continue;
+                    }
+
+                    if (segment == values.length - 1) {
+                        return true;
+                    }
+
+                    int from = p + length + jumpMin[segment];
+                    int to = Math.min(p + length + jumpMax[segment], limit - start);
+
+                    if (from <= to) {
+                        next.set(from, to + 1);
+                    }
+                }
+
+                if (next.isEmpty()) {
+                    return false;
+                }
+
+                reachable = next;
+            }
+
+            return false;
+        }
+
+        private boolean segmentMatches(byte[] data, int position, int limit, int segment) {
+            byte[] value = values[segment];
+            byte[] mask = masks[segment];
+
+            if (limit - position < value.length) {
+                return false;
+            }
+
+            for (int i = 0; i < value.length; i++) {
+                if ((data[position + i] & mask[i]) != value[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(values.length);
+
+            for (int segment = 0; segment < values.length; segment++) {
+                out.writeInt(values[segment].length);
+                out.write(values[segment]);
+                out.write(masks[segment]);
+
+                if (segment < jumpMin.length) {
+                    out.writeInt(jumpMin[segment]);
+                    out.writeInt(jumpMax[segment]);
+                }
+            }
+        }
+
+        static HexPattern read(DataInputStream in) throws IOException {
+            int segments = in.readInt();
+            byte[][] values = new byte[segments][];
+            byte[][] masks = new byte[segments][];
+            int[] jumpMin = new int[segments - 1];
+            int[] jumpMax = new int[segments - 1];
+
+            for (int segment = 0; segment < segments; segment++) {
+                values[segment] = new byte[in.readInt()];
+                masks[segment] = new byte[values[segment].length];
+                in.readFully(values[segment]);
+                in.readFully(masks[segment]);
+
+                if (segment < segments - 1) {
+                    jumpMin[segment] = in.readInt();
+                    jumpMax[segment] = in.readInt();
+                }
+            }
+
+            return new HexPattern(values, masks, jumpMin, jumpMax);
         }
     }
 
+    /*
+     * A rule condition compiled to a postfix program evaluated on a small
+     * long stack; non-zero is true. Operands follow their opcode inline,
+     * and string operands index the rule's own strings. requiresMatch is
+     * true when the condition cannot hold unless one of the rule's
+     * strings matched, so the rule need not be evaluated otherwise.
+     */
     static final class RuleCondition {
-        final ConditionType type;
-        final int threshold;
+        static final int CONST = 0;        // value
+        static final int COUNT = 1;        // string
+        static final int IN = 2;           // string, from, to
+        static final int FILESIZE = 3;
+        static final int ALL_OF = 4;
+        static final int ANY_OF = 5;
+        static final int N_OF = 6;         // n
+        static final int EQ = 7;
+        static final int NE = 8;
+        static final int LT = 9;
+        static final int LE = 10;
+        static final int GT = 11;
+        static final int GE = 12;
+        static final int AND = 13;
+        static final int OR = 14;
+        static final int NOT = 15;
+
+        final long[] program;
+        final boolean requiresMatch;
+        private final int stackDepth;
+
+        RuleCondition(long[] program, boolean requiresMatch) {
+            this.program = program;
+            this.requiresMatch = requiresMatch;
+            this.stackDepth = stackDepth(program);
+        }
+
+        /*
+         * The all / any / N of them forms, the only conditions stored by
+         * version 1 and 2 ruleset files.
+         */
+        static RuleCondition ofThem(ConditionType type, int threshold) {
+            if (type == ConditionType.ALL) {
+                return new RuleCondition(new long[] { ALL_OF }, true);
+            }
+
+            if (type == ConditionType.ANY) {
+                return new RuleCondition(new long[] { ANY_OF }, true);
+            }
+
+            return new RuleCondition(new long[] { N_OF, threshold }, threshold > 0);
+        }
+
+        boolean evaluate(MatchBuffer matches, int stringBase, int stringCount, long filesize) {
+            long[] stack = new long[stackDepth];
+            int top = 0;
+            int pc = 0;
+
+            while (pc < program.length) {
+                int op = (int) program[pc++];
+
+                switch (op) {
+                    case CONST:
+                        stack[top++] = program[pc++];
+                        break;
+                    case COUNT:
+                        stack[top++] = matches.hitCount(stringBase + (int) program[pc++]);
+                        break;
+                    case IN:
+                        stack[top++] = matches.matchedIn(stringBase + (int) program[pc],
+                                program[pc + 1], program[pc + 2]) ? 1 : 0;
+                        pc += 3;
+                        break;
+                    case FILESIZE:
+                        stack[top++] = filesize;
+                        break;
+                    case ALL_OF:
+                    case ANY_OF:
+                    case N_OF: {
+                        int matched = 0;
+
+                        for (int s = 0; s < stringCount; s++) {
+                            if (matches.hitCount(stringBase + s) > 0) {
+                                matched++;
+                            }
+                        }
+
+                        long needed = op == ALL_OF ? stringCount
+                                : op == ANY_OF ? 1 : program[pc++];
+                        stack[top++] = matched >= needed ? 1 : 0;
+                        break;
+                    }
+                    case NOT:
+                        stack[top - 1] = stack[top - 1] == 0 ? 1 : 0;
+                        break;
+                    case AND:
+                        top--;
+                        stack[top - 1] = stack[top - 1] != 0 && stack[top] != 0 ? 1 : 0;
+                        break;
+                    case OR:
+                        top--;
+                        stack[top - 1] = stack[top - 1] != 0 || stack[top] != 0 ? 1 : 0;
+                        break;
+                    default:
+                        top--;
+                        stack[top - 1] = compare(op, stack[top - 1], stack[top]) ? 1 : 0;
+                        break;
+                }
+            }
+
+            return stack[0] != 0;
+        }
 
-        RuleCondition(ConditionType type, int threshold) {
-            this.type = type;
-            this.threshold = threshold;
+        static boolean compare(int op, long left, long right) {
+            switch (op) {
+                case EQ: return left == right;
+                case NE: return left != right;
+                case LT: return left < right;
+                case LE: return left <= right;
+                case GT: return left > right;
+                case GE: return left >= right;
+                default: throw new IllegalArgumentException("Not a comparison: " + op);
+            }
         }
 
-        boolean matches(int matched, int total) {
-            if (type == ConditionType.ALL) return matched == total;
-            if (type == ConditionType.ANY) return matched > 0;
-            return matched >= threshold;
+        /*
+         * Walks the program once to size the evaluation stack, rejecting
+         * programs that underflow or do not leave exactly one value.
+         */
+        private static int stackDepth(long[] program) {
+            int depth = 0;
+            int max = 0;
+            int pc = 0;
+
+            while (pc < program.length) {
+                long op = program[pc++];
+
+                if (op == CONST || op == COUNT || op == N_OF) {
+                    pc++;
+                    depth++;
+                } else if (op == IN) {
+                    pc += 3;
+                    depth++;
+                } else if (op == FILESIZE || op == ALL_OF || op == ANY_OF) {
+                    depth++;
+                } else if (op == NOT) {
+                    if (depth < 1) depth = -1;
+                } else if (op >= EQ && op <= OR) {
+                    depth = depth < 2 ? -1 : depth - 1;
+                } else {
+                    throw new IllegalArgumentException("Unknown condition opcode " + op);
+                }
+
+                if (depth < 0 || pc > program.length) {
+                    throw new IllegalArgumentException("Malformed condition program");
+                }
+
+                max = Math.max(max, depth);
+            }
+
+            if (depth != 1) {
+                throw new IllegalArgumentException("Malformed condition program");
+            }
+
+            return max;
         }
     }
 
@@ -501,31 +2428,38 @@ public final class YaraInspiredScanner {
     static final class Sample {
         final String name;
         final byte[] bytes;
+        final long size;
 
         Sample(String name, byte[] bytes) {
             this.name = name;
             this.bytes = bytes;
+            this.size = bytes.length;
         }
-    }
 
-    static final class PatternReference {
-        final String ruleName;
-        final String stringIdentifier;
-
-        PatternReference(String ruleName, String stringIdentifier) {
-            this.ruleName = ruleName;
-            this.stringIdentifier = stringIdentifier;
+        /*
+         * A streamed file: only its name and size are kept.
+         */
+        Sample(String name, long size) {
+            this.name = name;
+            this.bytes = null;
+            this.size = size;
         }
     }
 
     static final class RuleMatch {
         final YaraRule rule;
         final Set<String> matchedIdentifiers;
+        final Map<String, Long> firstOffsets;
+        final Map<String, Integer> hitCounts;
         final int score;
 
-        RuleMatch(YaraRule rule, Set<String> matchedIdentifiers, int score) {
+        RuleMatch(YaraRule rule, Set<String> matchedIdentifiers,
+                  Map<String, Long> firstOffsets, Map<String, Integer> hitCounts,
+                  int score) {
             this.rule = rule;
             this.matchedIdentifiers = matchedIdentifiers;
+            this.firstOffsets = firstOffsets;
+            this.hitCounts = hitCounts;
             this.score = score;
         }
     }
@@ -534,11 +2468,13 @@ public final class YaraInspiredScanner {
         final Sample sample;
         final List<RuleMatch> matches;
         final int score;
+        final List<String> warnings;
 
-        ScanResult(Sample sample, List<RuleMatch> matches, int score) {
+        ScanResult(Sample sample, List<RuleMatch> matches, int score, List<String> warnings) {
             this.sample = sample;
             this.matches = matches;
             this.score = score;
+            this.warnings = warnings;
         }
     }
 